@@ -23,6 +23,7 @@ import org.geoserver.config.impl.GeoServerImpl;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.jdbcconfig.catalog.JDBCCatalogFacade;
 import org.geoserver.jdbcconfig.internal.ConfigDatabase;
+import org.geoserver.jdbcconfig.internal.XStreamInfoSerialBinding.Format;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.util.logging.Logging;
 
@@ -43,6 +44,12 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
 
     private URL initScript;
 
+    private Format blobFormat;
+
+    private boolean migrateBlobs;
+
+    private long changePollInterval;
+
     /**
      * DDL scripts copied to <data dir>/jdbcconfig_scripts/ on first startup
      */
@@ -62,6 +69,13 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
         this.catalogFacade = catalogFacade;
         ConfigDatabase configDatabase = ((JDBCCatalogFacade) catalogFacade).getConfigDatabase();
         configDatabase.initDb(initScript);
+        configDatabase.getBinding().setFormat(blobFormat);
+        if (migrateBlobs) {
+            configDatabase.migrateBlobs();
+        }
+        if (changePollInterval > 0) {
+            configDatabase.startChangePolling(changePollInterval);
+        }
     }
 
     public void setGeoServerFacade(GeoServerFacade geoServerFacade) {
@@ -135,6 +149,23 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
         final boolean runInitScript = Boolean.parseBoolean(configProps.getProperty("runInitScript",
                 "false"));
 
+        final String blobFormat = configProps.getProperty("blobFormat", Format.XML.name());
+        try {
+            this.blobFormat = Format.valueOf(blobFormat.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid blobFormat " + blobFormat + ", using " + Format.XML);
+            this.blobFormat = Format.XML;
+        }
+        this.migrateBlobs = Boolean.parseBoolean(configProps.getProperty("migrateBlobs",
+                "false"));
+        final String changePollInterval = configProps.getProperty("changePollInterval", "0");
+        try {
+            this.changePollInterval = Long.parseLong(changePollInterval.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid changePollInterval " + changePollInterval
+                    + ", change polling disabled");
+        }
+
         final String initScript = configProps.getProperty("initScript");
         if (runInitScript) {
             File file = new File(initScript);
@@ -144,6 +175,12 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
             // success, set runInitScript and importCatalog to false for next startup
             configProps.put("importCatalog", "false");
             configProps.put("runInitScript", "false");
+        }
+        if (migrateBlobs) {
+            // migrate only once
+            configProps.put("migrateBlobs", "false");
+        }
+        if (runInitScript || migrateBlobs) {
             OutputStream out = new FileOutputStream(propsFile);
             try {
                 configProps.store(new OutputStreamWriter(out, "UTF-8"), "");
@@ -6,22 +6,38 @@ import static com.google.common.base.Preconditions.checkState;
 import static org.geoserver.jdbcconfig.internal.DbUtils.logStatement;
 import static org.geoserver.jdbcconfig.internal.DbUtils.params;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,13 +45,19 @@ import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.Info;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.impl.ClassMappings;
 import org.geoserver.catalog.impl.ModificationProxy;
@@ -58,7 +80,10 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -88,6 +113,30 @@ public class ConfigDatabase {
 
     public static final Logger LOGGER = Logging.getLogger(ConfigDatabase.class);
 
+    /**
+     * Number of objects whose blobs are fetched with a single statement while iterating over
+     * query results, also used as the JDBC fetch size. Kept at 1000 as some databases (e.g.
+     * Oracle) don't accept longer IN lists
+     */
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Minimum number of blobs for their deserialization to be spread over multiple threads
+     */
+    static final int PARALLEL_THRESHOLD = 64;
+
+    /**
+     * How long entries are kept in the change log, in milliseconds. A node that did not poll
+     * for longer than this may have missed changes and drops all its cached objects
+     */
+    static final long CHANGE_RETENTION = 60 * 60 * 1000;
+
+    /**
+     * Number of change log entries below the highest one seen that are polled again, to catch
+     * the changes of transactions that committed out of sequence order
+     */
+    static final int CHANGE_LOOKBACK = 100;
+
     private DbMappings dbMappings;
 
     private CatalogImpl catalog;
@@ -102,6 +151,30 @@ public class ConfigDatabase {
 
     private InfoRowMapper<Info> configRowMapper;
 
+    private ExecutorService executor;
+
+    private int threads;
+
+    /**
+     * Identifies the changes made through this instance in the change log
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile boolean changeLogEnabled;
+
+    /**
+     * The highest change log sequence seen, and the ones seen in the lookback window
+     */
+    private long lastChange;
+
+    private SortedSet<Long> seenChanges = new TreeSet<Long>();
+
+    private long lastPoll;
+
+    private long lastPrune;
+
+    private ScheduledExecutorService changePoller;
+
     /**
      * Protected default constructor needed by spring-jdbc instrumentation
      */
@@ -117,7 +190,9 @@ public class ConfigDatabase {
             CacheProvider cacheProvider) {
 
         this.binding = binding;
-        this.template = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(BATCH_SIZE);
+        this.template = new NamedParameterJdbcTemplate(jdbcTemplate);
 
         this.dbMappings = new DbMappings();
 
@@ -128,6 +203,19 @@ public class ConfigDatabase {
             cacheProvider = DefaultCacheProvider.findProvider();
         }
         cache = cacheProvider.getCache("catalog");
+
+        this.threads = Runtime.getRuntime().availableProcessors();
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ConfigDatabase-loader-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = Exception.class)
@@ -174,6 +262,61 @@ public class ConfigDatabase {
         return this.catalog;
     }
 
+    public XStreamInfoSerialBinding getBinding() {
+        return binding;
+    }
+
+    /**
+     * Rewrites the stored blobs that are not in the format of the serial binding, for example
+     * after switching it from XML to binary, or back to XML for exporting the catalog.
+     * 
+     * @return the number of blobs rewritten
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = Exception.class)
+    public int migrateBlobs() {
+        final String selectOids = "select oid from object order by oid";
+        final String selectBlobs = "select oid, blob from object where oid in (:oids)";
+        final String update = "update object set blob = :blob where oid = :oid";
+
+        Stopwatch sw = new Stopwatch().start();
+        List<Integer> oids = template.getJdbcOperations().queryForList(selectOids, Integer.class);
+        int migrated = 0;
+        for (List<Integer> batch : Lists.partition(oids, BATCH_SIZE)) {
+            Map<String, ?> params = params("oids", batch);
+            logStatement(selectBlobs, params);
+            List<Map<String, Object>> rows = template.query(selectBlobs, params,
+                    new RowMapper<Map<String, Object>>() {
+                        @Override
+                        public Map<String, Object> mapRow(ResultSet rs, int rowNum)
+                                throws SQLException {
+                            String blob = rs.getString(2);
+                            String converted = binding.convert(blob);
+                            if (converted == blob) {
+                                return null;
+                            }
+                            Map<String, Object> values = new HashMap<String, Object>();
+                            values.put("oid", rs.getInt(1));
+                            values.put("blob", converted);
+                            return values;
+                        }
+                    });
+            List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>(rows.size());
+            for (Map<String, Object> row : rows) {
+                if (row != null) {
+                    updates.add(row);
+                }
+            }
+            if (!updates.isEmpty()) {
+                template.batchUpdate(update, updates.toArray(new Map[updates.size()]));
+                migrated += updates.size();
+            }
+        }
+        sw.stop();
+        LOGGER.info(Joiner.on("").join("Migrated ", migrated, " of ", oids.size(),
+                " objects to the ", binding.getFormat(), " format in ", sw.toString()));
+        return migrated;
+    }
+
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
 
         QueryBuilder<T> sqlBuilder = QueryBuilder.forCount(of, dbMappings).filter(filter);
@@ -236,20 +379,35 @@ public class ConfigDatabase {
                     sw.toString()));
         }
 
-        List<T> lazyTransformed = Lists.transform(ids, new Function<String, T>() {
-            @Override
-            public T apply(String id) {
-                return getById(id, of);
-            }
-        });
+        // load the objects a batch at a time, with a single statement for all the ones that are
+        // not cached yet, instead of one statement per object
+        Iterator<Iterator<T>> batches = Iterators.transform(
+                Lists.partition(ids, BATCH_SIZE).iterator(),
+                new Function<List<String>, Iterator<T>>() {
+                    @Override
+                    public Iterator<T> apply(List<String> batch) {
+                        // the cache may only hold weak references, keep the loaded objects
+                        // reachable until the batch has been consumed
+                        final Map<String, Info> loaded = preload(batch);
+                        return Iterators.transform(batch.iterator(), new Function<String, T>() {
+                            @Override
+                            public T apply(String id) {
+                                T info = getById(id, of);
+                                loaded.remove(id);
+                                return info;
+                            }
+                        });
+                    }
+                });
+        Iterator<T> lazyTransformed = Iterators.concat(batches);
 
         CloseableIterator<T> result;
 
         if (fullySupported) {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = lazyTransformed;
             result = new CloseableIteratorAdapter<T>(iterator);
         } else {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = lazyTransformed;
             if (offset != null) {
                 Iterators.skip(iterator, offset.intValue());
             }
@@ -262,6 +420,99 @@ public class ConfigDatabase {
         return result;
     }
 
+    /**
+     * Fetches the blobs of the objects that are not cached yet with a single statement,
+     * deserializes them (in parallel if there are enough of them) and puts them in the cache.
+     * 
+     * @return the loaded objects, by id
+     */
+    private Map<String, Info> preload(final List<String> ids) {
+        List<String> missing = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            if (cache.getIfPresent(id) == null) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() < 2) {
+            // nothing to gain over the regular cache loaders
+            return new HashMap<String, Info>();
+        }
+
+        final String sql = "select id, blob from object where id in (:ids)";
+        Map<String, ?> params = params("ids", missing);
+        logStatement(sql, params);
+
+        Stopwatch sw = new Stopwatch().start();
+        final List<String[]> rows = template.query(sql, params, new RowMapper<String[]>() {
+            @Override
+            public String[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new String[] { rs.getString(1), rs.getString(2) };
+            }
+        });
+        final Info[] infos = new Info[rows.size()];
+        if (executor == null || rows.size() < PARALLEL_THRESHOLD) {
+            deserialize(rows, infos, 0, rows.size());
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threads);
+            final int chunk = (rows.size() + threads - 1) / threads;
+            for (int from = 0; from < rows.size(); from += chunk) {
+                final int start = from;
+                final int end = Math.min(from + chunk, rows.size());
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        deserialize(rows, infos, start, end);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        Map<String, Info> loaded = new HashMap<String, Info>();
+        for (int i = 0; i < infos.length; i++) {
+            if (infos[i] != null) {
+                String id = rows.get(i)[0];
+                cache.put(id, infos[i]);
+                loaded.put(id, infos[i]);
+            }
+        }
+        sw.stop();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(Joiner.on("").join("loaded ", loaded.size(), " of ", missing.size(),
+                    " objects in ", sw.toString()));
+        }
+        return loaded;
+    }
+
+    /**
+     * Deserializes the blobs of the specified range of rows, the ones that fail are left out to
+     * be loaded again, and reported, by {@link #getById}
+     */
+    private void deserialize(List<String[]> rows, Info[] target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            String[] row = rows.get(i);
+            try {
+                Info info = binding.entryToObject(
+                        new ByteArrayInputStream(row[1].getBytes("UTF-8")), Info.class);
+                if (!(info instanceof CatalogInfo)) {
+                    initConfig(info);
+                }
+                target[i] = info;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to load " + row[0] + " in batch", e);
+            }
+        }
+    }
+
     public <T extends Info> List<T> queryAsList(final Class<T> of, final Filter filter,
             Integer offset, Integer count, SortBy sortOrder) {
 
@@ -315,6 +566,7 @@ public class ConfigDatabase {
             key = keyHolder.getKey();
         }
         addAttributes(info, key);
+        logChange(id);
 
         cache.put(id, info);
         return getById(id, interf);
@@ -524,6 +776,7 @@ public class ConfigDatabase {
         }
         final int relatedPropCount = template.update(deleteRelatedProperties, params("oid", oid));
         LOGGER.fine("Removed " + relatedPropCount + " related properties of " + info.getId());
+        logChange(info.getId());
 
         cache.invalidate(info.getId());
     }
@@ -573,6 +826,7 @@ public class ConfigDatabase {
         template.update(updateStatement, params);
 
         updateQueryableProperties(oldObject, objectId, changedProperties);
+        logChange(id);
 
         cache.invalidate(id);
         Class<T> clazz = ClassMappings.fromImpl(oldObject.getClass()).getInterface();
@@ -825,6 +1079,221 @@ public class ConfigDatabase {
     public void dispose() {
         cache.invalidateAll();
         cache.cleanUp();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (changePoller != null) {
+            changePoller.shutdown();
+        }
+    }
+
+    /**
+     * Starts recording the changes made through this instance in the change log, and polling
+     * it for the changes made by other nodes sharing the database, so that their cached copies
+     * and resources are dropped.
+     * 
+     * @param interval the polling interval, in milliseconds, if not positive the change log is
+     *        only polled by explicit {@link #pollChanges()} calls
+     */
+    public void startChangePolling(long interval) {
+        Long max;
+        try {
+            max = template.getJdbcOperations().queryForObject(
+                    "select max(seq) from object_change", Long.class);
+        } catch (DataAccessException e) {
+            LOGGER.log(Level.WARNING, "Change log table OBJECT_CHANGE not available, changes "
+                    + "made by other nodes won't be noticed. Create it running the matching "
+                    + "statement of the init script", e);
+            return;
+        }
+        synchronized (this) {
+            lastChange = max == null ? 0 : max.longValue();
+            lastPoll = lastPrune = System.currentTimeMillis();
+            changeLogEnabled = true;
+        }
+
+        if (interval > 0 && changePoller == null) {
+            changePoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ConfigDatabase-change-poller");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            changePoller.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        pollChanges();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to poll the catalog change log", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records a change to the object with the given id, so that other nodes can drop their
+     * cached copy
+     */
+    private void logChange(String id) {
+        if (!changeLogEnabled) {
+            return;
+        }
+        String sql = "insert into object_change (id, node, change_time) values (:id, :node, :time)";
+        Map<String, ?> params = params("id", id, "node", nodeId, "time",
+                new Timestamp(System.currentTimeMillis()));
+        logStatement(sql, params);
+        template.update(sql, params);
+    }
+
+    /**
+     * Drops the cached copies of the objects changed by other nodes since the last poll, and
+     * prunes the old change log entries
+     * 
+     * @return the number of changes made by other nodes
+     */
+    public synchronized int pollChanges() {
+        if (!changeLogEnabled) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - lastPoll > CHANGE_RETENTION) {
+            LOGGER.warning("Change log not polled for " + (now - lastPoll)
+                    + "ms, some changes may have been pruned, dropping all cached objects");
+            invalidateAll();
+        }
+        lastPoll = now;
+
+        final String sql = "select seq, id, node from object_change where seq > :seq order by seq";
+        Map<String, ?> params = params("seq", Math.max(0, lastChange - CHANGE_LOOKBACK));
+        logStatement(sql, params);
+        List<Object[]> changes = template.query(sql, params, new RowMapper<Object[]>() {
+            @Override
+            public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new Object[] { rs.getLong(1), rs.getString(2), rs.getString(3) };
+            }
+        });
+
+        int count = 0;
+        for (Object[] change : changes) {
+            Long seq = (Long) change[0];
+            if (!seenChanges.add(seq)) {
+                continue;
+            }
+            lastChange = Math.max(lastChange, seq);
+            if (!nodeId.equals(change[2])) {
+                invalidate((String) change[1]);
+                count++;
+            }
+        }
+        seenChanges.headSet(lastChange - CHANGE_LOOKBACK).clear();
+        if (count > 0 && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Dropped " + count + " objects changed by other nodes");
+        }
+
+        if (now - lastPrune > CHANGE_RETENTION / 10) {
+            String prune = "delete from object_change where change_time < :time";
+            params = params("time", new Timestamp(now - CHANGE_RETENTION));
+            logStatement(prune, params);
+            template.update(prune, params);
+            lastPrune = now;
+        }
+        return count;
+    }
+
+    /**
+     * Drops the cached copy of an object changed by another node, the cached objects referring
+     * to it, and the resources the resource pool keeps for it
+     */
+    private void invalidate(String id) {
+        Info info = cache.getIfPresent(id);
+        cache.invalidate(id);
+        if (!invalidateReferrers(id)) {
+            // removed, its references are gone from the database too and we cannot tell
+            // which cached objects still point to it
+            cache.invalidateAll();
+        }
+        if (info == null && catalog != null) {
+            // the resource pool may still hold resources for it, load the new version to find
+            // out, the object might have been removed too
+            info = getById(id, Info.class);
+        }
+        if (info != null) {
+            clearResources(info);
+        }
+    }
+
+    /**
+     * Drops the cached objects referring, directly or indirectly, to the specified one, as
+     * they hold a copy of it (e.g. a layer holds its resource, which holds its store)
+     * 
+     * @return false if the object is not in the database anymore
+     */
+    private boolean invalidateReferrers(String id) {
+        final String oidQuery = "select oid from object where id = :id";
+        Map<String, ?> params = params("id", id);
+        logStatement(oidQuery, params);
+        List<Integer> oids = template.queryForList(oidQuery, params, Integer.class);
+        if (oids.isEmpty()) {
+            return false;
+        }
+
+        final String sql = "select distinct o.oid, o.id from object o, object_property p "
+                + "where p.oid = o.oid and p.related_oid = :oid";
+        Set<Integer> visited = new HashSet<Integer>(oids);
+        LinkedList<Integer> pending = new LinkedList<Integer>(oids);
+        while (!pending.isEmpty()) {
+            params = params("oid", pending.removeFirst());
+            logStatement(sql, params);
+            List<Object[]> referrers = template.query(sql, params, new RowMapper<Object[]>() {
+                @Override
+                public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    return new Object[] { rs.getInt(1), rs.getString(2) };
+                }
+            });
+            for (Object[] referrer : referrers) {
+                if (visited.add((Integer) referrer[0])) {
+                    cache.invalidate((String) referrer[1]);
+                    pending.add((Integer) referrer[0]);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void invalidateAll() {
+        cache.invalidateAll();
+        if (catalog != null) {
+            for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+                clearResources(store);
+            }
+            for (FeatureTypeInfo featureType : catalog.getFeatureTypes()) {
+                clearResources(featureType);
+            }
+            for (StyleInfo style : catalog.getStyles()) {
+                clearResources(style);
+            }
+        }
+    }
+
+    private void clearResources(Info info) {
+        if (catalog == null) {
+            return;
+        }
+        ResourcePool pool = catalog.getResourcePool();
+        info = ModificationProxy.unwrap(info);
+        if (info instanceof DataStoreInfo) {
+            pool.clear((DataStoreInfo) info);
+        } else if (info instanceof CoverageStoreInfo) {
+            pool.clear((CoverageStoreInfo) info);
+        } else if (info instanceof WMSStoreInfo) {
+            pool.clear((WMSStoreInfo) info);
+        } else if (info instanceof FeatureTypeInfo) {
+            pool.clear((FeatureTypeInfo) info);
+        } else if (info instanceof StyleInfo) {
+            pool.clear((StyleInfo) info);
+        }
     }
 
     private final class CatalogLoader implements Callable<CatalogInfo> {
@@ -867,25 +1336,31 @@ public class ConfigDatabase {
             } catch (EmptyResultDataAccessException noSuchObject) {
                 return null;
             }
-            OwsUtils.resolveCollections(info);
-            if (info instanceof GeoServerInfo) {
+            initConfig(info);
+            return info;
+        }
+    }
 
-                GeoServerInfoImpl global = (GeoServerInfoImpl) info;
-                if (global.getMetadata() == null) {
-                    global.setMetadata(new MetadataMap());
-                }
-                if (global.getClientProperties() == null) {
-                    global.setClientProperties(new HashMap<Object, Object>());
-                }
-                if (global.getCoverageAccess() == null) {
-                    global.setCoverageAccess(new CoverageAccessInfoImpl());
-                }
-                if (global.getJAI() == null) {
-                    global.setJAI(new JAIInfoImpl());
-                }
-            }
+    /**
+     * Sets up the members a freshly deserialized config object may lack
+     */
+    private void initConfig(Info info) {
+        OwsUtils.resolveCollections(info);
+        if (info instanceof GeoServerInfo) {
 
-            return info;
+            GeoServerInfoImpl global = (GeoServerInfoImpl) info;
+            if (global.getMetadata() == null) {
+                global.setMetadata(new MetadataMap());
+            }
+            if (global.getClientProperties() == null) {
+                global.setClientProperties(new HashMap<Object, Object>());
+            }
+            if (global.getCoverageAccess() == null) {
+                global.setCoverageAccess(new CoverageAccessInfoImpl());
+            }
+            if (global.getJAI() == null) {
+                global.setJAI(new JAIInfoImpl());
+            }
         }
     }
 
@@ -1,38 +1,89 @@
 package org.geoserver.jdbcconfig.internal;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.logging.Level;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.Info;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersisterFactory;
 
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.XppDriver;
+
 /**
- * @param <T>
+ * Converts catalog and config objects to and from the contents of the object blob column.
+ * <p>
+ * Objects are stored either as XStream XML ({@link Format#XML}, the default) or as the
+ * XStream binary token stream, LZF compressed and base64 encoded so that it fits the text blob
+ * column ({@link Format#BINARY}). The binary format is a fraction of the size and avoids XML
+ * parsing when reading, which dominates the load time when the cache is cold. Both formats are
+ * always readable, so a database can hold a mix of them, and {@link #convert(String)} rewrites
+ * a blob in the configured format, e.g. to migrate existing rows or to export them back as XML.
+ * </p>
  */
 public class XStreamInfoSerialBinding {
 
+    /**
+     * The blob storage formats
+     */
+    public enum Format {
+        XML, BINARY
+    }
+
+    /**
+     * Marks binary blobs, XML ones always start with <code>&lt;</code>
+     */
+    static final String BINARY_PREFIX = "xsb:";
+
     private final XStreamPersister xstreamPersister;
 
+    private final XppDriver xmlDriver = new XppDriver();
+
+    private Format format = Format.XML;
+
     public XStreamInfoSerialBinding(final XStreamPersisterFactory xspf) {
         this.xstreamPersister = xspf.createXMLPersister();
         this.xstreamPersister.setLoggingLevel(Level.WARNING);
     }
 
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the format new and modified objects are stored with
+     */
+    public void setFormat(Format format) {
+        this.format = format == null ? Format.XML : format;
+    }
+
     public <T extends Info> T entryToObject(InputStream in, Class<T> target) {
-        // try {
-        // in = new LZFInputStream(in);
-        // } catch (Exception e) {
-        // throw Throwables.propagate(e);
-        // }
         T info;
 
         try {
-            info = xstreamPersister.load(in, target);
+            in = new BufferedInputStream(in);
+            if (isBinary(in)) {
+                Object obj = xstreamPersister.getXStream().unmarshal(binaryReader(in));
+                info = target.cast(obj);
+            } else {
+                info = xstreamPersister.load(in, target);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -46,11 +97,17 @@ public class XStreamInfoSerialBinding {
     }
 
     public void objectToEntry(final Info info, OutputStream out) {
-
-        // out = new LZFOutputStream(out);
-
         try {
-            xstreamPersister.save(info, out);
+            if (format == Format.BINARY) {
+                ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+                BinaryStreamWriter writer = new BinaryStreamWriter(tokens);
+                xstreamPersister.getXStream().marshal(XStreamPersister.unwrapProxies(info),
+                        writer);
+                writer.close();
+                writeBinary(tokens.toByteArray(), out);
+            } else {
+                xstreamPersister.save(info, out);
+            }
             out.flush();
             out.close();
         } catch (IOException e) {
@@ -58,8 +115,76 @@ public class XStreamInfoSerialBinding {
         }
     }
 
+    /**
+     * Converts a blob to the configured format, without deserializing it.
+     *
+     * @return the converted blob, or the same one if it's already in the configured format
+     */
+    public String convert(final String blob) {
+        final boolean binary = blob.startsWith(BINARY_PREFIX);
+        if (binary == (format == Format.BINARY)) {
+            return blob;
+        }
+        try {
+            HierarchicalStreamReader reader;
+            if (binary) {
+                reader = binaryReader(new ByteArrayInputStream(blob.substring(
+                        BINARY_PREFIX.length()).getBytes("UTF-8")));
+            } else {
+                reader = xmlDriver.createReader(new StringReader(blob));
+            }
+
+            HierarchicalStreamCopier copier = new HierarchicalStreamCopier();
+            if (format == Format.BINARY) {
+                ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+                HierarchicalStreamWriter writer = new BinaryStreamWriter(tokens);
+                copier.copy(reader, writer);
+                writer.close();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writeBinary(tokens.toByteArray(), out);
+                return new String(out.toByteArray(), "UTF-8");
+            } else {
+                StringWriter out = new StringWriter();
+                HierarchicalStreamWriter writer = xmlDriver.createWriter(out);
+                copier.copy(reader, writer);
+                writer.close();
+                return out.toString();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks whether the stream holds a binary blob, consuming the binary marker if so
+     */
+    private boolean isBinary(InputStream in) throws IOException {
+        byte[] prefix = BINARY_PREFIX.getBytes("UTF-8");
+        in.mark(prefix.length);
+        for (int i = 0; i < prefix.length; i++) {
+            if (in.read() != prefix[i]) {
+                in.reset();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the base64 encoded, LZF compressed token stream following the binary marker
+     */
+    private HierarchicalStreamReader binaryReader(InputStream in) throws IOException {
+        byte[] compressed = Base64.decodeBase64(IOUtils.toByteArray(in));
+        return new BinaryStreamReader(new ByteArrayInputStream(LZFDecoder.decode(compressed)));
+    }
+
+    private void writeBinary(byte[] tokens, OutputStream out) throws IOException {
+        out.write(BINARY_PREFIX.getBytes("UTF-8"));
+        out.write(Base64.encodeBase64(LZFEncoder.encode(tokens)));
+    }
+
     public void setCatalog(Catalog catalog) {
         xstreamPersister.setCatalog(catalog);
     }
 
-}
\ No newline at end of file
+}
@@ -8,3 +8,4 @@ DROP TABLE OBJECT_PROPERTY IF EXISTS;
 DROP TABLE TYPE IF EXISTS;
 DROP TABLE PROPERTY_TYPE IF EXISTS;
 DROP TABLE DEFAULT_OBJECT IF EXISTS;
+DROP TABLE OBJECT_CHANGE IF EXISTS;
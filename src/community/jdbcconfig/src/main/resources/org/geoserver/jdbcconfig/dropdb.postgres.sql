@@ -8,4 +8,5 @@ DROP TABLE OBJECT_PROPERTY CASCADE;
 DROP TABLE TYPE CASCADE;
 DROP TABLE PROPERTY_TYPE CASCADE;
 DROP TABLE DEFAULT_OBJECT CASCADE;
+DROP TABLE OBJECT_CHANGE CASCADE;
 
@@ -3,6 +3,7 @@ CREATE TABLE OBJECT_PROPERTY (OID int NOT NULL, PROPERTY_TYPE int NOT NULL, ID v
 CREATE TABLE TYPE (OID int GENERATED BY DEFAULT AS IDENTITY, TYPENAME varchar(255) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE PROPERTY_TYPE (OID int GENERATED BY DEFAULT AS IDENTITY, TARGET_PROPERTY int, TYPE_ID int NOT NULL, NAME varchar(255) NOT NULL, COLLECTION bit NOT NULL, TEXT bit NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE DEFAULT_OBJECT (DEF_KEY varchar(255) NOT NULL, ID varchar(255) NOT NULL);
+CREATE TABLE OBJECT_CHANGE (SEQ bigint GENERATED BY DEFAULT AS IDENTITY, ID varchar(255) NOT NULL, NODE varchar(64) NOT NULL, CHANGE_TIME timestamp NOT NULL, PRIMARY KEY (SEQ));
 ALTER TABLE OBJECT_PROPERTY ADD CONSTRAINT FK_OBJECT_PROPERTY FOREIGN KEY (OID) REFERENCES OBJECT (OID) ON DELETE Cascade;
 ALTER TABLE PROPERTY_TYPE ADD CONSTRAINT FK_TYPE_PROPERTY_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
 ALTER TABLE OBJECT ADD CONSTRAINT FK_OBJECT_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
@@ -27,3 +28,4 @@ CREATE INDEX PROPERTY_TYPE_NAME ON PROPERTY_TYPE (NAME);
 CREATE INDEX PROPERTY_TYPE_COLLECTION ON PROPERTY_TYPE (COLLECTION);
 CREATE UNIQUE INDEX DEFAULT_OBJECT_DEF_KEY ON DEFAULT_OBJECT (DEF_KEY);
 CREATE INDEX DEFAULT_OBJECT_ID ON DEFAULT_OBJECT (ID);
+CREATE INDEX OBJECT_CHANGE_CHANGE_TIME ON OBJECT_CHANGE (CHANGE_TIME);
@@ -3,6 +3,7 @@ CREATE TABLE OBJECT_PROPERTY (OID int4 NOT NULL, PROPERTY_TYPE int4 NOT NULL, ID
 CREATE TABLE TYPE (OID  SERIAL NOT NULL, TYPENAME varchar(255) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE PROPERTY_TYPE (OID  SERIAL NOT NULL, TARGET_PROPERTY int4, TYPE_ID int4 NOT NULL, NAME varchar(255) NOT NULL, COLLECTION bool NOT NULL, TEXT bool NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE DEFAULT_OBJECT (DEF_KEY varchar(255) NOT NULL, ID varchar(255) NOT NULL);
+CREATE TABLE OBJECT_CHANGE (SEQ BIGSERIAL NOT NULL, ID varchar(255) NOT NULL, NODE varchar(64) NOT NULL, CHANGE_TIME timestamp NOT NULL, PRIMARY KEY (SEQ));
 ALTER TABLE OBJECT_PROPERTY ADD CONSTRAINT FK_OBJECT_PROPERTY FOREIGN KEY (OID) REFERENCES OBJECT (OID) ON DELETE Cascade;
 ALTER TABLE PROPERTY_TYPE ADD CONSTRAINT FK_TYPE_PROPERTY_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
 ALTER TABLE OBJECT ADD CONSTRAINT FK_OBJECT_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
@@ -28,4 +29,5 @@ CREATE INDEX PROPERTY_TYPE_NAME ON PROPERTY_TYPE (NAME);
 CREATE INDEX PROPERTY_TYPE_COLLECTION ON PROPERTY_TYPE (COLLECTION);
 CREATE INDEX DEFAULT_OBJECT_DEF_KEY ON DEFAULT_OBJECT (DEF_KEY);
 CREATE INDEX DEFAULT_OBJECT_ID ON DEFAULT_OBJECT (ID);
+CREATE INDEX OBJECT_CHANGE_CHANGE_TIME ON OBJECT_CHANGE (CHANGE_TIME);
 
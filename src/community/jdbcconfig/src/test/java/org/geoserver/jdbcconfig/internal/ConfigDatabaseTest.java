@@ -16,7 +16,9 @@
  */
 package org.geoserver.jdbcconfig.internal;
 
+import java.io.Serializable;
 import java.lang.reflect.Proxy;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -26,6 +28,14 @@ import org.geoserver.catalog.Info;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.jdbcconfig.internal.XStreamInfoSerialBinding.Format;
+import org.geoserver.util.CacheProvider;
+import org.opengis.filter.Filter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * @author groldan
@@ -113,4 +123,124 @@ public class ConfigDatabaseTest extends TestCase {
         }
         assertEquals(info, saved);
     }
+
+    public void testQueryLoadsInBatches() throws Exception {
+        final int count = ConfigDatabase.PARALLEL_THRESHOLD * 2;
+        for (int i = 0; i < count; i++) {
+            WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+            ws.setId("ws" + i);
+            ws.setName("workspace" + i);
+            database.add(ws);
+        }
+
+        // a database with an empty cache, that will need to load all of them
+        final Cache<String, Info> cache = CacheBuilder.newBuilder().build();
+        ConfigDatabase other = createDatabase(cache);
+        try {
+            CloseableIterator<WorkspaceInfo> it = other.query(WorkspaceInfo.class,
+                    Filter.INCLUDE, null, null, null);
+            try {
+                assertTrue(it.hasNext());
+                assertEquals("workspace0", it.next().getName());
+                // the whole batch got loaded at once
+                assertEquals(count, cache.size());
+            } finally {
+                it.close();
+            }
+
+            List<WorkspaceInfo> all = other.queryAsList(WorkspaceInfo.class, Filter.INCLUDE,
+                    null, null, null);
+            assertEquals(count, all.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals("ws" + i, all.get(i).getId());
+                assertEquals("workspace" + i, all.get(i).getName());
+            }
+        } finally {
+            other.dispose();
+        }
+    }
+
+    public void testMigrateBlobs() throws Exception {
+        WorkspaceInfo ws = addWorkspace();
+        assertEquals(0, database.migrateBlobs());
+
+        database.getBinding().setFormat(Format.BINARY);
+        assertEquals(1, database.migrateBlobs());
+        assertEquals(0, database.migrateBlobs());
+        database.dispose();
+        assertEquals(ws, database.getById(ws.getId(), WorkspaceInfo.class));
+
+        // export back as xml
+        database.getBinding().setFormat(Format.XML);
+        assertEquals(1, database.migrateBlobs());
+        database.dispose();
+        assertEquals(ws, database.getById(ws.getId(), WorkspaceInfo.class));
+    }
+
+    public void testChangePolling() throws Exception {
+        WorkspaceInfo ws = addWorkspace();
+        ConfigDatabase other = createDatabase(CacheBuilder.newBuilder().<String, Info> build());
+        try {
+            database.startChangePolling(0);
+            other.startChangePolling(0);
+            assertEquals("ws1", other.getById(ws.getId(), WorkspaceInfo.class).getName());
+
+            ws.setName("newName");
+            database.save(ws);
+            // changes made locally are already taken care of
+            assertEquals(0, database.pollChanges());
+
+            // the other node still has the old copy until it polls
+            assertEquals("ws1", other.getById(ws.getId(), WorkspaceInfo.class).getName());
+            assertEquals(1, other.pollChanges());
+            assertEquals("newName", other.getById(ws.getId(), WorkspaceInfo.class).getName());
+            assertEquals(0, other.pollChanges());
+        } finally {
+            other.dispose();
+        }
+    }
+
+    public void testChangePollingDropsReferrers() throws Exception {
+        WorkspaceInfo ws = addWorkspace();
+        DataStoreInfo ds = addDataStore(ws);
+        Cache<String, Info> cache = CacheBuilder.newBuilder().<String, Info> build();
+        ConfigDatabase other = createDatabase(cache);
+        try {
+            database.startChangePolling(0);
+            other.startChangePolling(0);
+            assertNotNull(other.getById(ds.getId(), DataStoreInfo.class));
+            assertNotNull(cache.getIfPresent(ds.getId()));
+
+            ws = database.getById(ws.getId(), WorkspaceInfo.class);
+            ws.setName("newName");
+            database.save(ws);
+
+            // the store holds a copy of the workspace, it has to go as well
+            assertEquals(1, other.pollChanges());
+            assertNull(cache.getIfPresent(ws.getId()));
+            assertNull(cache.getIfPresent(ds.getId()));
+        } finally {
+            other.dispose();
+        }
+    }
+
+    /**
+     * Creates another database sharing the same tables, as another node would
+     */
+    private ConfigDatabase createDatabase(final Cache<String, Info> cache) throws Exception {
+        XStreamInfoSerialBinding binding = new XStreamInfoSerialBinding(
+                new XStreamPersisterFactory());
+        ConfigDatabase other = new ConfigDatabase(testSupport.getDataSource(), binding,
+                new CacheProvider() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public <K extends Serializable, V extends Serializable> Cache<K, V> getCache(
+                            String cacheName) {
+                        return (Cache<K, V>) cache;
+                    }
+                });
+        other.setCatalog(testSupport.getCatalog());
+        other.initDb(null);
+        return other;
+    }
 }
@@ -0,0 +1,66 @@
+package org.geoserver.jdbcconfig.internal;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.jdbcconfig.internal.XStreamInfoSerialBinding.Format;
+
+public class XStreamInfoSerialBindingTest extends TestCase {
+
+    private XStreamInfoSerialBinding binding;
+
+    private WorkspaceInfoImpl ws;
+
+    @Override
+    protected void setUp() throws Exception {
+        binding = new XStreamInfoSerialBinding(new XStreamPersisterFactory());
+        binding.setCatalog(new CatalogImpl());
+
+        ws = new WorkspaceInfoImpl();
+        ws.setId("wsid");
+        ws.setName("ws1");
+    }
+
+    public void testXml() throws Exception {
+        byte[] entry = binding.objectToEntry(ws);
+        assertTrue(new String(entry, "UTF-8").startsWith("<"));
+        assertEquals(ws, read(entry));
+    }
+
+    public void testBinary() throws Exception {
+        byte[] xml = binding.objectToEntry(ws);
+
+        binding.setFormat(Format.BINARY);
+        byte[] entry = binding.objectToEntry(ws);
+        assertTrue(new String(entry, "UTF-8").startsWith(XStreamInfoSerialBinding.BINARY_PREFIX));
+        assertEquals(ws, read(entry));
+
+        // existing xml entries are still readable
+        assertEquals(ws, read(xml));
+    }
+
+    public void testConvert() throws Exception {
+        String xml = new String(binding.objectToEntry(ws), "UTF-8");
+        assertSame(xml, binding.convert(xml));
+
+        binding.setFormat(Format.BINARY);
+        String binary = binding.convert(xml);
+        assertTrue(binary.startsWith(XStreamInfoSerialBinding.BINARY_PREFIX));
+        assertSame(binary, binding.convert(binary));
+        assertEquals(ws, read(binary.getBytes("UTF-8")));
+
+        binding.setFormat(Format.XML);
+        String exported = binding.convert(binary);
+        assertTrue(exported.startsWith("<"));
+        assertEquals(ws, read(exported.getBytes("UTF-8")));
+    }
+
+    private WorkspaceInfo read(byte[] entry) {
+        return binding.entryToObject(new ByteArrayInputStream(entry), WorkspaceInfo.class);
+    }
+}
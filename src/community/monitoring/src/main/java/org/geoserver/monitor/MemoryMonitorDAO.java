@@ -11,44 +11,86 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
 
+/**
+ * In memory monitor storage.
+ * <p>
+ * Running requests are kept in a map by id, completed ones in a fixed size ring buffer that
+ * overwrites the oldest entries, neither requires locking. Completed requests are also
+ * accumulated in {@link RequestStatistics}, which keep per service and per layer aggregates
+ * over a longer time span than the ring buffer.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
-    Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
+    /**
+     * Default number of completed requests kept in memory
+     */
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+
+    ConcurrentMap<Long, RequestData> live = new ConcurrentHashMap<Long, RequestData>();
+    
+    AtomicReferenceArray<RequestData> history;
+    
+    /**
+     * Total number of requests added to the history, the next slot is this value modulo the
+     * history size
+     */
+    AtomicLong historyCount = new AtomicLong();
+    
+    RequestStatistics statistics = new RequestStatistics();
     
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
     
+    public MemoryMonitorDAO() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+    
+    /**
+     * @param historySize the number of completed requests kept in memory
+     */
+    public MemoryMonitorDAO(int historySize) {
+        if (historySize <= 0) {
+            throw new IllegalArgumentException("History size must be positive");
+        }
+        history = new AtomicReferenceArray<RequestData>(historySize);
+    }
+    
     public RequestData init(RequestData data) {
         data.setId(REQUEST_ID_GEN.getAndIncrement());
         return data;
     }
     
     public void add(RequestData data) {
-        live.add(data);
+        live.put(data.getId(), data);
     }
 
     public void update(RequestData data) {
     }
 
     public void save(RequestData data) {
-        live.remove(data);
-        history.add(data);
+        live.remove(data.getId());
         
-        if (history.size() > 100) {
-            history.poll();
-        }
+        long slot = historyCount.getAndIncrement();
+        history.set((int) (slot % history.length()), data);
+        
+        statistics.add(data);
     }
     
     public RequestData getRequest(long id) {
-        for (RequestData r : getRequests()) {
+        RequestData data = live.get(id);
+        if (data != null) {
+            return data;
+        }
+        for (RequestData r : getHistory()) {
             if (r.getId() == id) {
                 return r;
             }
@@ -58,10 +100,36 @@ public class MemoryMonitorDAO implements MonitorDAO {
     
     public List<RequestData> getRequests() {
         List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        requests.addAll(live.values());
+        requests.addAll(getHistory());
+        return requests;
+    }
+    
+    /**
+     * Returns the completed requests still in the ring buffer, oldest first. Requests
+     * completing while the buffer is read may or may not be included.
+     */
+    List<RequestData> getHistory() {
+        int size = history.length();
+        long end = historyCount.get();
+        long start = Math.max(0, end - size);
+        
+        List<RequestData> requests = new ArrayList<RequestData>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            RequestData data = history.get((int) (i % size));
+            if (data != null) {
+                requests.add(data);
+            }
+        }
         return requests;
     }
+    
+    /**
+     * Returns the aggregated statistics about the completed requests
+     */
+    public RequestStatistics getStatistics() {
+        return statistics;
+    }
         
     public List<RequestData> getRequests(Query q) {
         List<RequestData> requests = getRequests();
@@ -154,8 +222,8 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     public void dispose() {
         live.clear();
         live = null;
-        history.clear();
         history = null;
+        statistics.clear();
     }
     
     static interface Predicate {
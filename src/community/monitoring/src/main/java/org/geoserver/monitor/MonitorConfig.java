@@ -93,13 +93,28 @@ public class MonitorConfig implements ApplicationContextAware {
         Mode m = getMode();
         
         if (m == Mode.LIVE) {
-            return new MemoryMonitorDAO();
+            Integer historySize = getProperty("memory", "historySize", Integer.class);
+            return historySize != null ? new MemoryMonitorDAO(historySize)
+                    : new MemoryMonitorDAO();
         }
         
         HibernateMonitorDAO2 dao = (HibernateMonitorDAO2) context.getBean("hibMonitorDAO");
         dao.setMode(m);
         dao.setSync(getSync());
         
+        Integer batchSize = getProperty("batch", "size", Integer.class);
+        if (batchSize != null) {
+            dao.setBatchSize(batchSize);
+        }
+        Long flushInterval = getProperty("batch", "flushInterval", Long.class);
+        if (flushInterval != null) {
+            dao.setBatchFlushInterval(flushInterval);
+        }
+        Integer maxQueueSize = getProperty("batch", "maxQueueSize", Integer.class);
+        if (maxQueueSize != null) {
+            dao.setBatchMaxQueueSize(maxQueueSize);
+        }
+        
         return dao;
     }
     
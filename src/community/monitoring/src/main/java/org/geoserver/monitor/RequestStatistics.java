@@ -0,0 +1,369 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geoserver.monitor.RequestData.Status;
+
+/**
+ * Pre-aggregated request statistics, by OWS service/operation and by layer, kept in fixed
+ * size time buckets so that summaries can be computed without scanning the requests.
+ * <p>
+ * Each bucket keeps, for each service operation and layer, the number of requests, the number
+ * of failed ones, the total and maximum response time and a response time histogram with
+ * power of two millisecond bins, from which percentiles are estimated. Buckets are recycled
+ * once they fall out of the time window, requests completed before the window are ignored.
+ * All updates are lock free.
+ * </p>
+ */
+public class RequestStatistics {
+
+    /**
+     * Number of histogram bins, the last one collects everything above ~1 hour
+     */
+    static final int HISTOGRAM_SIZE = 24;
+
+    final long bucketMillis;
+
+    final AtomicReferenceArray<TimeBucket> buckets;
+
+    /**
+     * Statistics for the last hour in one minute buckets
+     */
+    public RequestStatistics() {
+        this(60 * 1000, 60);
+    }
+
+    /**
+     * @param bucketMillis the time span of each bucket, in milliseconds
+     * @param bucketCount the number of buckets, the oldest ones are dropped as time passes
+     */
+    public RequestStatistics(long bucketMillis, int bucketCount) {
+        if (bucketMillis <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException("Bucket size and count must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicReferenceArray<TimeBucket>(bucketCount);
+    }
+
+    /**
+     * Accumulates a completed request
+     */
+    public void add(RequestData data) {
+        Date time = data.getEndTime() != null ? data.getEndTime() : data.getStartTime();
+        TimeBucket bucket = bucket(time != null ? time.getTime() : System.currentTimeMillis());
+        if (bucket == null) {
+            // older than the time window
+            return;
+        }
+
+        long totalTime = data.getTotalTime();
+        if (totalTime <= 0 && data.getStartTime() != null && data.getEndTime() != null) {
+            totalTime = data.getEndTime().getTime() - data.getStartTime().getTime();
+        }
+        boolean failed = data.getStatus() == Status.FAILED || data.getError() != null;
+
+        if (data.getService() != null) {
+            String key = data.getOperation() != null ? data.getService() + "."
+                    + data.getOperation() : data.getService();
+            counter(bucket.services, key).add(totalTime, failed);
+        }
+        if (data.getResources() != null) {
+            for (String layer : data.getResources()) {
+                counter(bucket.layers, layer).add(totalTime, failed);
+            }
+        }
+    }
+
+    /**
+     * Returns the time bucket for the specified time, or null if the time falls before the
+     * current window
+     */
+    TimeBucket bucket(long time) {
+        long index = time / bucketMillis;
+        if (index <= oldestIndex()) {
+            return null;
+        }
+        int slot = (int) (index % buckets.length());
+        while (true) {
+            TimeBucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.index == index) {
+                return bucket;
+            }
+            if (bucket != null && bucket.index > index) {
+                return null;
+            }
+            // empty or stale slot, recycle it
+            if (buckets.compareAndSet(slot, bucket, new TimeBucket(index))) {
+                return buckets.get(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the last bucket that fell out of the time window
+     */
+    long oldestIndex() {
+        return System.currentTimeMillis() / bucketMillis - buckets.length();
+    }
+
+    static Counter counter(ConcurrentMap<String, Counter> counters, String key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Summarizes the requests by service and operation (<code>service.operation</code>) in
+     * the specified time range.
+     *
+     * @param from the start of the range, or null for the start of the time window
+     * @param to the end of the range, or null for no end
+     */
+    public List<Summary> getServiceSummaries(Date from, Date to) {
+        return summarize(from, to, true);
+    }
+
+    /**
+     * Summarizes the requests by layer in the specified time range
+     *
+     * @param from the start of the range, or null for the start of the time window
+     * @param to the end of the range, or null for no end
+     */
+    public List<Summary> getLayerSummaries(Date from, Date to) {
+        return summarize(from, to, false);
+    }
+
+    List<Summary> summarize(Date from, Date to, boolean services) {
+        long fromIndex = Math.max(oldestIndex() + 1, from != null ? from.getTime()
+                / bucketMillis : Long.MIN_VALUE);
+        long toIndex = to != null ? to.getTime() / bucketMillis : Long.MAX_VALUE;
+
+        Map<String, Summary> summaries = new TreeMap<String, Summary>();
+        for (int i = 0; i < buckets.length(); i++) {
+            TimeBucket bucket = buckets.get(i);
+            if (bucket == null || bucket.index < fromIndex || bucket.index > toIndex) {
+                continue;
+            }
+            Map<String, Counter> counters = services ? bucket.services : bucket.layers;
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                Summary summary = summaries.get(entry.getKey());
+                if (summary == null) {
+                    summary = new Summary(entry.getKey());
+                    summaries.put(entry.getKey(), summary);
+                }
+                summary.merge(entry.getValue());
+            }
+        }
+
+        List<Summary> result = new ArrayList<Summary>(summaries.values());
+        for (Summary summary : result) {
+            summary.computePercentiles();
+        }
+        Collections.sort(result, new Comparator<Summary>() {
+            public int compare(Summary s1, Summary s2) {
+                return s1.count > s2.count ? -1 : (s1.count == s2.count ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Drops all the statistics
+     */
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    /**
+     * Returns the histogram bin for a response time
+     */
+    static int bin(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(millis), HISTOGRAM_SIZE - 1);
+    }
+
+    /**
+     * Returns the upper bound, in milliseconds, of the response times in a histogram bin
+     */
+    static long upperBound(int bin) {
+        return 1l << bin;
+    }
+
+    static class TimeBucket {
+        final long index;
+
+        final ConcurrentMap<String, Counter> services = new ConcurrentHashMap<String, Counter>();
+
+        final ConcurrentMap<String, Counter> layers = new ConcurrentHashMap<String, Counter>();
+
+        TimeBucket(long index) {
+            this.index = index;
+        }
+    }
+
+    static class Counter {
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong failed = new AtomicLong();
+
+        final AtomicLong totalTime = new AtomicLong();
+
+        final AtomicLong maxTime = new AtomicLong();
+
+        final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_SIZE);
+
+        void add(long time, boolean failure) {
+            count.incrementAndGet();
+            if (failure) {
+                failed.incrementAndGet();
+            }
+            totalTime.addAndGet(time);
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+            histogram.incrementAndGet(bin(time));
+        }
+    }
+
+    /**
+     * Aggregated statistics about a service operation or layer
+     */
+    public static class Summary {
+        String name;
+
+        long count;
+
+        long failed;
+
+        long totalTime;
+
+        long maxTime;
+
+        transient long[] histogram = new long[HISTOGRAM_SIZE];
+
+        long median;
+
+        long percentile90;
+
+        long percentile99;
+
+        Summary(String name) {
+            this.name = name;
+        }
+
+        void merge(Counter counter) {
+            count += counter.count.get();
+            failed += counter.failed.get();
+            totalTime += counter.totalTime.get();
+            maxTime = Math.max(maxTime, counter.maxTime.get());
+            for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+                histogram[i] += counter.histogram.get(i);
+            }
+        }
+
+        void computePercentiles() {
+            median = percentile(0.5);
+            percentile90 = percentile(0.9);
+            percentile99 = percentile(0.99);
+        }
+
+        long percentile(double ratio) {
+            long total = 0;
+            for (long n : histogram) {
+                total += n;
+            }
+            long threshold = (long) Math.ceil(total * ratio);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+                seen += histogram[i];
+                if (seen >= threshold && seen > 0) {
+                    return Math.min(upperBound(i), maxTime);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * The service operation or layer name
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Total response time, in milliseconds
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * Average response time, in milliseconds
+         */
+        public long getAverageTime() {
+            return count > 0 ? totalTime / count : 0;
+        }
+
+        /**
+         * Maximum response time, in milliseconds
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * Estimated median response time, in milliseconds
+         */
+        public long getMedian() {
+            return median;
+        }
+
+        /**
+         * Estimated 90th percentile of the response time, in milliseconds
+         */
+        public long getPercentile90() {
+            return percentile90;
+        }
+
+        /**
+         * Estimated 99th percentile of the response time, in milliseconds
+         */
+        public long getPercentile99() {
+            return percentile99;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.RequestData;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Accumulates completed requests that have not been persisted yet and writes them in batches,
+ * as soon as a batch is full or a time interval elapsed since the last write, from a single
+ * background thread.
+ * <p>
+ * When the database cannot keep up the queue fills up: past the high water mark only one
+ * request every {@link #getSamplingRate()} is accepted, and once the queue is full requests are
+ * dropped. Requests modified after being queued are written with their latest state, or
+ * updated again if the change happened while their batch was being written.
+ * </p>
+ */
+public abstract class BatchWriter implements Runnable {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    int batchSize;
+
+    long flushInterval;
+
+    int highWaterMark;
+
+    int samplingRate = 10;
+
+    BlockingQueue<RequestData> queue;
+
+    /**
+     * The requests queued or being written, with a flag telling if they have been modified
+     * since their batch started being written
+     */
+    ConcurrentMap<RequestData, AtomicBoolean> pending = new ConcurrentHashMap<RequestData, AtomicBoolean>();
+
+    AtomicLong sampleCounter = new AtomicLong();
+
+    AtomicLong written = new AtomicLong();
+
+    AtomicLong dropped = new AtomicLong();
+
+    AtomicLong sampled = new AtomicLong();
+
+    AtomicLong failed = new AtomicLong();
+
+    AtomicLong flushes = new AtomicLong();
+
+    AtomicLong flushTime = new AtomicLong();
+
+    volatile long lastFlushTime;
+
+    volatile Thread thread;
+
+    /**
+     * @param batchSize the number of requests written in a single batch
+     * @param flushInterval the maximum time, in milliseconds, a request waits in the queue
+     * @param maxQueueSize the maximum number of requests waiting to be written
+     */
+    public BatchWriter(int batchSize, long flushInterval, int maxQueueSize) {
+        if (batchSize <= 0 || flushInterval <= 0 || maxQueueSize < batchSize) {
+            throw new IllegalArgumentException("Invalid batch configuration, batch size "
+                    + batchSize + ", flush interval " + flushInterval + ", max queue size "
+                    + maxQueueSize);
+        }
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.highWaterMark = maxQueueSize * 8 / 10;
+        this.queue = new ArrayBlockingQueue<RequestData>(maxQueueSize);
+    }
+
+    /**
+     * Writes a batch of requests in a single transaction
+     */
+    protected abstract void write(List<RequestData> batch) throws Exception;
+
+    /**
+     * Called when a request changed while it was being written, the default implementation
+     * does nothing
+     */
+    protected void modified(RequestData data) {
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "Monitor batch writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread, after writing the requests still in the queue
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(flushInterval * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a request for writing.
+     *
+     * @return true if the request was taken care of (queued, already pending, dropped or
+     *         sampled out), false if it has already been persisted and should be updated
+     *         directly
+     */
+    public boolean offer(RequestData data) {
+        synchronized (data) {
+            AtomicBoolean modified = pending.get(data);
+            if (modified != null) {
+                // the latest state will be written, or updated after the write
+                modified.set(true);
+                return true;
+            }
+            if (data.getId() != -1) {
+                return false;
+            }
+
+            if (queue.size() >= highWaterMark
+                    && sampleCounter.getAndIncrement() % samplingRate != 0) {
+                sampled.incrementAndGet();
+                return true;
+            }
+            pending.put(data, new AtomicBoolean());
+            if (!queue.offer(data)) {
+                pending.remove(data);
+                dropped.incrementAndGet();
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Monitor batch queue full, dropping request " + data.internalid);
+                }
+            }
+        }
+        if (queue.size() >= batchSize) {
+            // wake up the writer, no need to wait for the interval
+            Thread t = thread;
+            if (t != null) {
+                synchronized (queue) {
+                    queue.notifyAll();
+                }
+            }
+        }
+        return true;
+    }
+
+    public void run() {
+        while (thread == Thread.currentThread()) {
+            try {
+                synchronized (queue) {
+                    if (queue.size() < batchSize) {
+                        queue.wait(flushInterval);
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+        // write out what is left
+        while (!queue.isEmpty()) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out the queued requests, in batches
+     */
+    public void flush() {
+        List<RequestData> batch = new ArrayList<RequestData>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            for (RequestData data : batch) {
+                synchronized (data) {
+                    pending.get(data).set(false);
+                }
+            }
+
+            long start = System.nanoTime();
+            try {
+                write(batch);
+                written.addAndGet(batch.size());
+            } catch (Exception e) {
+                failed.addAndGet(batch.size());
+                LOGGER.log(Level.WARNING, "Failed to write a batch of " + batch.size()
+                        + " monitored requests", e);
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            flushes.incrementAndGet();
+            flushTime.addAndGet(elapsed);
+            lastFlushTime = elapsed;
+
+            for (RequestData data : batch) {
+                boolean modified;
+                synchronized (data) {
+                    modified = pending.remove(data).get();
+                }
+                if (modified && data.getId() != -1) {
+                    modified(data);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * The number of requests waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * The number of requests successfully written
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * The number of requests dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of requests discarded by sampling because the queue was above the high water
+     * mark
+     */
+    public long getSampled() {
+        return sampled.get();
+    }
+
+    /**
+     * The number of requests that could not be written because of an error
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * The number of batches written
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    /**
+     * The average time taken to write a batch, in milliseconds
+     */
+    public long getAverageFlushTime() {
+        long count = flushes.get();
+        return count > 0 ? flushTime.get() / count : 0;
+    }
+
+    /**
+     * The time taken to write the last batch, in milliseconds
+     */
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    /**
+     * When the queue is above the high water mark only one request every sampling rate is
+     * accepted
+     */
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    public void setSamplingRate(int samplingRate) {
+        if (samplingRate <= 0) {
+            throw new IllegalArgumentException("Sampling rate must be positive");
+        }
+        this.samplingRate = samplingRate;
+    }
+}
@@ -36,6 +36,15 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     Mode mode = Mode.HISTORY;
     Sync sync = Sync.ASYNC;
     
+    /**
+     * Writes the completed requests in batches, used only in history mode when running 
+     * asynchronously, as in that mode requests are persisted only once completed
+     */
+    BatchWriter batch;
+    int batchSize = 100;
+    long batchFlushInterval = 1000;
+    int batchMaxQueueSize = 10000;
+    
     public HibernateMonitorDAO2() {
         setMode(Mode.HISTORY);
         setSync(Sync.ASYNC);
@@ -54,9 +63,68 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
                 dispose();
             }
         }
+        updateBatchWriter();
     }
     public void setMode(Mode mode) {
         this.mode = mode;
+        updateBatchWriter();
+    }
+    
+    /**
+     * The number of completed requests written in a single transaction, zero or a negative 
+     * value disables batching
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        restartBatchWriter();
+    }
+    
+    /**
+     * The maximum time, in milliseconds, a completed request waits before being written
+     */
+    public void setBatchFlushInterval(long batchFlushInterval) {
+        this.batchFlushInterval = batchFlushInterval;
+        restartBatchWriter();
+    }
+    
+    /**
+     * The maximum number of completed requests waiting to be written, past this limit 
+     * requests are dropped
+     */
+    public void setBatchMaxQueueSize(int batchMaxQueueSize) {
+        this.batchMaxQueueSize = batchMaxQueueSize;
+        restartBatchWriter();
+    }
+    
+    /**
+     * Returns the batch writer, or null if batching is not in use
+     */
+    public BatchWriter getBatchWriter() {
+        return batch;
+    }
+    
+    void restartBatchWriter() {
+        stopBatchWriter();
+        updateBatchWriter();
+    }
+    
+    synchronized void updateBatchWriter() {
+        boolean batching = mode == Mode.HISTORY && sync != Sync.SYNC && batchSize > 0;
+        if (batching && batch == null) {
+            batch = new HibernateBatchWriter(batchSize, batchFlushInterval, 
+                    Math.max(batchSize, batchMaxQueueSize));
+            batch.start();
+        }
+        else if (!batching) {
+            stopBatchWriter();
+        }
+    }
+    
+    synchronized void stopBatchWriter() {
+        if (batch != null) {
+            batch.stop();
+            batch = null;
+        }
     }
     
     public void setSessionFactory(SessionFactory sessionFactory) {
@@ -100,6 +168,10 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     }
     
     public void save(RequestData data) {
+        BatchWriter b = batch;
+        if (b != null && b.offer(data)) {
+            return;
+        }
         run(new Save(data));
 //        if(data.getId() == -1) {
 //            run(new Insert(data));
@@ -113,6 +185,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     }
 
     public void dispose() {
+        stopBatchWriter();
         if (tasks != null) {
             tasks.shutdown();
             tasks = null;
@@ -628,6 +701,44 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
         }
     }
     
+    class HibernateBatchWriter extends BatchWriter {
+        
+        HibernateBatchWriter(int batchSize, long flushInterval, int maxQueueSize) {
+            super(batchSize, flushInterval, maxQueueSize);
+        }
+        
+        @Override
+        protected void write(final List<RequestData> requests) throws Exception {
+            hib.execute(new HibernateCallback() {
+                public Object doInHibernate(Session session) throws HibernateException,
+                        SQLException {
+                    Transaction tx = session.beginTransaction();
+                    try {
+                        for (RequestData data : requests) {
+                            synchronized (data) {
+                                data.setId((Long) session.save(data));
+                            }
+                        }
+                        tx.commit();
+                    }
+                    catch(HibernateException e) {
+                        tx.rollback();
+                        for (RequestData data : requests) {
+                            data.setId(-1);
+                        }
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+        }
+        
+        @Override
+        protected void modified(RequestData data) {
+            run(new Update(data));
+        }
+    }
+    
     class Update extends Task {
 
         Update(RequestData data) {
@@ -0,0 +1,82 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import org.geoserver.monitor.MemoryMonitorDAO;
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.MonitorDAO;
+import org.geoserver.monitor.RequestStatistics;
+import org.geoserver.rest.ReflectiveResource;
+import org.geoserver.rest.RestletException;
+import org.geotools.util.Converters;
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Returns the aggregated request statistics, by service operation or by layer, answering from
+ * the {@link RequestStatistics} kept by the in memory monitor storage rather than scanning the
+ * requests.
+ * <p>
+ * The <code>type</code> attribute is either <code>services</code> or <code>layers</code>, the
+ * optional <code>from</code> and <code>to</code> query parameters restrict the time range.
+ * </p>
+ */
+public class StatisticsResource extends ReflectiveResource {
+
+    Monitor monitor;
+
+    public StatisticsResource(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected Object handleObjectGet() throws Exception {
+        MonitorDAO dao = monitor.getDAO();
+        if (!(dao instanceof MemoryMonitorDAO)) {
+            throw new RestletException("Request statistics are only available in live mode",
+                    Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        RequestStatistics statistics = ((MemoryMonitorDAO) dao).getStatistics();
+
+        Form form = getRequest().getResourceRef() != null ? getRequest().getResourceRef()
+                .getQueryAsForm() : new Form();
+        String from = form.getFirstValue("from");
+        String to = form.getFirstValue("to");
+        Date fromDate = from != null ? parseDate(from) : null;
+        Date toDate = to != null ? parseDate(to) : null;
+
+        String type = getAttribute("type");
+        if ("services".equalsIgnoreCase(type)) {
+            return statistics.getServiceSummaries(fromDate, toDate);
+        } else if ("layers".equalsIgnoreCase(type)) {
+            return statistics.getLayerSummaries(fromDate, toDate);
+        }
+        throw new RestletException("Unknown statistics type " + type
+                + ", should be one of services, layers", Status.CLIENT_ERROR_NOT_FOUND);
+    }
+
+    Date parseDate(String s) {
+        Date date;
+        try {
+            date = RequestResource.DATE_FORMAT.parse(s);
+        } catch (ParseException e) {
+            date = Converters.convert(s, Date.class);
+        }
+        if (date == null) {
+            throw new RestletException("Invalid date " + s, Status.CLIENT_ERROR_BAD_REQUEST);
+        }
+        return date;
+    }
+
+    @Override
+    protected void configureXStream(XStream xstream) {
+        xstream.alias("summary", RequestStatistics.Summary.class);
+    }
+}
@@ -4,7 +4,14 @@
  */
 package org.geoserver.monitor;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+import java.util.List;
+
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -13,4 +20,34 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+    
+    @Test
+    public void testHistoryOverflow() throws Exception {
+        MemoryMonitorDAO memory = new MemoryMonitorDAO(3);
+        for (int i = 0; i < 5; i++) {
+            RequestData data = memory.init(new RequestData());
+            memory.add(data);
+            memory.save(data);
+        }
+        
+        // only the last three are kept, oldest first
+        List<RequestData> requests = memory.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals(3, requests.get(0).getId());
+        assertEquals(5, requests.get(2).getId());
+        assertNull(memory.getRequest(1));
+    }
+    
+    @Test
+    public void testLiveRequests() throws Exception {
+        MemoryMonitorDAO memory = new MemoryMonitorDAO(3);
+        RequestData data = memory.init(new RequestData());
+        memory.add(data);
+        assertSame(data, memory.getRequest(data.getId()));
+        assertEquals(1, memory.getRequests().size());
+        
+        memory.save(data);
+        assertSame(data, memory.getRequest(data.getId()));
+        assertEquals(1, memory.getRequests().size());
+    }
 }
@@ -0,0 +1,97 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.RequestStatistics.Summary;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestStatisticsTest {
+
+    RequestStatistics statistics;
+
+    long now;
+
+    @Before
+    public void setUp() {
+        statistics = new RequestStatistics(1000, 60);
+        now = System.currentTimeMillis();
+    }
+
+    RequestData data(long end, long time, String service, String operation, Status status,
+            String... layers) {
+        RequestData data = new RequestData();
+        data.setStartTime(new Date(end - time));
+        data.setEndTime(new Date(end));
+        data.setService(service);
+        data.setOperation(operation);
+        data.setStatus(status);
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+
+    @Test
+    public void testServiceSummaries() {
+        statistics.add(data(now, 10, "WMS", "GetMap", Status.FINISHED, "topp:states"));
+        statistics.add(data(now, 30, "WMS", "GetMap", Status.FAILED, "topp:states"));
+        statistics.add(data(now - 5000, 100, "WMS", "GetMap", Status.FINISHED, "topp:roads"));
+        statistics.add(data(now, 5, "WFS", "GetFeature", Status.FINISHED, "topp:roads"));
+
+        List<Summary> summaries = statistics.getServiceSummaries(null, null);
+        assertEquals(2, summaries.size());
+        Summary getMap = summaries.get(0);
+        assertEquals("WMS.GetMap", getMap.getName());
+        assertEquals(3, getMap.getCount());
+        assertEquals(1, getMap.getFailed());
+        assertEquals(140, getMap.getTotalTime());
+        assertEquals(46, getMap.getAverageTime());
+        assertEquals(100, getMap.getMaxTime());
+        // the median, 30ms, falls in the [16, 32) bin
+        assertEquals(32, getMap.getMedian());
+        assertEquals(100, getMap.getPercentile99());
+
+        // time range restricted to the last two seconds
+        summaries = statistics.getServiceSummaries(new Date(now - 2000), null);
+        assertEquals(2, summaries.get(0).getCount());
+    }
+
+    @Test
+    public void testLayerSummaries() {
+        statistics.add(data(now, 10, "WMS", "GetMap", Status.FINISHED, "topp:states",
+                "topp:roads"));
+        statistics.add(data(now, 20, "WMS", "GetMap", Status.FINISHED, "topp:roads"));
+
+        List<Summary> summaries = statistics.getLayerSummaries(null, null);
+        assertEquals(2, summaries.size());
+        assertEquals("topp:roads", summaries.get(0).getName());
+        assertEquals(2, summaries.get(0).getCount());
+        assertEquals("topp:states", summaries.get(1).getName());
+        assertEquals(1, summaries.get(1).getCount());
+    }
+
+    @Test
+    public void testOutsideWindow() {
+        // older than the 60 seconds window
+        statistics.add(data(now - 120 * 1000, 10, "WMS", "GetMap", Status.FINISHED));
+        assertEquals(0, statistics.getServiceSummaries(null, null).size());
+    }
+
+    @Test
+    public void testBins() {
+        assertEquals(0, RequestStatistics.bin(0));
+        assertEquals(1, RequestStatistics.bin(1));
+        assertEquals(2, RequestStatistics.bin(2));
+        assertEquals(2, RequestStatistics.bin(3));
+        assertEquals(4, RequestStatistics.bin(10));
+        assertEquals(RequestStatistics.HISTOGRAM_SIZE - 1, RequestStatistics.bin(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.monitor.RequestData;
+import org.junit.Test;
+
+public class BatchWriterTest {
+
+    static class TestWriter extends BatchWriter {
+        AtomicLong ids = new AtomicLong(1);
+
+        List<List<RequestData>> batches = new ArrayList<List<RequestData>>();
+
+        List<RequestData> modified = new ArrayList<RequestData>();
+
+        TestWriter(int batchSize, long flushInterval, int maxQueueSize) {
+            super(batchSize, flushInterval, maxQueueSize);
+        }
+
+        @Override
+        protected synchronized void write(List<RequestData> batch) throws Exception {
+            for (RequestData data : batch) {
+                data.setId(ids.getAndIncrement());
+            }
+            batches.add(new ArrayList<RequestData>(batch));
+        }
+
+        @Override
+        protected void modified(RequestData data) {
+            modified.add(data);
+        }
+    }
+
+    RequestData request() {
+        RequestData data = new RequestData();
+        data.setId(-1);
+        return data;
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        TestWriter writer = new TestWriter(2, 1000, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.offer(request()));
+        }
+        assertEquals(5, writer.getQueueDepth());
+
+        writer.flush();
+        assertEquals(3, writer.batches.size());
+        assertEquals(2, writer.batches.get(0).size());
+        assertEquals(1, writer.batches.get(2).size());
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(5, writer.getWritten());
+        assertEquals(3, writer.getFlushCount());
+    }
+
+    @Test
+    public void testPendingAndPersisted() throws Exception {
+        TestWriter writer = new TestWriter(2, 1000, 10);
+        RequestData data = request();
+        assertTrue(writer.offer(data));
+        // an update before the write is folded in the pending insert
+        assertTrue(writer.offer(data));
+        assertEquals(1, writer.getQueueDepth());
+
+        writer.flush();
+        assertTrue(writer.modified.isEmpty());
+        // once persisted, updates go through the regular path
+        assertFalse(writer.offer(data));
+    }
+
+    @Test
+    public void testModifiedWhileWriting() throws Exception {
+        final RequestData data = request();
+        final BatchWriter[] holder = new BatchWriter[1];
+        TestWriter writer = new TestWriter(2, 1000, 10) {
+            @Override
+            protected synchronized void write(List<RequestData> batch) throws Exception {
+                super.write(batch);
+                // the request gets modified by another thread while being written
+                assertTrue(holder[0].offer(data));
+            }
+        };
+        holder[0] = writer;
+
+        writer.offer(data);
+        writer.flush();
+        assertEquals(1, writer.modified.size());
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        TestWriter writer = new TestWriter(5, 1000, 10);
+        writer.setSamplingRate(2);
+        // high water mark at 8, fill up to it
+        for (int i = 0; i < 8; i++) {
+            writer.offer(request());
+        }
+        assertEquals(8, writer.getQueueDepth());
+
+        // past the high water mark only one in two is kept
+        for (int i = 0; i < 4; i++) {
+            writer.offer(request());
+        }
+        assertEquals(10, writer.getQueueDepth());
+        assertEquals(2, writer.getSampled());
+
+        // queue full, requests get dropped
+        for (int i = 0; i < 4; i++) {
+            writer.offer(request());
+        }
+        assertEquals(10, writer.getQueueDepth());
+        assertEquals(2, writer.getDropped());
+        assertEquals(4, writer.getSampled());
+    }
+
+    @Test
+    public void testBackgroundFlush() throws Exception {
+        TestWriter writer = new TestWriter(100, 50, 1000);
+        writer.start();
+        try {
+            writer.offer(request());
+            long start = System.currentTimeMillis();
+            while (writer.getWritten() == 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, writer.getWritten());
+        } finally {
+            writer.stop();
+        }
+    }
+}
@@ -6,18 +6,23 @@ package org.geoserver.flow.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Logger;
 
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveOWSController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
+import org.geoserver.flow.controller.WeightedFlowController;
 import org.geoserver.security.PropertyFileWatcher;
 import org.geotools.util.logging.Logging;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
@@ -54,6 +59,9 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        int weightedCapacity = 0;
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        Map<String, Integer> priorities = new HashMap<String, Integer>();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -80,7 +88,24 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 timeout = queueSize * 1000;
                 continue;
             }
-            if ("ows.global".equalsIgnoreCase(key)) {
+            if ("weighted".equals(keys[0])) {
+                // weighted=<capacity>, weighted.cost.<operation>=<weight>,
+                // weighted.priority.<operation>=<class>
+                if (keys.length == 1) {
+                    weightedCapacity = queueSize;
+                    continue;
+                } else if (keys.length > 2) {
+                    // output formats can contain dots, rebuild the operation key
+                    String operation = join(Arrays.asList(keys).subList(2, keys.length));
+                    if ("cost".equals(keys[1])) {
+                        weights.put(operation, queueSize);
+                        continue;
+                    } else if ("priority".equals(keys[1])) {
+                        priorities.put(operation, queueSize);
+                        continue;
+                    }
+                }
+            } else if ("ows.global".equalsIgnoreCase(key)) {
                 controller = new GlobalFlowController(queueSize);
             } else if ("ows".equals(keys[0])) {
                 // todo: check, if possible, if the service, method and output format actually exist
@@ -91,6 +116,36 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 } else if (keys.length == 2) {
                     controller = new BasicOWSController(keys[1], queueSize);
                 }
+            } else if ("adaptive".equals(keys[0])) {
+                // adaptive.<service>[.<method>[.<outputFormat>]]=[<min>,]<max>
+                int minLimit = 1;
+                int maxLimit = queueSize;
+                String[] limits = value.split("\\s*,\\s*");
+                if (limits.length > 1) {
+                    minLimit = queueSize;
+                    try {
+                        maxLimit = Integer.parseInt(limits[1]);
+                    } catch (NumberFormatException e) {
+                        LOGGER.severe("Adaptive rules should be assigned a min and max limit, "
+                                + "instead " + okey + " is associated to " + value);
+                        continue;
+                    }
+                }
+                try {
+                    if (keys.length >= 4) {
+                        controller = new AdaptiveOWSController(keys[1], keys[2], keys[3],
+                                minLimit, maxLimit);
+                    } else if (keys.length == 3) {
+                        controller = new AdaptiveOWSController(keys[1], keys[2], minLimit,
+                                maxLimit);
+                    } else if (keys.length == 2) {
+                        controller = new AdaptiveOWSController(keys[1], minLimit, maxLimit);
+                    }
+                } catch (IllegalArgumentException e) {
+                    LOGGER.severe("Invalid adaptive rule '" + okey + "=" + value + "': "
+                            + e.getMessage());
+                    continue;
+                }
             } else if ("user".equals(keys[0])) {
                 controller = new UserFlowController(queueSize);
             } else if ("ip".equals(keys[0])) {
@@ -108,9 +163,27 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             }
         }
 
+        if (weightedCapacity > 0) {
+            newControllers.add(new WeightedFlowController(weightedCapacity, weights, priorities));
+        } else if (!weights.isEmpty() || !priorities.isEmpty()) {
+            LOGGER.severe("Weighted flow control costs and priorities are configured, "
+                    + "but no weighted capacity is set, they will be ignored");
+        }
+
         return newControllers;
     }
 
+    static String join(List<String> keys) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (sb.length() > 0) {
+                sb.append(".");
+            }
+            sb.append(key);
+        }
+        return sb.toString();
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
@@ -0,0 +1,342 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller that categorizes requests by service, method and output format like
+ * {@link BasicOWSController}, but adapts the number of requests allowed to run in parallel to
+ * the observed response times, between a configured minimum and maximum.
+ * <p>
+ * The limit follows an additive increase, multiplicative decrease scheme: the controller keeps
+ * an exponentially weighted moving average of the response times, and whenever a request takes
+ * more than {@link #getTolerance()} times as much the limit is reduced by the backoff ratio, on
+ * the assumption that requests are now queueing up on some shared resource (CPU, database
+ * connections, memory). Comparing with the average rather than the best response time keeps
+ * requests of varying cost (e.g. maps of different sizes) from being taken for congestion.
+ * Otherwise, if the limit is being fully used, it is increased by one every time a full limit
+ * worth of requests completes. Requests that started before the last reduction do not cause
+ * further ones, so a single spike reduces the limit once.
+ * </p>
+ */
+public class AdaptiveOWSController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The number of response times the moving average roughly spans, so that the controller
+     * can adapt to permanent changes in the response times
+     */
+    static final int WINDOW = 100;
+
+    /**
+     * The weight of each new response time in the moving average
+     */
+    static final double ALPHA = 2d / (WINDOW + 1);
+
+    /**
+     * The number of limit changes kept in the history
+     */
+    static final int HISTORY_SIZE = 100;
+
+    String service;
+
+    String method;
+
+    String outputFormat;
+
+    int minLimit;
+
+    int maxLimit;
+
+    double tolerance = 2;
+
+    double backoff = 0.9;
+
+    /**
+     * The current limit, the integer part is the actual number of requests allowed to run
+     */
+    double limit;
+
+    int running;
+
+    int waiting;
+
+    Map<Request, Long> startTimes = new IdentityHashMap<Request, Long>();
+
+    /**
+     * The moving average of the response times, in nanoseconds
+     */
+    double averageLatency;
+
+    long samples;
+
+    long lastDecrease;
+
+    LinkedList<LimitChange> history = new LinkedList<LimitChange>();
+
+    public AdaptiveOWSController(String service, int minLimit, int maxLimit) {
+        this(service, null, null, minLimit, maxLimit);
+    }
+
+    public AdaptiveOWSController(String service, String method, int minLimit, int maxLimit) {
+        this(service, method, null, minLimit, maxLimit);
+    }
+
+    public AdaptiveOWSController(String service, String method, String outputFormat,
+            int minLimit, int maxLimit) {
+        if (service == null)
+            throw new IllegalArgumentException("Invalid OWS definition, service cannot be non null");
+        else if (method == null && outputFormat != null)
+            throw new IllegalArgumentException(
+                    "Invalid OWS definition, output format cannot be null if method is not provided");
+        if (minLimit <= 0 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Invalid limits, they should satisfy 0 < min ("
+                    + minLimit + ") <= max (" + maxLimit + ")");
+
+        this.service = service;
+        this.method = method;
+        this.outputFormat = outputFormat;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        // start from the maximum, the response times will tell if it's too much
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Returns the maximum limit, the controller is sorted among the others as if it were a
+     * queue of that size
+     */
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!BasicOWSController.matches(request, service, method, outputFormat)) {
+            return true;
+        }
+
+        long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+        synchronized (this) {
+            waiting++;
+            try {
+                while (running >= (int) limit) {
+                    if (timeout > 0) {
+                        long wait = maxTime - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            return false;
+                        }
+                        wait(wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unexpected interruption while waiting on the adaptive request queue");
+            } finally {
+                waiting--;
+            }
+
+            running++;
+            startTimes.put(request, System.nanoTime());
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " running " + running + ", waiting " + waiting);
+            }
+        }
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        if (!BasicOWSController.matches(request, service, method, outputFormat)) {
+            return;
+        }
+
+        synchronized (this) {
+            Long start = startTimes.remove(request);
+            if (start == null) {
+                return;
+            }
+            running--;
+            update(start, System.nanoTime() - start);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Updates the limit based on the response time of a request
+     *
+     * @param start the time the request started executing, in nanoseconds
+     * @param latency the time the request took, in nanoseconds
+     */
+    synchronized void update(long start, long latency) {
+        // compare with the average of the previous response times, then fold this one in.
+        // Until there are enough samples a plain average is used, so that the first response
+        // time does not weight more than the others
+        final double baseline = averageLatency;
+        final boolean first = samples == 0;
+        samples++;
+        averageLatency += Math.max(1d / samples, ALPHA) * (latency - averageLatency);
+
+        int previous = (int) limit;
+        if (!first && latency > baseline * tolerance) {
+            if (start >= lastDecrease) {
+                limit = Math.max(minLimit, limit * backoff);
+                lastDecrease = System.nanoTime();
+            }
+        } else if (waiting > 0 || running + 1 >= previous) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        int current = (int) limit;
+        if (current != previous) {
+            if (history.size() >= HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            history.add(new LimitChange(System.currentTimeMillis(), current, latency / 1000000));
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info(this + " limit changed from " + previous + " to " + current
+                        + ", last response time " + (latency / 1000000) + "ms, average "
+                        + Math.round(baseline / 1000000) + "ms");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests currently allowed to run in parallel
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of matching requests currently running
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the number of matching requests waiting to be executed
+     */
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Returns the most recent limit changes, the oldest first
+     */
+    public synchronized List<LimitChange> getHistory() {
+        return new ArrayList<LimitChange>(history);
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * The ratio between a response time and the average of the recent ones above which the
+     * limit is reduced
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (tolerance <= 1)
+            throw new IllegalArgumentException("Tolerance must be greater than 1");
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * The factor the limit is multiplied by when the response times degrade
+     */
+    public double getBackoff() {
+        return backoff;
+    }
+
+    public void setBackoff(double backoff) {
+        if (backoff <= 0 || backoff >= 1)
+            throw new IllegalArgumentException("Backoff must be between 0 and 1, exclusive");
+        this.backoff = backoff;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveOWSController(" + service + "," + method + "," + outputFormat + ","
+                + minLimit + "," + maxLimit + ")";
+    }
+
+    /**
+     * A change in the limit
+     */
+    public static class LimitChange {
+        long time;
+
+        int limit;
+
+        long latency;
+
+        LimitChange(long time, int limit, long latency) {
+            this.time = time;
+            this.limit = limit;
+            this.latency = latency;
+        }
+
+        /**
+         * The time of the change, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * The new limit
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * The response time that caused the change, in milliseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return "LimitChange(" + time + "," + limit + "," + latency + ")";
+        }
+    }
+}
@@ -42,6 +42,14 @@ public class BasicOWSController extends SingleQueueFlowController {
 
     @Override
     boolean matchesRequest(Request request) {
+        return matches(request, service, method, outputFormat);
+    }
+
+    /**
+     * Checks if the request matches the service, method and output format (case insensitive),
+     * a null method or output format matches any
+     */
+    static boolean matches(Request request, String service, String method, String outputFormat) {
         if (!service.equalsIgnoreCase(request.getService()))
             return false;
 
@@ -0,0 +1,416 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller limiting the total cost of the requests running in parallel, instead of
+ * their number.
+ * <p>
+ * Each request is assigned a cost, the configured weight of its operation (1 by default)
+ * multiplied by an estimate of its size: the number of 256x256 tiles covered by the
+ * <code>WIDTH</code> and <code>HEIGHT</code> parameters, and the number of requested layers.
+ * Requests whose cost would exceed the capacity still run, but alone.
+ * </p>
+ * <p>
+ * The waiting requests are served by priority class first (lower values first, 0 by default),
+ * then, within a class, in weighted fair order across clients (identified by their IP address)
+ * so that a client sending many heavy requests cannot starve the others. Each class keeps
+ * statistics about the requests served, rejected and the time they waited in queue.
+ * </p>
+ * <p>
+ * Weights and priorities are configured by <code>service[.request[.outputFormat]]</code> keys,
+ * case insensitive, the most specific one wins.
+ * </p>
+ */
+public class WeightedFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The number of pixels considered as a unit of work, a 256x256 tile
+     */
+    static final int PIXELS_UNIT = 256 * 256;
+
+    /**
+     * The number of client tags at which we start purging the ones of inactive clients
+     */
+    static final int MAX_CLIENTS = 1000;
+
+    int capacity;
+
+    Map<String, Integer> weights;
+
+    Map<String, Integer> priorities;
+
+    /**
+     * The total cost of the running requests
+     */
+    int running;
+
+    /**
+     * The virtual time of the fair queueing, the start tag of the last dispatched request
+     */
+    double virtualTime;
+
+    /**
+     * The finish tag of the last request queued by each client
+     */
+    Map<String, Double> clientTags = new HashMap<String, Double>();
+
+    long sequence;
+
+    PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+
+    Map<Request, Ticket> dispatched = new IdentityHashMap<Request, Ticket>();
+
+    Map<Integer, ClassStatistics> statistics = new TreeMap<Integer, ClassStatistics>();
+
+    /**
+     * Builds a controller with no specific weights and priorities
+     *
+     * @param capacity the maximum total cost of the requests running in parallel
+     */
+    public WeightedFlowController(int capacity) {
+        this(capacity, Collections.<String, Integer> emptyMap(), Collections
+                .<String, Integer> emptyMap());
+    }
+
+    /**
+     * @param capacity the maximum total cost of the requests running in parallel
+     * @param weights the operation weights, by <code>service[.request[.outputFormat]]</code>
+     * @param priorities the operation priority classes, by
+     *        <code>service[.request[.outputFormat]]</code>
+     */
+    public WeightedFlowController(int capacity, Map<String, Integer> weights,
+            Map<String, Integer> priorities) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.weights = lowerCaseKeys(weights);
+        this.priorities = lowerCaseKeys(priorities);
+    }
+
+    static Map<String, Integer> lowerCaseKeys(Map<String, Integer> map) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            result.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        return result;
+    }
+
+    public int getPriority() {
+        return capacity;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        int cost = Math.min(getCost(request), capacity);
+        int priority = lookup(priorities, request, 0);
+        String client = getClient(request);
+        long start = System.currentTimeMillis();
+
+        synchronized (this) {
+            Ticket ticket = enqueue(cost, priority, client);
+            ClassStatistics stats = getStatistics(priority);
+            try {
+                while (waiting.peek() != ticket || running + cost > capacity) {
+                    if (timeout > 0) {
+                        long wait = start + timeout - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            waiting.remove(ticket);
+                            stats.rejected++;
+                            // the head of the queue might have changed
+                            notifyAll();
+                            return false;
+                        }
+                        wait(wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unexpected interruption while waiting on the weighted request queue");
+                waiting.remove(ticket);
+                notifyAll();
+                return true;
+            }
+
+            waiting.poll();
+            running += cost;
+            virtualTime = ticket.start;
+            dispatched.put(request, ticket);
+
+            long waited = System.currentTimeMillis() - start;
+            stats.requests++;
+            stats.waitTime += waited;
+            stats.maxWaitTime = Math.max(stats.maxWaitTime, waited);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " running cost " + running + ", waiting requests "
+                        + waiting.size());
+            }
+
+            // the next request in line might fit in the remaining capacity
+            notifyAll();
+        }
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        synchronized (this) {
+            Ticket ticket = dispatched.remove(request);
+            if (ticket != null) {
+                running -= ticket.cost;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Queues a new ticket, computing its fair queueing tags
+     */
+    Ticket enqueue(int cost, int priority, String client) {
+        Double last = clientTags.get(client);
+        double start = last != null ? Math.max(virtualTime, last) : virtualTime;
+        Ticket ticket = new Ticket(cost, priority, start, start + cost, sequence++);
+        clientTags.put(client, ticket.finish);
+
+        if (clientTags.size() > MAX_CLIENTS) {
+            // forget about the clients that have nothing left in the queue
+            for (Iterator<Double> it = clientTags.values().iterator(); it.hasNext();) {
+                if (it.next() <= virtualTime) {
+                    it.remove();
+                }
+            }
+        }
+
+        waiting.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Estimates the cost of the request
+     */
+    int getCost(Request request) {
+        long cost = lookup(weights, request, 1);
+        Map kvp = request.getRawKvp();
+        if (kvp != null) {
+            int width = parseInt(kvp.get("WIDTH"));
+            int height = parseInt(kvp.get("HEIGHT"));
+            if (width > 0 && height > 0) {
+                cost *= Math.max(1, ((long) width * height + PIXELS_UNIT - 1) / PIXELS_UNIT);
+            }
+            Object layers = kvp.get("LAYERS");
+            if (layers instanceof String && ((String) layers).length() > 0) {
+                cost *= ((String) layers).split(",").length;
+            }
+        }
+        return (int) Math.min(cost, Integer.MAX_VALUE);
+    }
+
+    static int parseInt(Object value) {
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt(((String) value).trim());
+            } catch (NumberFormatException e) {
+                // not a valid size, it will be reported later by the service
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the most specific value configured for the request operation
+     */
+    static int lookup(Map<String, Integer> map, Request request, int defaultValue) {
+        if (map.isEmpty() || request.getService() == null) {
+            return defaultValue;
+        }
+        String service = request.getService().toLowerCase();
+        if (request.getRequest() != null) {
+            String operation = service + "." + request.getRequest().toLowerCase();
+            if (request.getOutputFormat() != null) {
+                Integer value = map.get(operation + "." + request.getOutputFormat().toLowerCase());
+                if (value != null) {
+                    return value;
+                }
+            }
+            Integer value = map.get(operation);
+            if (value != null) {
+                return value;
+            }
+        }
+        Integer value = map.get(service);
+        return value != null ? value : defaultValue;
+    }
+
+    static String getClient(Request request) {
+        if (request.getHttpRequest() == null) {
+            return "";
+        }
+        String ip = IpFlowController.getRemoteAddr(request.getHttpRequest());
+        return ip != null ? ip : "";
+    }
+
+    ClassStatistics getStatistics(int priority) {
+        ClassStatistics stats = statistics.get(priority);
+        if (stats == null) {
+            stats = new ClassStatistics(priority);
+            statistics.put(priority, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a copy of the statistics of each priority class, sorted by priority
+     */
+    public synchronized Map<Integer, ClassStatistics> getStatistics() {
+        Map<Integer, ClassStatistics> result = new TreeMap<Integer, ClassStatistics>();
+        for (ClassStatistics stats : statistics.values()) {
+            result.put(stats.priority, stats.clone());
+        }
+        return result;
+    }
+
+    /**
+     * @return the total cost of the requests currently running
+     */
+    public synchronized int getRunningCost() {
+        return running;
+    }
+
+    /**
+     * @return the number of requests waiting to be executed
+     */
+    public synchronized int getWaitingRequests() {
+        return waiting.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedFlowController(" + capacity + "," + weights + "," + priorities + ")";
+    }
+
+    /**
+     * A request waiting to be executed
+     */
+    static class Ticket implements Comparable<Ticket> {
+        final int cost;
+
+        final int priority;
+
+        final double start;
+
+        final double finish;
+
+        final long sequence;
+
+        Ticket(int cost, int priority, double start, double finish, long sequence) {
+            this.cost = cost;
+            this.priority = priority;
+            this.start = start;
+            this.finish = finish;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            if (finish != other.finish) {
+                return finish < other.finish ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Queueing statistics for a priority class
+     */
+    public static class ClassStatistics implements Cloneable {
+        int priority;
+
+        long requests;
+
+        long rejected;
+
+        long waitTime;
+
+        long maxWaitTime;
+
+        ClassStatistics(int priority) {
+            this.priority = priority;
+        }
+
+        /**
+         * @return the priority class
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the number of requests that have been executed
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of requests that timed out while waiting in queue
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the total time the executed requests spent waiting in queue, in milliseconds
+         */
+        public long getWaitTime() {
+            return waitTime;
+        }
+
+        /**
+         * @return the longest time a request spent waiting in queue, in milliseconds
+         */
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        @Override
+        protected ClassStatistics clone() {
+            try {
+                return (ClassStatistics) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ClassStatistics(priority=" + priority + ", requests=" + requests
+                    + ", rejected=" + rejected + ", waitTime=" + waitTime + ", maxWaitTime="
+                    + maxWaitTime + ")";
+        }
+    }
+}
@@ -9,11 +9,13 @@ import junit.framework.TestCase;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveOWSController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
+import org.geoserver.flow.controller.WeightedFlowController;
 import org.geoserver.security.PropertyFileWatcher;
 
 public class DefaultControlFlowConfigurationTest extends TestCase {
@@ -61,6 +63,55 @@ public class DefaultControlFlowConfigurationTest extends TestCase {
         assertEquals(14, ipSc.getPriority());
     }
 
+    public void testWeightedParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("weighted", "40");
+        p.put("weighted.cost.wms.getmap", "4");
+        p.put("weighted.cost.wfs.getfeature.shape-zip", "10");
+        p.put("weighted.priority.wms.getmap.image/png8", "1");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        WeightedFlowController wc = (WeightedFlowController) controllers.get(0);
+        assertEquals(40, wc.getCapacity());
+        assertTrue(wc.toString().contains("wms.getmap=4"));
+        assertTrue(wc.toString().contains("wms.getmap.image/png8=1"));
+    }
+
+    public void testWeightedNoCapacity() throws Exception {
+        Properties p = new Properties();
+        p.put("weighted.cost.wms.getmap", "4");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        assertEquals(0, configurator.buildFlowControllers().size());
+    }
+
+    public void testAdaptiveParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("adaptive.wms.getmap", "2,16");
+        p.put("adaptive.wfs", "8");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+        assertEquals(2, controllers.size());
+
+        AdaptiveOWSController wfs = (AdaptiveOWSController) controllers.get(0);
+        assertEquals("wfs", wfs.getService());
+        assertNull(wfs.getMethod());
+        assertEquals(1, wfs.getMinLimit());
+        assertEquals(8, wfs.getMaxLimit());
+
+        AdaptiveOWSController wms = (AdaptiveOWSController) controllers.get(1);
+        assertEquals("getmap", wms.getMethod());
+        assertEquals(2, wms.getMinLimit());
+        assertEquals(16, wms.getMaxLimit());
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
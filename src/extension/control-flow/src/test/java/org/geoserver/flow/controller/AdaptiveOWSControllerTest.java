@@ -0,0 +1,154 @@
+package org.geoserver.flow.controller;
+
+import java.util.List;
+
+import org.geoserver.flow.controller.AdaptiveOWSController.LimitChange;
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+
+public class AdaptiveOWSControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    private static final long MS = 1000000;
+
+    Request buildRequest(String service, String method) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(method);
+        return request;
+    }
+
+    public void testPriority() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 2, 10);
+        // priority == max limit
+        assertEquals(10, controller.getPriority());
+        assertEquals(10, controller.getLimit());
+    }
+
+    public void testInvalidLimits() {
+        try {
+            new AdaptiveOWSController("wms", 0, 10);
+            fail("Should have failed, min limit is zero");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+        try {
+            new AdaptiveOWSController("wms", 5, 4);
+            fail("Should have failed, min limit greater than max");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+    }
+
+    public void testDecrease() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 2, 10);
+
+        // establish a baseline
+        long start = System.nanoTime();
+        for (int i = 0; i < AdaptiveOWSController.WINDOW; i++) {
+            controller.update(start, 100 * MS);
+        }
+        assertEquals(10, controller.getLimit());
+
+        // a slow request started after the last decrease reduces the limit
+        controller.update(System.nanoTime(), 500 * MS);
+        assertEquals(9, controller.getLimit());
+
+        // requests that were already running when the limit was reduced don't count again
+        controller.update(start, 500 * MS);
+        assertEquals(9, controller.getLimit());
+
+        // never below the minimum
+        for (int i = 0; i < 50; i++) {
+            controller.update(System.nanoTime(), 500 * MS);
+        }
+        assertEquals(2, controller.getLimit());
+
+        List<LimitChange> history = controller.getHistory();
+        assertEquals(9, history.get(0).getLimit());
+        assertEquals(500, history.get(0).getLatency());
+        assertEquals(2, history.get(history.size() - 1).getLimit());
+    }
+
+    public void testMixedLatencies() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 2, 10);
+
+        // requests of varying cost, up to three times the fastest one, are not congestion
+        long[] latencies = new long[] { 20, 10, 30, 15, 25 };
+        for (int i = 0; i < 100; i++) {
+            for (long latency : latencies) {
+                controller.update(System.nanoTime(), latency * MS);
+            }
+        }
+        assertEquals(10, controller.getLimit());
+        assertTrue(controller.getHistory().isEmpty());
+
+        // a response time well past the average still is
+        controller.update(System.nanoTime(), 200 * MS);
+        assertEquals(9, controller.getLimit());
+    }
+
+    public void testIncrease() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 1, 3);
+        controller.limit = 1;
+        controller.running = 3;
+
+        // the limit is fully used, good response times let it grow
+        controller.update(System.nanoTime(), 100 * MS);
+        assertEquals(2, controller.getLimit());
+        // one more for each full limit worth of completed requests
+        controller.update(System.nanoTime(), 100 * MS);
+        controller.update(System.nanoTime(), 100 * MS);
+        assertEquals(2, controller.getLimit());
+        controller.update(System.nanoTime(), 100 * MS);
+        assertEquals(3, controller.getLimit());
+
+        // but not past the maximum
+        for (int i = 0; i < 10; i++) {
+            controller.update(System.nanoTime(), 100 * MS);
+        }
+        assertEquals(3, controller.getLimit());
+    }
+
+    public void testNoIncreaseWhenIdle() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 1, 10);
+        controller.limit = 4;
+        // a single request running at a time does not need more room
+        controller.update(System.nanoTime(), 100 * MS);
+        assertEquals(4, controller.getLimit());
+    }
+
+    public void testNonMatching() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", "getmap", 1, 1);
+        assertTrue(controller.requestIncoming(buildRequest("wms", "getmap"), 0));
+        // other requests are not limited
+        assertTrue(controller.requestIncoming(buildRequest("wfs", "getfeature"), 10));
+        assertTrue(controller.requestIncoming(buildRequest("wms", "getcapabilities"), 10));
+        assertEquals(1, controller.getRunning());
+    }
+
+    public void testTimeout() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", 1, 1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("wms",
+                "getmap"), 100, 400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("wms",
+                "getmap"), 100, 400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(0, controller.getRunning());
+            assertEquals(0, controller.getWaiting());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+}
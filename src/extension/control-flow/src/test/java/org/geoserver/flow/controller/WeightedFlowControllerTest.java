@@ -0,0 +1,202 @@
+package org.geoserver.flow.controller;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.flow.controller.WeightedFlowController.ClassStatistics;
+import org.geoserver.ows.Request;
+
+public class WeightedFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    Request buildRequest(String service, String request, String width, String height,
+            String layers) {
+        Request r = new Request();
+        r.setService(service);
+        r.setRequest(request);
+        Map<String, String> kvp = new HashMap<String, String>();
+        if (width != null) {
+            kvp.put("WIDTH", width);
+            kvp.put("HEIGHT", height);
+        }
+        if (layers != null) {
+            kvp.put("LAYERS", layers);
+        }
+        r.setRawKvp(kvp);
+        return r;
+    }
+
+    /**
+     * Waits until the thread got past the flow controller
+     */
+    void waitProcessing(FlowControllerTestingThread t, long maxWait) throws Exception {
+        long start = System.currentTimeMillis();
+        while (t.state != ThreadState.PROCESSING) {
+            if (System.currentTimeMillis() > (start + maxWait))
+                fail("Waited for the thread to be processing more than maxWait: " + maxWait);
+            Thread.sleep(10);
+        }
+    }
+
+    public void testPriority() {
+        WeightedFlowController controller = new WeightedFlowController(10);
+        // priority == capacity
+        assertEquals(10, controller.getPriority());
+    }
+
+    public void testCost() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("WMS", 2);
+        weights.put("wms.GetMap.image/png", 3);
+        WeightedFlowController controller = new WeightedFlowController(100, weights, Collections
+                .<String, Integer> emptyMap());
+
+        // no size, just the weight
+        assertEquals(1, controller.getCost(buildRequest("WFS", "GetFeature", null, null, null)));
+        assertEquals(2, controller.getCost(buildRequest("WMS", "GetMap", null, null, null)));
+
+        // four tiles, two layers
+        assertEquals(16, controller.getCost(buildRequest("WMS", "GetMap", "512", "512",
+                "topp:states,topp:roads")));
+        // a small map still costs at least one unit
+        assertEquals(2, controller.getCost(buildRequest("WMS", "GetMap", "10", "10", "a")));
+        // invalid sizes are ignored
+        assertEquals(2, controller.getCost(buildRequest("WMS", "GetMap", "abc", "10", null)));
+
+        // the most specific weight wins
+        Request request = buildRequest("wms", "getmap", "256", "256", "a");
+        request.setOutputFormat("IMAGE/PNG");
+        assertEquals(3, controller.getCost(request));
+    }
+
+    public void testCostLimit() throws Exception {
+        WeightedFlowController controller = new WeightedFlowController(4);
+
+        // two requests costing 2 each can run in parallel, a third one has to wait
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("WMS",
+                "GetMap", "256", "512", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("WMS",
+                "GetMap", "256", "512", null), 0, Long.MAX_VALUE, controller);
+        // this one costs more than the capacity, will run alone
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("WMS",
+                "GetMap", "2048", "2048", null), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(4, controller.getRunningCost());
+            assertEquals(1, controller.getWaitingRequests());
+
+            // releasing one is not enough
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t3.state);
+
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            waitProcessing(t3, MAX_WAIT);
+            assertEquals(4, controller.getRunningCost());
+
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            assertEquals(0, controller.getRunningCost());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    public void testPriorityClasses() throws Exception {
+        Map<String, Integer> priorities = new HashMap<String, Integer>();
+        priorities.put("wfs", 5);
+        WeightedFlowController controller = new WeightedFlowController(1, Collections
+                .<String, Integer> emptyMap(), priorities);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("WFS",
+                "GetFeature", null, null, null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("WFS",
+                "GetFeature", null, null, null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("WMS",
+                "GetMap", null, null, null), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            // the WMS request arrived last, but has a higher priority
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitProcessing(t3, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t2.state);
+
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            waitProcessing(t2, MAX_WAIT);
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+
+            Map<Integer, ClassStatistics> stats = controller.getStatistics();
+            assertEquals(2, stats.size());
+            assertEquals(1, stats.get(0).getRequests());
+            assertEquals(2, stats.get(5).getRequests());
+            assertEquals(0, stats.get(5).getRejected());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    public void testTimeout() {
+        WeightedFlowController controller = new WeightedFlowController(1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(new Request(), 100,
+                400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(new Request(), 100,
+                400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getStatistics().get(0).getRejected());
+            assertEquals(0, controller.getWaitingRequests());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    public void testFairQueueing() {
+        WeightedFlowController controller = new WeightedFlowController(1);
+
+        // a client queueing many requests does not get ahead of one queueing later
+        WeightedFlowController.Ticket a1 = controller.enqueue(1, 0, "a");
+        WeightedFlowController.Ticket a2 = controller.enqueue(1, 0, "a");
+        WeightedFlowController.Ticket a3 = controller.enqueue(1, 0, "a");
+        WeightedFlowController.Ticket b1 = controller.enqueue(1, 0, "b");
+
+        assertSame(a1, controller.waiting.poll());
+        assertSame(b1, controller.waiting.poll());
+        assertSame(a2, controller.waiting.poll());
+        assertSame(a3, controller.waiting.poll());
+    }
+}
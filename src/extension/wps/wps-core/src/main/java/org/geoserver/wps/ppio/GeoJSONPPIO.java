@@ -4,15 +4,28 @@
  */
 package org.geoserver.wps.ppio;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
+import net.sf.json.JSONException;
+
+import org.geoserver.wfs.response.GeoJSONBuilder;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.geojson.feature.FeatureJSON;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
- * Inputs and outputs feature collections in GeoJSON format using gt-geojson
+ * Inputs and outputs feature collections in GeoJSON format. Parsing is done using gt-geojson,
+ * encoding uses the same streaming {@link GeoJSONBuilder} as the WFS GeoJSON output format
  * 
  * @author Andrea Aime - OpenGeo
  * 
@@ -25,11 +38,58 @@ public class GeoJSONPPIO extends CDataPPIO {
 
     @Override
     public void encode(Object value, OutputStream os) throws IOException {
-        FeatureJSON json = new FeatureJSON();
-        // commented out due to GEOT-3209
-        // json.setEncodeFeatureCRS(true);
-        // json.setEncodeFeatureCollectionCRS(true);
-        json.writeFeatureCollection((FeatureCollection) value, os);
+        // the crs is not encoded, same as gt-geojson (see GEOT-3209)
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        GeoJSONBuilder json = new GeoJSONBuilder(writer);
+        FeatureCollection collection = (FeatureCollection) value;
+        FeatureIterator iterator = collection.features();
+        try {
+            json.object().key("type").value("FeatureCollection");
+            json.key("features");
+            json.array();
+            while (iterator.hasNext()) {
+                SimpleFeature feature = (SimpleFeature) iterator.next();
+                json.object();
+                json.key("type").value("Feature");
+                json.key("id").value(feature.getID());
+
+                GeometryDescriptor defaultGeomType = feature.getFeatureType()
+                        .getGeometryDescriptor();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                json.key("geometry");
+                if (geometry != null) {
+                    json.writeGeom(geometry);
+                } else {
+                    json.value(null);
+                }
+
+                json.key("properties");
+                json.object();
+                for (AttributeDescriptor ad : feature.getFeatureType().getAttributeDescriptors()) {
+                    if (ad.equals(defaultGeomType)) {
+                        continue;
+                    }
+                    Object attribute = feature.getAttribute(ad.getLocalName());
+                    json.key(ad.getLocalName());
+                    if (attribute instanceof Geometry) {
+                        json.writeGeom((Geometry) attribute);
+                    } else {
+                        json.value(attribute);
+                    }
+                }
+                json.endObject(); // end the properties
+                json.endObject(); // end the feature
+            }
+            json.endArray();
+            json.endObject();
+            writer.flush();
+        } catch (JSONException e) {
+            IOException ioe = new IOException("Failed to encode the feature collection");
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            collection.close(iterator);
+        }
     }
 
     @Override
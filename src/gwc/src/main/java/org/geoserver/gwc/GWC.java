@@ -46,6 +46,7 @@ import org.geoserver.gwc.layer.CatalogStyleChangeListener;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.GeoServerExtensions;
@@ -86,7 +87,6 @@ import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.seed.GWCTask;
 import org.geowebcache.seed.GWCTask.TYPE;
-import org.geowebcache.seed.SeedRequest;
 import org.geowebcache.seed.TileBreeder;
 import org.geowebcache.service.Service;
 import org.geowebcache.storage.StorageBroker;
@@ -392,6 +392,9 @@ public class GWC implements DisposableBean, InitializingBean {
                 GridSet gridSet = gridSetBroker.get(gridSetId);
                 gridSubset = GridSubsetFactory.createGridSubSet(gridSet);
             }
+            // the covered tile ranges only depend on the gridset, compute them once for all
+            // the style and format combinations
+            final long[][] coveredGridLevels = getCoveredGridLevels(layer, gridSubset, bounds);
             for (String style : styleNames) {
                 Map<String, String> parameters;
                 if (style.length() == 0 || style.equals(defaultStyle)) {
@@ -402,27 +405,41 @@ public class GWC implements DisposableBean, InitializingBean {
                     parameters = Collections.singletonMap("STYLES", style);
                 }
                 for (MimeType mime : mimeTypes) {
-                    String formatName = mime.getFormat();
-                    truncate(layer, bounds, gridSubset, formatName, parameters);
+                    truncate(layer, coveredGridLevels, gridSubset, mime, parameters);
                 }
             }
         }
     }
 
-    private void truncate(final TileLayer layer, final BoundingBox bounds,
-            final GridSubset gridSubset, String formatName, Map<String, String> parameters) {
+    /**
+     * Computes the tile ranges covered by {@code bounds} (or the whole grid subset if
+     * {@code null}), expanded to the layer meta tiling factors
+     */
+    private long[][] getCoveredGridLevels(final TileLayer layer, final GridSubset gridSubset,
+            final BoundingBox bounds) {
+        long[][] coveredGridLevels;
+        if (bounds == null) {
+            coveredGridLevels = gridSubset.getCoverages();
+        } else {
+            coveredGridLevels = gridSubset.getCoverageIntersections(bounds);
+        }
+        int[] metaTilingFactors = layer.getMetaTilingFactors();
+        return gridSubset.expandToMetaFactors(coveredGridLevels, metaTilingFactors);
+    }
+
+    private void truncate(final TileLayer layer, final long[][] coveredGridLevels,
+            final GridSubset gridSubset, MimeType mimeType, Map<String, String> parameters) {
         final int threadCount = 1;
         int zoomStart;
         int zoomStop;
         zoomStart = gridSubset.getZoomStart();
         zoomStop = gridSubset.getZoomStop();
         final TYPE taskType = TRUNCATE;
-        SeedRequest req = new SeedRequest(layer.getName(), bounds, gridSubset.getName(),
-                threadCount, zoomStart, zoomStop, formatName, taskType, parameters);
 
         GWCTask[] tasks;
         try {
-            TileRange tr = TileBreeder.createTileRange(req, layer);
+            TileRange tr = new TileRange(layer.getName(), gridSubset.getName(), zoomStart,
+                    zoomStop, coveredGridLevels, mimeType, parameters);
             boolean filterUpdate = false;
             tasks = tileBreeder.createTasks(tr, taskType, threadCount, filterUpdate);
         } catch (GeoWebCacheException e) {
@@ -917,6 +934,11 @@ public class GWC implements DisposableBean, InitializingBean {
 
     public void saveConfig(GWCConfig gwcConfig) throws IOException {
         gwcConfigPersister.save(gwcConfig);
+        // the WMS capabilities advertise the cached tile sets depending on this configuration
+        CapabilitiesCache capabilitiesCache = CapabilitiesCache.get();
+        if (capabilitiesCache != null) {
+            capabilitiesCache.clear();
+        }
     }
 
     public void saveDiskQuotaConfig(DiskQuotaConfig config) {
@@ -30,7 +30,6 @@ import org.geoserver.wfs.WFSException;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.util.logging.Logging;
-import org.geowebcache.GeoWebCacheException;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
@@ -43,6 +42,10 @@ import org.opengis.referencing.operation.TransformException;
  * pick it up automatically and forward transaction events to it.
  * </p>
  * <p>
+ * The truncates are handed over to a {@link GWCTruncateQueue}, which may merge the dirty regions
+ * of several transactions and execute them in the background.
+ * </p>
+ * <p>
  * TODO: upon deletion, only truncate if feature count > 0
  * </p>
  * 
@@ -57,13 +60,26 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private GWCTruncateQueue truncateQueue;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
     /**
+     * Builds a listener that truncates synchronously
+     * 
      * @param gwc
      */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, new GWCTruncateQueue(gwc, 0));
+    }
+
+    /**
+     * @param gwc
+     * @param truncateQueue the queue executing the truncates
+     */
+    public GWCTransactionListener(final GWC gwc, final GWCTruncateQueue truncateQueue) {
         this.gwc = gwc;
+        this.truncateQueue = truncateQueue;
     }
 
     /**
@@ -124,12 +140,7 @@ public class GWCTransactionListener implements TransactionPlugin {
             if (dirtyRegion == null) {
                 continue;
             }
-            try {
-                gwc.truncate(tileLayerName, dirtyRegion);
-            } catch (GeoWebCacheException e) {
-                log.warning("Error truncating tile layer " + tileLayerName
-                        + " for transaction affected bounds " + dirtyRegion);
-            }
+            truncateQueue.add(tileLayerName, dirtyRegion);
         }
     }
 
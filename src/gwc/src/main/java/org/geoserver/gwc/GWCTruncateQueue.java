@@ -0,0 +1,235 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Collects the dirty regions of the tile layers and truncates them in the background, merging all
+ * the regions reported for the same layer during a configurable time window into a single
+ * truncate.
+ * <p>
+ * The window, in milliseconds, is read from the {@code GWC_TRUNCATE_WINDOW} system variable and
+ * defaults to {@link #DEFAULT_WINDOW}. A window of zero or less disables the queueing, the
+ * truncates are then executed right away in the calling thread.
+ * </p>
+ *
+ * @see GWCTransactionListener
+ */
+public class GWCTruncateQueue implements DisposableBean {
+
+    private static Logger log = Logging.getLogger(GWCTruncateQueue.class);
+
+    /**
+     * Default coalescing window, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW = 2000;
+
+    private final GWC gwc;
+
+    private final long window;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * The regions waiting to be truncated, by tile layer name, already merged in the layer
+     * declared CRS
+     */
+    private final Map<String, ReferencedEnvelope> pending = new HashMap<String, ReferencedEnvelope>();
+
+    private final AtomicLong queuedRegions = new AtomicLong();
+
+    private final AtomicLong truncates = new AtomicLong();
+
+    private final AtomicLong failedTruncates = new AtomicLong();
+
+    private final AtomicLong truncateTime = new AtomicLong();
+
+    /**
+     * Builds a queue using the window configured with the {@code GWC_TRUNCATE_WINDOW} system
+     * variable
+     */
+    public GWCTruncateQueue(final GWC gwc) {
+        this(gwc, lookupWindow());
+    }
+
+    /**
+     * @param window the coalescing window in milliseconds, zero or less to truncate synchronously
+     */
+    public GWCTruncateQueue(final GWC gwc, final long window) {
+        checkNotNull(gwc);
+        this.gwc = gwc;
+        this.window = window;
+        if (window > 0) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWC truncate queue");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    static long lookupWindow() {
+        String value = GeoServerExtensions.getProperty("GWC_TRUNCATE_WINDOW");
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warning("Invalid GWC_TRUNCATE_WINDOW value " + value + ", using "
+                        + DEFAULT_WINDOW);
+            }
+        }
+        return DEFAULT_WINDOW;
+    }
+
+    /**
+     * Schedules the truncation of the given region of the tile layer. Regions added for the same
+     * layer before the window expires are merged together.
+     *
+     * @param tileLayerName the tile layer to truncate
+     * @param dirtyRegion the region to truncate, in the layer declared CRS
+     */
+    public void add(final String tileLayerName, final ReferencedEnvelope dirtyRegion) {
+        queuedRegions.incrementAndGet();
+        if (executor == null) {
+            truncate(tileLayerName, dirtyRegion);
+            return;
+        }
+
+        synchronized (pending) {
+            ReferencedEnvelope merged = pending.get(tileLayerName);
+            if (merged != null) {
+                // a flush is already scheduled for this layer, just grow the region
+                merged.expandToInclude(dirtyRegion);
+                return;
+            }
+            pending.put(tileLayerName, new ReferencedEnvelope(dirtyRegion));
+        }
+        executor.schedule(new Runnable() {
+            public void run() {
+                flush(tileLayerName);
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Truncates right away the pending region of the given layer, if any
+     */
+    void flush(final String tileLayerName) {
+        ReferencedEnvelope dirtyRegion;
+        synchronized (pending) {
+            dirtyRegion = pending.remove(tileLayerName);
+        }
+        if (dirtyRegion != null) {
+            truncate(tileLayerName, dirtyRegion);
+        }
+    }
+
+    /**
+     * Truncates right away all the pending regions
+     */
+    public void flushAll() {
+        Map<String, ReferencedEnvelope> regions;
+        synchronized (pending) {
+            regions = new HashMap<String, ReferencedEnvelope>(pending);
+            pending.clear();
+        }
+        for (Map.Entry<String, ReferencedEnvelope> entry : regions.entrySet()) {
+            truncate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void truncate(final String tileLayerName, final ReferencedEnvelope dirtyRegion) {
+        final long start = System.currentTimeMillis();
+        try {
+            gwc.truncate(tileLayerName, dirtyRegion);
+            truncates.incrementAndGet();
+        } catch (GeoWebCacheException e) {
+            failedTruncates.incrementAndGet();
+            log.warning("Error truncating tile layer " + tileLayerName
+                    + " for transaction affected bounds " + dirtyRegion);
+        } catch (RuntimeException e) {
+            failedTruncates.incrementAndGet();
+            log.log(Level.WARNING, "Error truncating tile layer " + tileLayerName
+                    + " for transaction affected bounds " + dirtyRegion, e);
+        } finally {
+            truncateTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return the coalescing window in milliseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the number of dirty regions added to the queue
+     */
+    public long getQueuedRegions() {
+        return queuedRegions.get();
+    }
+
+    /**
+     * @return the number of truncates issued, each one covering one or more dirty regions
+     */
+    public long getTruncates() {
+        return truncates.get();
+    }
+
+    /**
+     * @return the number of truncates that failed
+     */
+    public long getFailedTruncates() {
+        return failedTruncates.get();
+    }
+
+    /**
+     * @return the total time spent issuing truncates, in milliseconds
+     */
+    public long getTruncateTime() {
+        return truncateTime.get();
+    }
+
+    /**
+     * @return the number of layers with a truncate waiting for the window to expire
+     */
+    public int getPendingLayers() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Issues the pending truncates and stops the background thread
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        flushAll();
+    }
+}
@@ -37,6 +37,8 @@ public class GeoServerMetaTile extends MetaTile {
 
     private RenderedImageMap metaTileMap;
 
+    private boolean metaTilePrepared;
+
     public GeoServerMetaTile(GridSubset gridSubset, MimeType responseFormat,
             FormatModifier formatModifier, long[] tileGridPosition, int metaX, int metaY,
             Integer gutter) {
@@ -92,6 +94,12 @@ public class GeoServerMetaTile extends MetaTile {
                 tileContext.setMapWidth(tileDim.width);
                 tileContext.setMapHeight(tileDim.height);
                 tileContext.setPalette(metaTileContext.getPalette());
+                if (!metaTilePrepared) {
+                    // let the encoder compute the palette once for all the tiles
+                    mapEncoder.prepareMetaTile(metaTileImage, metaTileContext);
+                    metaTilePrepared = true;
+                }
+                tileContext.setPaletteIndexer(metaTileContext.getPaletteIndexer());
                 tileContext.setTransparent(tileContext.isTransparent());
                 long[][] tileIndexes = getTilesGridPositions();
                 BoundingBox tileBounds = gridSubset.boundsFromIndex(tileIndexes[tileIdx]);
@@ -0,0 +1,64 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import junit.framework.TestCase;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
+public class GWCTruncateQueueTest extends TestCase {
+
+    private GWC mediator;
+
+    protected void setUp() throws Exception {
+        mediator = mock(GWC.class);
+    }
+
+    public void testSynchronous() throws Exception {
+        GWCTruncateQueue queue = new GWCTruncateQueue(mediator, 0);
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+        queue.add("theLayer", bounds);
+
+        verify(mediator, times(1)).truncate(eq("theLayer"), eq(bounds));
+        assertEquals(1, queue.getQueuedRegions());
+        assertEquals(1, queue.getTruncates());
+        assertEquals(0, queue.getPendingLayers());
+    }
+
+    public void testCoalesce() throws Exception {
+        // a window long enough not to expire during the test
+        GWCTruncateQueue queue = new GWCTruncateQueue(mediator, 60000);
+        try {
+            ReferencedEnvelope bounds1 = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+            ReferencedEnvelope bounds2 = new ReferencedEnvelope(0, 180, 0, 90, WGS84);
+            ReferencedEnvelope bounds3 = new ReferencedEnvelope(0, 10, 0, 10, WGS84);
+            queue.add("theLayer", bounds1);
+            queue.add("theLayer", bounds2);
+            queue.add("theGroup", bounds3);
+
+            verifyNoMoreInteractions(mediator);
+            assertEquals(3, queue.getQueuedRegions());
+            assertEquals(2, queue.getPendingLayers());
+
+            queue.flushAll();
+
+            ReferencedEnvelope expected = new ReferencedEnvelope(bounds1);
+            expected.expandToInclude(bounds2);
+            verify(mediator, times(1)).truncate(eq("theLayer"), eq(expected));
+            verify(mediator, times(1)).truncate(eq("theGroup"), eq(bounds3));
+            assertEquals(2, queue.getTruncates());
+            assertEquals(0, queue.getPendingLayers());
+        } finally {
+            queue.destroy();
+        }
+    }
+}
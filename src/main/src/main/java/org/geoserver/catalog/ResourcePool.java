@@ -25,11 +25,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -147,7 +151,7 @@ public class ResourcePool {
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
     Catalog catalog;
-    HashMap<String, CoordinateReferenceSystem> crsCache;
+    ConcurrentHashMap<String, CoordinateReferenceSystem> crsCache;
     DataStoreCache dataStoreCache;
     FeatureTypeCache featureTypeCache;
     FeatureTypeAttributeCache featureTypeAttributeCache;
@@ -163,7 +167,7 @@ public class ResourcePool {
         this.catalog = catalog;
         this.repository = new CatalogRepository(catalog);
 
-        crsCache = new HashMap<String, CoordinateReferenceSystem>();
+        crsCache = new ConcurrentHashMap<String, CoordinateReferenceSystem>();
         dataStoreCache = new DataStoreCache();
         featureTypeCache = new FeatureTypeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         
@@ -206,6 +210,22 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Returns the access statistics of the resource caches, keyed by cache name
+     * (<code>dataStores</code>, <code>featureTypes</code>, <code>featureTypeAttributes</code>,
+     * <code>coverageReaders</code>, <code>hintCoverageReaders</code>, <code>wmsStores</code>)
+     */
+    public Map<String, CacheStatistics> getCacheStatistics() {
+        Map<String, CacheStatistics> result = new LinkedHashMap<String, CacheStatistics>();
+        result.put("dataStores", dataStoreCache.statistics);
+        result.put("featureTypes", featureTypeCache.statistics);
+        result.put("featureTypeAttributes", featureTypeAttributeCache.statistics);
+        result.put("coverageReaders", coverageReaderCache.statistics);
+        result.put("hintCoverageReaders", hintCoverageReaderCache.statistics);
+        result.put("wmsStores", wmsCache.statistics);
+        return result;
+    }
+    
     /**
      * Adds a pool listener.
      */
@@ -245,17 +265,17 @@ public class ResourcePool {
         
         CoordinateReferenceSystem crs = crsCache.get( srsName );
         if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
-                }
+            // CRS.decode is thread safe and has its own cache, no need to block other
+            // threads, in case of a race the first decoded object wins
+            try {
+                crs = CRS.decode( srsName );
+            }
+            catch( Exception e) {
+                throw (IOException) new IOException().initCause(e);
+            }
+            CoordinateReferenceSystem previous = crsCache.putIfAbsent( srsName, crs );
+            if ( previous != null ) {
+                crs = previous;
             }
         }
         
@@ -305,9 +325,13 @@ public class ResourcePool {
             String id = info.getId();
             dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
             if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
+                // only lock the store being loaded, other stores can be accessed meanwhile
+                dataStoreCache.lock( id );
+                try {
                     dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
                     if ( dataStore == null ) {
+                        long start = System.nanoTime();
+                        
                         //create data store
                         Map<String, Serializable> connectionParameters = info.getConnectionParameters();
                         
@@ -386,8 +410,15 @@ public class ResourcePool {
                         if(id != null) {
                             dataStoreCache.put( id, dataStore );
                         }
+                        dataStoreCache.statistics.loaded(System.nanoTime() - start);
+                    } else {
+                        dataStoreCache.statistics.hit();
                     }
-                } 
+                } finally {
+                    dataStoreCache.unlock( id );
+                }
+            } else {
+                dataStoreCache.statistics.hit();
             }
             
             return dataStore;
@@ -470,11 +501,15 @@ public class ResourcePool {
         }
         
         //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
+        final FeatureTypeAttributeCache attributeCache = featureTypeAttributeCache;
+        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) attributeCache.get(info.getId());
         if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
+            attributeCache.lock(info.getId());
+            try {
+                atts = (List<AttributeTypeInfo>) attributeCache.get(info.getId());
                 if (atts == null) {
+                    long start = System.nanoTime();
+                    
                     //load from feature type
                     atts = loadAttributes(info);
                     
@@ -489,10 +524,17 @@ public class ResourcePool {
                     
                     // cache attributes only if the id is not null -> the feature type is not new
                     if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
+                        attributeCache.put(info.getId(), atts);
                     }
+                    attributeCache.statistics.loaded(System.nanoTime() - start);
+                } else {
+                    attributeCache.statistics.hit();
                 }
+            } finally {
+                attributeCache.unlock(info.getId());
             }
+        } else {
+            attributeCache.statistics.hit();
         }
         
         return atts;
@@ -622,11 +664,14 @@ public class ResourcePool {
     
     FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
+        final FeatureTypeCache ftCache = featureTypeCache;
+        FeatureType ft = (FeatureType) ftCache.get( info.getId() );
         if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
+            ftCache.lock( info.getId() );
+            try {
+                ft = (FeatureType) ftCache.get( info.getId() );
                 if ( ft == null || !cacheable) {
+                    long start = System.nanoTime();
                     
                     //grab the underlying feature type
                     DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
@@ -705,13 +750,20 @@ public class ResourcePool {
                     } // end special case for SimpleFeatureType
                     
                     if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
+                        ftCache.put( info.getId(), ft );
                     } else if(vtName != null) {
                         JDBCDataStore jstore = (JDBCDataStore) dataAccess;
                         jstore.removeVirtualTable(vtName);
                     }
+                    ftCache.statistics.loaded(System.nanoTime() - start);
+                } else {
+                    ftCache.statistics.hit();
                 }
+            } finally {
+                ftCache.unlock( info.getId() );
             }
+        } else {
+            ftCache.statistics.hit();
         }
         
         return ft;
@@ -1002,11 +1054,16 @@ public class ResourcePool {
             reader = (GridCoverageReader) coverageReaderCache.get( key );
         }
         
+        final CatalogResourceCache cache = hints != null ? hintCoverageReaderCache : coverageReaderCache;
         if (reader != null) {
+            cache.statistics.hit();
             return reader;
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
+        // lock only the reader being opened, opening a large mosaic should not block
+        // access to the other coverage stores
+        cache.lock(key);
+        try {
         	if(key != null) {
 	            if (hints != null) {
 	                reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
@@ -1015,6 +1072,8 @@ public class ResourcePool {
 	            }
         	}
             if (reader == null) {
+                long start = System.nanoTime();
+                
                 /////////////////////////////////////////////////////////
                 //
                 // Getting coverage reader using the format and the real path.
@@ -1028,7 +1087,12 @@ public class ResourcePool {
                 } else {
                     coverageReaderCache.put((String) key, reader);
                 }
+                cache.statistics.loaded(System.nanoTime() - start);
+            } else {
+                cache.statistics.hit();
             }
+        } finally {
+            cache.unlock(key);
         }
         
         return reader;
@@ -1202,9 +1266,12 @@ public class ResourcePool {
             String id = info.getId();
             WebMapServer wms = (WebMapServer) wmsCache.get(id);
             if (wms == null) {
-                synchronized (wmsCache) {
+                wmsCache.lock(id);
+                try {
                     wms = (WebMapServer) wmsCache.get(id);
                     if (wms == null) {
+                        long start = System.nanoTime();
+                        
                         HTTPClient client;
                         if (info.isUseConnectionPooling()) {
                             client = new MultithreadedHttpClient();
@@ -1229,8 +1296,15 @@ public class ResourcePool {
                         wms = new WebMapServer(serverURL, client);
                         
                         wmsCache.put(id, wms);
+                        wmsCache.statistics.loaded(System.nanoTime() - start);
+                    } else {
+                        wmsCache.statistics.hit();
                     }
+                } finally {
+                    wmsCache.unlock(id);
                 }
+            } else {
+                wmsCache.statistics.hit();
             }
 
             return wms;
@@ -1440,6 +1514,16 @@ public class ResourcePool {
      * @param <V>
      */
     abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+        
+        /**
+         * The locks for the keys currently being loaded
+         */
+        final Map<K, KeyLock> locks = new HashMap<K, KeyLock>();
+        
+        /**
+         * Access statistics for this cache
+         */
+        final CacheStatistics statistics = new CacheStatistics();
 
         public CatalogResourceCache() {
             this(100);
@@ -1474,6 +1558,117 @@ public class ResourcePool {
         }
 
         protected abstract void dispose(K key, V object);
+        
+        /**
+         * Acquires the lock for the specified key, blocking only the threads that are trying
+         * to load the very same resource. A <code>null</code> key identifies resources that
+         * are not going to be cached, for those no locking is performed.
+         */
+        void lock(K key) {
+            if (key == null) {
+                return;
+            }
+            KeyLock keyLock;
+            synchronized (locks) {
+                keyLock = locks.get(key);
+                if (keyLock == null) {
+                    keyLock = new KeyLock();
+                    locks.put(key, keyLock);
+                }
+                keyLock.users++;
+            }
+            keyLock.lock.lock();
+        }
+
+        /**
+         * Releases the lock acquired with {@link #lock(Object)}
+         */
+        void unlock(K key) {
+            if (key == null) {
+                return;
+            }
+            synchronized (locks) {
+                KeyLock keyLock = locks.get(key);
+                keyLock.lock.unlock();
+                if (--keyLock.users == 0) {
+                    locks.remove(key);
+                }
+            }
+        }
+    }
+    
+    /**
+     * A per key lock, reference counted so that it can be released as soon as no thread
+     * is using it anymore
+     */
+    static class KeyLock {
+        final ReentrantLock lock = new ReentrantLock();
+        
+        int users;
+    }
+    
+    /**
+     * Access statistics for one of the resource pool caches
+     * 
+     * @see ResourcePool#getCacheStatistics()
+     */
+    public static class CacheStatistics {
+        AtomicLong hits = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        AtomicLong totalLoadTime = new AtomicLong();
+        
+        void hit() {
+            hits.incrementAndGet();
+        }
+        
+        void loaded(long loadTimeNanos) {
+            misses.incrementAndGet();
+            totalLoadTime.addAndGet(loadTimeNanos);
+        }
+        
+        /**
+         * Number of lookups that found the resource in the cache
+         */
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        /**
+         * Number of lookups that had to load the resource
+         */
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /**
+         * Total time spent loading resources, in milliseconds
+         */
+        public long getTotalLoadTime() {
+            return totalLoadTime.get() / 1000000;
+        }
+
+        /**
+         * Average time spent loading a resource, in milliseconds
+         */
+        public double getAverageLoadTime() {
+            long count = misses.get();
+            return count == 0 ? 0 : totalLoadTime.get() / 1000000d / count;
+        }
+        
+        /**
+         * Ratio between hits and total lookups, or 1 if no lookup has been performed yet
+         */
+        public double getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? 1 : ((double) h) / total;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStatistics [hits=" + getHitCount() + ", misses=" + getMissCount()
+                    + ", totalLoadTime=" + getTotalLoadTime() + "ms]";
+        }
     }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
@@ -81,7 +81,9 @@ public class CatalogPropertyAccessor implements PropertyAccessor {
         if (input instanceof Info && Predicates.ANY_TEXT.getPropertyName().equals(propertyName)) {
             return getAnyText((Info) input);
         }
-        String[] propertyNames = propertyName.split("\\.");
+        // most lookups are for a single property, avoid the regular expression for them
+        String[] propertyNames = propertyName.indexOf('.') < 0 ? new String[] { propertyName }
+                : propertyName.split("\\.");
         return getProperty(input, propertyNames, 0);
     }
 
@@ -35,7 +35,9 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
 /**
@@ -1002,6 +1004,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             other.maps = maps;
             other.layerGroups = layerGroups;
             other.styles = styles;
+            other.afterSync();
         }
         else {
             //do a manual import
@@ -1054,9 +1057,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     }
 
+    /**
+     * Called after the collections of another facade have been shared with this one
+     * by {@link #syncTo(CatalogFacade)}, subclasses maintaining derived state should
+     * rebuild it here.
+     */
+    protected void afterSync() {
+    }
+
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
-        return Iterables.size(iterable(of, filter, null));
+        return Iterables.size(filtered(of, filter));
     }
 
     /**
@@ -1100,7 +1111,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                     + " by " + sortOrder.getPropertyName());
         }
 
-        Iterable<T> iterable = iterable(of, filter, sortOrder);
+        // when paging a sorted result only the first offset + count items need sorting
+        Integer limit = null;
+        if (sortOrder != null && count != null && count.intValue() >= 0) {
+            limit = count.intValue() + (offset != null ? Math.max(0, offset.intValue()) : 0);
+        }
+        Iterable<T> iterable = iterable(of, filter, sortOrder, limit);
 
         if (offset != null && offset.intValue() > 0) {
             iterable = Iterables.skip(iterable, offset.intValue());
@@ -1117,72 +1133,196 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
             final Filter filter, final SortBy sortBy) {
-        List<T> all;
+        return iterable(of, filter, sortBy, null);
+    }
+
+    /**
+     * Returns the objects of the specified type matching the filter, optionally sorted. The
+     * filter is evaluated before sorting, so that only the matching objects get sorted, and the
+     * objects are wrapped in a {@link ModificationProxy} lazily, as they are accessed.
+     * 
+     * @param limit if not null, only the first <code>limit</code> objects of the sorted result
+     *        are going to be used
+     */
+    <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of, final Filter filter,
+            final SortBy sortBy, @Nullable Integer limit) {
+        final Class proxyType = proxyType(of);
+        Iterable<T> all = filtered(of, filter);
+
+        if (null != sortBy) {
+            all = sort(all, sortBy, limit);
+        }
+
+        return Iterables.transform(all, new Function<T, T>() {
+
+            @Override
+            public T apply(T input) {
+                return (T) ModificationProxy.create(input, proxyType);
+            }
+        });
+    }
+
+    /**
+     * Returns the un-proxied objects of the specified type matching the filter
+     */
+    <T extends CatalogInfo> Iterable<T> filtered(final Class<? super T> of, final Filter filter) {
+        Iterable<T> all = candidates(of, filter);
+        if (Filter.INCLUDE.equals(filter)) {
+            return all;
+        }
 
-        T t = null;
+        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
+
+            @Override
+            public boolean apply(T input) {
+                return filter.evaluate(input);
+            }
+        };
+        return Iterables.filter(all, filterAdapter);
+    }
+
+    /**
+     * Returns the un-proxied objects of the specified type that can match the filter. This
+     * implementation ignores the filter and returns all the objects of the requested type,
+     * without copying them whenever the backing collection allows for safe iteration.
+     * Subclasses can use the filter to narrow down the candidates, as the filter will be
+     * evaluated against the result anyways.
+     */
+    protected <T extends CatalogInfo> Iterable<T> candidates(final Class<? super T> of,
+            final Filter filter) {
         if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getNamespaces();
+            ArrayList<NamespaceInfo> ns = new ArrayList<NamespaceInfo>();
+            for (Map.Entry<String, NamespaceInfo> e : namespaces.entrySet()) {
+                if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                    ns.add(e.getValue());
+                }
+            }
+            return (Iterable<T>) ns;
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getWorkspaces();
+            ArrayList<WorkspaceInfo> ws = new ArrayList<WorkspaceInfo>();
+            for (Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet()) {
+                if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                    ws.add(e.getValue());
+                }
+            }
+            return (Iterable<T>) ws;
         } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getStores(of);
+            return (Iterable<T>) lookup(of, stores);
         } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getResources(of);
+            return (Iterable<T>) lookup(of, resources);
         } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getLayers();
+            return (Iterable<T>) layers;
         } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getLayerGroups();
+            return (Iterable<T>) layerGroups;
         } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getStyles();
+            return (Iterable<T>) styles;
         } else if (MapInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getMaps();
+            return (Iterable<T>) new ArrayList<MapInfo>(maps);
         } else {
             throw new IllegalArgumentException("Unknown type: " + of);
         }
+    }
 
-        if (null != sortBy) {
-            Ordering<Object> ordering = Ordering.from(comparator(sortBy));
-            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
-                ordering = ordering.reverse();
+    /**
+     * The interface used to proxy objects of the specified type
+     */
+    private Class proxyType(final Class<?> of) {
+        if (StoreInfo.class.isAssignableFrom(of) || ResourceInfo.class.isAssignableFrom(of)) {
+            return of;
+        }
+        for (Class type : new Class[] { NamespaceInfo.class, WorkspaceInfo.class,
+                LayerInfo.class, LayerGroupInfo.class, StyleInfo.class, MapInfo.class }) {
+            if (type.isAssignableFrom(of)) {
+                return type;
             }
-            all = ordering.sortedCopy(all);
         }
+        throw new IllegalArgumentException("Unknown type: " + of);
+    }
 
-        if (Filter.INCLUDE.equals(filter)) {
-            return all;
+    /**
+     * Sorts the objects extracting the sort property only once per object, ties are
+     * kept in their original order
+     */
+    private <T> List<T> sort(final Iterable<T> objects, final SortBy sortBy,
+            @Nullable Integer limit) {
+        final String property = sortBy.getPropertyName().getPropertyName();
+        List<SortEntry<T>> entries = new ArrayList<SortEntry<T>>();
+        int i = 0;
+        for (T object : objects) {
+            entries.add(new SortEntry<T>(OwsUtils.get(object, property), i++, object));
+        }
+
+        Ordering<SortEntry<T>> ordering = Ordering.from(new SortEntryComparator<T>(
+                SortOrder.DESCENDING.equals(sortBy.getSortOrder())));
+        List<SortEntry<T>> sorted;
+        if (limit != null && limit.intValue() < entries.size()) {
+            sorted = ordering.leastOf(entries, limit.intValue());
+        } else {
+            sorted = ordering.sortedCopy(entries);
         }
 
-        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
+        return Lists.transform(sorted, new Function<SortEntry<T>, T>() {
 
             @Override
-            public boolean apply(T input) {
-                return filter.evaluate(input);
+            public T apply(SortEntry<T> input) {
+                return input.object;
             }
-        };
+        });
+    }
 
-        return Iterables.filter(all, filterAdapter);
+    /**
+     * An object along with its sort value and original position
+     */
+    private static class SortEntry<T> {
+        final Object value;
+
+        final int position;
+
+        final T object;
+
+        SortEntry(Object value, int position, T object) {
+            this.value = value;
+            this.position = position;
+            this.object = object;
+        }
     }
 
-    private Comparator<Object> comparator(final SortBy sortOrder) {
-        return new Comparator<Object>() {
-            @Override
-            public int compare(Object o1, Object o2) {
-                Object v1 = OwsUtils.get(o1, sortOrder.getPropertyName().getPropertyName());
-                Object v2 = OwsUtils.get(o2, sortOrder.getPropertyName().getPropertyName());
-                if (v1 == null) {
-                    if (v2 == null) {
-                        return 0;
-                    } else {
-                        return -1;
-                    }
-                } else if (v2 == null) {
-                    return 1;
+    /**
+     * Compares by sort value, null values first, and then by original position
+     */
+    private static class SortEntryComparator<T> implements Comparator<SortEntry<T>> {
+        final boolean descending;
+
+        SortEntryComparator(boolean descending) {
+            this.descending = descending;
+        }
+
+        @Override
+        public int compare(SortEntry<T> e1, SortEntry<T> e2) {
+            int result = compareValues(e1.value, e2.value);
+            if (descending) {
+                result = -result;
+            }
+            if (result == 0) {
+                result = e1.position < e2.position ? -1 : (e1.position == e2.position ? 0 : 1);
+            }
+            return result;
+        }
+
+        private int compareValues(Object v1, Object v2) {
+            if (v1 == null) {
+                if (v2 == null) {
+                    return 0;
+                } else {
+                    return -1;
                 }
-                Comparable c1 = (Comparable) v1;
-                Comparable c2 = (Comparable) v2;
-                return c1.compareTo(c2);
+            } else if (v2 == null) {
+                return 1;
             }
-        };
+            Comparable c1 = (Comparable) v1;
+            Comparable c2 = (Comparable) v2;
+            return c1.compareTo(c2);
+        }
     }
 
 }
@@ -0,0 +1,800 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * In memory catalog facade that, on top of the collections managed by
+ * {@link DefaultCatalogFacade}, maintains a set of secondary indexes (by id, name, store,
+ * resource, style usage and workspace) so that the most common lookups do not require a scan
+ * of the whole catalog.
+ * <p>
+ * The indexes are updated on add, save and remove, and rebuilt from scratch when the facade
+ * contents are resolved or synched from another facade. Lookups are lock free, updates are
+ * serialized on the facade. A rebuild fills a new set of indexes and then replaces the current
+ * one at once, so that lookups running during a catalog reload keep on finding the old objects
+ * instead of seeing partially filled indexes.
+ * </p>
+ */
+public class IndexedCatalogFacade extends DefaultCatalogFacade {
+
+    /**
+     * Key used to index objects that do not have a workspace
+     */
+    static final String NO_WORKSPACE_KEY = "<no workspace>";
+
+    /**
+     * The current indexes, replaced as a whole when rebuilt
+     */
+    volatile Indexes indexes = new Indexes();
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        super(catalog);
+    }
+
+    //
+    // Stores
+    //
+    @Override
+    public StoreInfo add(StoreInfo store) {
+        synchronized (this) {
+            StoreInfo result = super.add(store);
+            indexes.index(store);
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(StoreInfo store) {
+        synchronized (this) {
+            super.remove(store);
+            indexes.storesById.remove(store.getId());
+        }
+    }
+
+    @Override
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        StoreInfo store = indexes.storesById.get(id);
+        if (store != null && clazz.isInstance(store)) {
+            return ModificationProxy.create((T) store, clazz);
+        }
+        return null;
+    }
+
+    //
+    // Resources
+    //
+    @Override
+    public ResourceInfo add(ResourceInfo resource) {
+        synchronized (this) {
+            ResourceInfo result = super.add(resource);
+            indexes.index(resource);
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(ResourceInfo resource) {
+        synchronized (this) {
+            super.remove(resource);
+            indexes.unindex(unwrap(resource));
+        }
+    }
+
+    @Override
+    public void save(ResourceInfo resource) {
+        beforeSaved(resource);
+        synchronized (this) {
+            ResourceInfo real = commitProxy(resource);
+            Indexes current = indexes;
+            current.index(real);
+            // the layer name is derived from the resource one
+            for (LayerInfo layer : current.layersByResource.get(real.getId())) {
+                current.index(layer);
+            }
+        }
+        afterSaved(resource);
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        ResourceInfo resource = indexes.resourcesById.get(id);
+        if (resource != null && clazz.isInstance(resource)) {
+            return ModificationProxy.create((T) resource, clazz);
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        List<ResourceInfo> candidates = indexes.resourcesByName.get(name);
+        if (namespace == ANY_NAMESPACE) {
+            T match = null;
+            for (ResourceInfo resource : candidates) {
+                if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = (T) resource;
+                }
+            }
+            return match != null ? ModificationProxy.create(match, clazz) : null;
+        } else {
+            for (ResourceInfo resource : candidates) {
+                if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                    NamespaceInfo namespace1 = resource.getNamespace();
+                    if (namespace1 != null && namespace1.equals(namespace)) {
+                        return ModificationProxy.create((T) resource, clazz);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        if (store.getId() == null) {
+            return super.getResourceByStore(store, name, clazz);
+        }
+        for (ResourceInfo resource : indexes.resourcesByStore.get(store.getId())) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())
+                    && store.equals(resource.getStore())) {
+                return ModificationProxy.create((T) resource, clazz);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        if (store.getId() == null) {
+            return super.getResourcesByStore(store, clazz);
+        }
+        List<T> matches = new ArrayList<T>();
+        for (ResourceInfo resource : indexes.resourcesByStore.get(store.getId())) {
+            if (clazz.isInstance(resource) && store.equals(resource.getStore())) {
+                matches.add((T) resource);
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    //
+    // Layers
+    //
+    @Override
+    public LayerInfo add(LayerInfo layer) {
+        synchronized (this) {
+            LayerInfo result = super.add(layer);
+            indexes.index(layer);
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(LayerInfo layer) {
+        synchronized (this) {
+            super.remove(layer);
+            indexes.unindex(unwrap(layer));
+        }
+    }
+
+    @Override
+    public void save(LayerInfo layer) {
+        beforeSaved(layer);
+        synchronized (this) {
+            indexes.index(commitProxy(layer));
+        }
+        afterSaved(layer);
+    }
+
+    @Override
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = indexes.layersById.get(id);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    @Override
+    public LayerInfo getLayerByName(String name) {
+        List<LayerInfo> candidates = indexes.layersByName.get(name);
+        if (candidates.size() > 1) {
+            // preserve the lookup order of the base class among same named layers
+            return super.getLayerByName(name);
+        }
+        for (LayerInfo layer : candidates) {
+            if (name.equals(layer.getName())) {
+                return ModificationProxy.create(layer, LayerInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        if (resource.getId() == null) {
+            return super.getLayers(resource);
+        }
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : indexes.layersByResource.get(resource.getId())) {
+            if (resource.equals(layer.getResource())) {
+                matches.add(layer);
+            }
+        }
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        if (style.getId() == null) {
+            return super.getLayers(style);
+        }
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : indexes.layersByStyle.get(style.getId())) {
+            if (style.equals(layer.getDefaultStyle()) || layer.getStyles().contains(style)) {
+                matches.add(layer);
+            }
+        }
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    //
+    // Layer groups
+    //
+    @Override
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        synchronized (this) {
+            LayerGroupInfo result = super.add(layerGroup);
+            indexes.index(layerGroup);
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(LayerGroupInfo layerGroup) {
+        synchronized (this) {
+            super.remove(layerGroup);
+            indexes.unindex(unwrap(layerGroup));
+        }
+    }
+
+    @Override
+    public void save(LayerGroupInfo layerGroup) {
+        beforeSaved(layerGroup);
+        synchronized (this) {
+            indexes.index(commitProxy(layerGroup));
+        }
+        afterSaved(layerGroup);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroup(String id) {
+        LayerGroupInfo layerGroup = indexes.layerGroupsById.get(id);
+        return layerGroup != null ? ModificationProxy.create(layerGroup, LayerGroupInfo.class)
+                : null;
+    }
+
+    @Override
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == null || (workspace != NO_WORKSPACE && workspace.getId() == null)) {
+            return super.getLayerGroupsByWorkspace(workspace);
+        }
+
+        List<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>();
+        for (LayerGroupInfo layerGroup : indexes.layerGroupsByWorkspace.get(workspaceKey(workspace))) {
+            if (workspace == NO_WORKSPACE ? layerGroup.getWorkspace() == null : workspace
+                    .equals(layerGroup.getWorkspace())) {
+                matches.add(layerGroup);
+            }
+        }
+        return ModificationProxy.createList(matches, LayerGroupInfo.class);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        if (workspace == ANY_WORKSPACE || (workspace != NO_WORKSPACE && workspace.getId() == null)) {
+            return super.getLayerGroupByName(workspace, name);
+        }
+
+        LayerGroupInfo match = null;
+        for (LayerGroupInfo layerGroup : indexes.layerGroupsByWorkspace.get(workspaceKey(workspace))) {
+            if (!name.equals(layerGroup.getName())) {
+                continue;
+            }
+            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+            if ((NO_WORKSPACE == workspace && lgWorkspace == null)
+                    || (lgWorkspace != null && workspace.equals(lgWorkspace))) {
+                if (match != null) {
+                    // ambiguous
+                    return null;
+                }
+                match = layerGroup;
+            }
+        }
+        return match != null ? ModificationProxy.create(match, LayerGroupInfo.class) : null;
+    }
+
+    //
+    // Styles
+    //
+    @Override
+    public StyleInfo add(StyleInfo style) {
+        synchronized (this) {
+            StyleInfo result = super.add(style);
+            indexes.index(style);
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(StyleInfo style) {
+        synchronized (this) {
+            super.remove(style);
+            indexes.unindex(unwrap(style));
+        }
+    }
+
+    @Override
+    public void save(StyleInfo style) {
+        beforeSaved(style);
+        synchronized (this) {
+            indexes.index(commitProxy(style));
+        }
+        afterSaved(style);
+    }
+
+    @Override
+    public StyleInfo getStyle(String id) {
+        StyleInfo style = indexes.stylesById.get(id);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(String name) {
+        for (StyleInfo style : indexes.stylesByName.get(name)) {
+            if (null == style.getWorkspace() && name.equals(style.getName())) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+        List<StyleInfo> candidates = indexes.stylesByName.get(name);
+        if (workspace == ANY_WORKSPACE) {
+            StyleInfo match = null;
+            for (StyleInfo style : candidates) {
+                if (name.equals(style.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = style;
+                }
+            }
+            return match != null ? ModificationProxy.create(match, StyleInfo.class) : null;
+        } else {
+            for (StyleInfo style : candidates) {
+                if (name.equals(style.getName())) {
+                    if (style.getWorkspace() != null && style.getWorkspace().equals(workspace)
+                            || style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                        return ModificationProxy.create(style, StyleInfo.class);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    //
+    // Queries
+    //
+    /**
+     * Narrows down the candidates using the indexes when the filter is, or is a conjunction
+     * containing, an equality test on one of the indexed properties
+     */
+    @Override
+    protected <T extends CatalogInfo> Iterable<T> candidates(Class<? super T> of, Filter filter) {
+        Map<String, String> equalities = new HashMap<String, String>();
+        collectEqualities(filter, equalities);
+        if (equalities.isEmpty()) {
+            return super.candidates(of, filter);
+        }
+
+        Indexes indexes = this.indexes;
+        Collection<? extends CatalogInfo> indexed = null;
+        String id = equalities.get("id");
+        String name = equalities.get("name");
+        if (id != null) {
+            indexed = singleton(byId(indexes, of, id));
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            String prefixedName = equalities.get("prefixedName");
+            if (equalities.containsKey("resource.id")) {
+                indexed = indexes.layersByResource.get(equalities.get("resource.id"));
+            } else if (name != null) {
+                indexed = indexes.layersByName.get(name);
+            } else if (prefixedName != null) {
+                indexed = indexes.layersByName.get(prefixedName.substring(prefixedName.indexOf(':') + 1));
+            } else if (equalities.containsKey("defaultStyle.id")) {
+                indexed = indexes.layersByStyle.get(equalities.get("defaultStyle.id"));
+            }
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            if (equalities.containsKey("store.id")) {
+                indexed = indexes.resourcesByStore.get(equalities.get("store.id"));
+            } else if (name != null) {
+                indexed = indexes.resourcesByName.get(name);
+            }
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            if (equalities.containsKey("workspace.id")) {
+                indexed = indexes.layerGroupsByWorkspace.get(equalities.get("workspace.id"));
+            }
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            if (name != null) {
+                indexed = indexes.stylesByName.get(name);
+            }
+        }
+
+        if (indexed == null) {
+            return super.candidates(of, filter);
+        }
+        return (Iterable<T>) Iterables.filter(indexed, of);
+    }
+
+    CatalogInfo byId(Indexes indexes, Class<?> of, String id) {
+        if (StoreInfo.class.isAssignableFrom(of)) {
+            return indexes.storesById.get(id);
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return indexes.resourcesById.get(id);
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return indexes.layersById.get(id);
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            return indexes.layerGroupsById.get(id);
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return indexes.stylesById.get(id);
+        } else if (NamespaceInfo.class.isAssignableFrom(of)) {
+            return unwrap(getNamespace(id));
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            return unwrap(getWorkspace(id));
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            return unwrap(getMap(id));
+        }
+        throw new IllegalArgumentException("Unknown type: " + of);
+    }
+
+    static List<CatalogInfo> singleton(CatalogInfo info) {
+        if (info == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(info);
+    }
+
+    /**
+     * Collects the case sensitive equality tests between a property and a string literal
+     * found in the filter or in the top level conjunction
+     */
+    static void collectEqualities(Filter filter, Map<String, String> equalities) {
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                collectEqualities(child, equalities);
+            }
+        } else if (filter instanceof PropertyIsEqualTo) {
+            PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+            if (!equal.isMatchingCase()) {
+                return;
+            }
+            Expression e1 = equal.getExpression1();
+            Expression e2 = equal.getExpression2();
+            if (e1 instanceof Literal && e2 instanceof PropertyName) {
+                Expression tmp = e1;
+                e1 = e2;
+                e2 = tmp;
+            }
+            if (e1 instanceof PropertyName && e2 instanceof Literal
+                    && ((Literal) e2).getValue() instanceof String) {
+                String property = ((PropertyName) e1).getPropertyName();
+                if (!equalities.containsKey(property)) {
+                    equalities.put(property, (String) ((Literal) e2).getValue());
+                }
+            }
+        }
+    }
+
+    //
+    // Index maintenance
+    //
+    @Override
+    public void resolve() {
+        super.resolve();
+        rebuildIndexes();
+    }
+
+    @Override
+    protected void afterSync() {
+        rebuildIndexes();
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        indexes = new Indexes();
+    }
+
+    /**
+     * Rebuilds all the indexes from the contents of the base facade collections. The new
+     * indexes replace the current ones only once complete.
+     */
+    public synchronized void rebuildIndexes() {
+        Indexes rebuilt = new Indexes();
+        for (Object store : stores.values()) {
+            rebuilt.index((StoreInfo) store);
+        }
+        for (Object resource : resources.values()) {
+            rebuilt.index((ResourceInfo) resource);
+        }
+        for (LayerInfo layer : layers) {
+            rebuilt.index(layer);
+        }
+        for (LayerGroupInfo layerGroup : layerGroups) {
+            rebuilt.index(layerGroup);
+        }
+        for (StyleInfo style : styles) {
+            rebuilt.index(style);
+        }
+        indexes = rebuilt;
+    }
+
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static String workspaceKey(WorkspaceInfo workspace) {
+        if (workspace == null || workspace == NO_WORKSPACE) {
+            return NO_WORKSPACE_KEY;
+        }
+        return workspace.getId();
+    }
+
+    static Set<String> keys(String key) {
+        Set<String> keys = new HashSet<String>();
+        if (key != null) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * The set of secondary indexes. Updates are serialized by the facade, a whole new set is
+     * built when the indexes are rebuilt.
+     */
+    static class Indexes {
+
+        final Map<String, StoreInfo> storesById = new ConcurrentHashMap<String, StoreInfo>();
+
+        final Map<String, ResourceInfo> resourcesById = new ConcurrentHashMap<String, ResourceInfo>();
+
+        final MultiIndex<ResourceInfo> resourcesByName = new MultiIndex<ResourceInfo>();
+
+        final MultiIndex<ResourceInfo> resourcesByStore = new MultiIndex<ResourceInfo>();
+
+        final Map<String, LayerInfo> layersById = new ConcurrentHashMap<String, LayerInfo>();
+
+        final MultiIndex<LayerInfo> layersByName = new MultiIndex<LayerInfo>();
+
+        final MultiIndex<LayerInfo> layersByResource = new MultiIndex<LayerInfo>();
+
+        final MultiIndex<LayerInfo> layersByStyle = new MultiIndex<LayerInfo>();
+
+        final Map<String, LayerGroupInfo> layerGroupsById = new ConcurrentHashMap<String, LayerGroupInfo>();
+
+        final MultiIndex<LayerGroupInfo> layerGroupsByWorkspace = new MultiIndex<LayerGroupInfo>();
+
+        final Map<String, StyleInfo> stylesById = new ConcurrentHashMap<String, StyleInfo>();
+
+        final MultiIndex<StyleInfo> stylesByName = new MultiIndex<StyleInfo>();
+
+        void index(StoreInfo store) {
+            storesById.put(store.getId(), store);
+        }
+
+        void index(ResourceInfo resource) {
+            resourcesById.put(resource.getId(), resource);
+            resourcesByName.put(resource, keys(resource.getName()));
+            resourcesByStore.put(resource, keys(id(resource.getStore())));
+        }
+
+        void unindex(ResourceInfo resource) {
+            resourcesById.remove(resource.getId());
+            resourcesByName.remove(resource);
+            resourcesByStore.remove(resource);
+        }
+
+        void index(LayerInfo layer) {
+            layersById.put(layer.getId(), layer);
+            layersByName.put(layer, keys(layer.getName()));
+            layersByResource.put(layer, keys(id(layer.getResource())));
+            Set<String> styleIds = keys(id(layer.getDefaultStyle()));
+            for (StyleInfo style : layer.getStyles()) {
+                String id = id(style);
+                if (id != null) {
+                    styleIds.add(id);
+                }
+            }
+            layersByStyle.put(layer, styleIds);
+        }
+
+        void unindex(LayerInfo layer) {
+            layersById.remove(layer.getId());
+            layersByName.remove(layer);
+            layersByResource.remove(layer);
+            layersByStyle.remove(layer);
+        }
+
+        void index(LayerGroupInfo layerGroup) {
+            layerGroupsById.put(layerGroup.getId(), layerGroup);
+            layerGroupsByWorkspace.put(layerGroup, keys(workspaceKey(layerGroup.getWorkspace())));
+        }
+
+        void unindex(LayerGroupInfo layerGroup) {
+            layerGroupsById.remove(layerGroup.getId());
+            layerGroupsByWorkspace.remove(layerGroup);
+        }
+
+        void index(StyleInfo style) {
+            stylesById.put(style.getId(), style);
+            stylesByName.put(style, keys(style.getName()));
+        }
+
+        void unindex(StyleInfo style) {
+            stylesById.remove(style.getId());
+            stylesByName.remove(style);
+        }
+    }
+
+    /**
+     * A multi valued index, associating each key with the list of catalog objects sharing it.
+     * <p>
+     * The index remembers the keys each object has been indexed with, so that it can be
+     * updated after the object has been modified. Reads are lock free, writes are serialized.
+     * </p>
+     */
+    static class MultiIndex<T extends CatalogInfo> {
+
+        final ConcurrentHashMap<String, List<T>> entries = new ConcurrentHashMap<String, List<T>>();
+
+        /**
+         * The keys each object is indexed with, by object id
+         */
+        final Map<String, Set<String>> keysById = new HashMap<String, Set<String>>();
+
+        /**
+         * Returns the objects indexed under the specified key, or an empty list
+         */
+        List<T> get(String key) {
+            if (key == null) {
+                return Collections.emptyList();
+            }
+            List<T> values = entries.get(key);
+            return values != null ? values : Collections.<T> emptyList();
+        }
+
+        /**
+         * Indexes the object under the specified keys, removing it from the keys it was
+         * previously indexed with, if any
+         */
+        synchronized void put(T info, Set<String> keys) {
+            String id = info.getId();
+            Set<String> old = keysById.get(id);
+            if (old != null) {
+                for (String key : old) {
+                    if (!keys.contains(key)) {
+                        removeEntry(key, id);
+                    }
+                }
+            } else {
+                old = Collections.emptySet();
+            }
+            for (String key : keys) {
+                if (!old.contains(key)) {
+                    List<T> values = entries.get(key);
+                    if (values == null) {
+                        values = new CopyOnWriteArrayList<T>();
+                        entries.put(key, values);
+                    }
+                    values.add(info);
+                } else {
+                    // same key, but make sure we're pointing at the current object
+                    replaceEntry(key, info);
+                }
+            }
+            keysById.put(id, keys);
+        }
+
+        /**
+         * Removes the object from the index
+         */
+        synchronized void remove(T info) {
+            String id = info.getId();
+            Set<String> keys = keysById.remove(id);
+            if (keys != null) {
+                for (String key : keys) {
+                    removeEntry(key, id);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            keysById.clear();
+        }
+
+        void removeEntry(String key, String id) {
+            List<T> values = entries.get(key);
+            if (values == null) {
+                return;
+            }
+            // catalog objects equality is value based, match by id instead
+            for (int i = values.size() - 1; i >= 0; i--) {
+                if (id.equals(values.get(i).getId())) {
+                    values.remove(i);
+                }
+            }
+            if (values.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+
+        void replaceEntry(String key, T info) {
+            List<T> values = entries.get(key);
+            for (int i = 0; i < values.size(); i++) {
+                T value = values.get(i);
+                if (value != info && info.getId().equals(value.getId())) {
+                    values.set(i, info);
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.Info;
@@ -44,6 +46,20 @@ import org.geoserver.ows.util.OwsUtils;
  */
 public class ModificationProxy implements WrappingProxy, Serializable {
 
+    /**
+     * How each invoked method is handled, resolved once per method instead of parsing the
+     * method name on every call
+     */
+    static final ConcurrentMap<Method, Accessor> ACCESSORS = new ConcurrentHashMap<Method, Accessor>();
+
+    /**
+     * Getters and setters by property name, by class, looking them up by name is expensive,
+     * especially when it fails and an exception is thrown
+     */
+    static final ConcurrentMap<Class<?>, ConcurrentMap<String, Method>> GETTERS = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Method>>();
+
+    static final ConcurrentMap<Class<?>, ConcurrentMap<String, Method>> SETTERS = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Method>>();
+
     /** 
      * the proxy object 
      */
@@ -83,19 +99,18 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         
+        Accessor accessor = accessor( method );
         String property = null;
-        if ( ( method.getName().startsWith( "get")  || method.getName().startsWith( "is" ) ) 
-                && method.getParameterTypes().length == 0 ) {
+        if ( accessor.getter ) {
             //intercept getter to check the dirty property set
-            property = method.getName().substring( 
-                method.getName().startsWith( "get") ? 3 : 2 );
+            property = accessor.property;
             if ( properties != null && properties().containsKey( property ) ) {
                 //return the previously set object
                 return properties().get( property );
             }
             else {
                 //if collection, create a wrapper
-                if ( Collection.class.isAssignableFrom( method.getReturnType() ) ) {
+                if ( accessor.collection ) {
                     Collection real = (Collection) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
@@ -110,7 +125,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     clone.addAll( real );
                     oldCollectionValues().put(property, clone);
                     return wrap;
-                } else if(Map.class.isAssignableFrom( method.getReturnType() )) {
+                } else if( accessor.map ) {
                     Map real = (Map) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
@@ -132,9 +147,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
             }
             
         }
-        if ( method.getName().startsWith( "set") && args.length == 1) {
+        if ( accessor.setter ) {
             //intercept setter and put new value in list
-            property = method.getName().substring( 3 );
+            property = accessor.property;
             properties().put( property, args[0] );
             
             return null;
@@ -391,10 +406,50 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         return newValues;
     }
     
+    /**
+     * Returns how a method is handled, caching the result
+     */
+    static Accessor accessor( Method method ) {
+        Accessor accessor = ACCESSORS.get( method );
+        if ( accessor == null ) {
+            accessor = new Accessor( method );
+            ACCESSORS.put( method, accessor );
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the method cache of a class
+     */
+    static ConcurrentMap<String, Method> methods( 
+            ConcurrentMap<Class<?>, ConcurrentMap<String, Method>> caches, Class<?> clazz ) {
+        ConcurrentMap<String, Method> methods = caches.get( clazz );
+        if ( methods == null ) {
+            methods = new ConcurrentHashMap<String, Method>();
+            ConcurrentMap<String, Method> existing = caches.putIfAbsent( clazz, methods );
+            if ( existing != null ) {
+                methods = existing;
+            }
+        }
+        return methods;
+    }
+
     /*
      * Helper method for looking up a getter method.
      */
     Method getter( String propertyName ) {
+        ConcurrentMap<String, Method> getters = methods( GETTERS, proxyObject.getClass() );
+        Method g = getters.get( propertyName );
+        if ( g == null ) {
+            g = findGetter( propertyName );
+            if ( g != null ) {
+                getters.put( propertyName, g );
+            }
+        }
+        return g;
+    }
+
+    Method findGetter( String propertyName ) {
         Method g = null;
         try {
             g = proxyObject.getClass().getMethod( "get" + propertyName , null );
@@ -418,6 +473,19 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      * Helper method for looking up a getter method.
      */
     Method setter( String propertyName, Class type ) {
+        ConcurrentMap<String, Method> setters = methods( SETTERS, proxyObject.getClass() );
+        String key = type != null ? propertyName + ":" + type.getName() : propertyName;
+        Method s = setters.get( key );
+        if ( s == null ) {
+            s = findSetter( propertyName, type );
+            if ( s != null ) {
+                setters.put( key, s );
+            }
+        }
+        return s;
+    }
+
+    Method findSetter( String propertyName, Class type ) {
         Method s = null;
         try {
             s = proxyObject.getClass().getMethod( "set" + propertyName, type );
@@ -469,6 +537,44 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         return ProxyUtils.handler(object, ModificationProxy.class);
     }
 
+    /**
+     * The getter or setter nature of a method, and the property it refers to
+     */
+    static class Accessor {
+        final boolean getter;
+
+        final boolean setter;
+
+        /**
+         * The capitalized property name, null if the method is neither a getter nor a setter
+         */
+        final String property;
+
+        final boolean collection;
+
+        final boolean map;
+
+        Accessor( Method method ) {
+            String name = method.getName();
+            int parameters = method.getParameterTypes().length;
+            if ( ( name.startsWith( "get" ) || name.startsWith( "is" ) ) && parameters == 0 ) {
+                getter = true;
+                setter = false;
+                property = name.substring( name.startsWith( "get" ) ? 3 : 2 );
+            } else if ( name.startsWith( "set" ) && parameters == 1 ) {
+                getter = false;
+                setter = true;
+                property = name.substring( 3 );
+            } else {
+                getter = false;
+                setter = false;
+                property = null;
+            }
+            collection = Collection.class.isAssignableFrom( method.getReturnType() );
+            map = Map.class.isAssignableFrom( method.getReturnType() );
+        }
+    }
+
     static class list<T> extends ProxyList {
 
         list( List<T> list, Class<T> clazz ) {
@@ -15,6 +15,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +30,6 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
-import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -31,6 +37,8 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -237,7 +245,7 @@ public abstract class GeoServerLoader {
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
         
-        CatalogFactory factory = catalog.getFactory();
+        long start = System.currentTimeMillis();
        
         //global styles
         loadStyles(resourceLoader.find( "styles" ), catalog, xp);
@@ -324,181 +332,50 @@ public abstract class GeoServerLoader {
                 }
             }
             
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+            long stylesTime = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+
+            //stores, resources and layers are parsed in parallel, each phase is added to the 
+            // catalog from this thread once completed, so that the references found in the 
+            // next phase can be resolved against the objects loaded by the previous one
+            ExecutorService executor = createLoaderExecutor();
+            try {
+                //load the stores
+                List<File> storeDirs = new ArrayList<File>();
+                for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                    storeDirs.addAll(list(wsd, DirectoryFileFilter.INSTANCE));
+                }
+                List<StoreInfo> stores = loadStores(storeDirs, catalog, xp, executor);
+                long storesTime = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
                 
-                //load the stores for this workspace
-                for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
-                    File f = new File( sd, "datastore.xml");
-                    if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
-                            continue;
-                        }
-                        
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
-                            if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
-                                if ( f.exists() ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
-                            }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
-                            }
-                        }
-                    } else {
-                        //look for a coverage store
-                        f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
-                            try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
-                                if( f.exists() ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = new File( cd, "layer.xml" );
-                                    if ( f.exists() ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                }
-                            }
-                        } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
-                            }
-                        }
+                //load the resources of each store
+                List<File> resourceDirs = new ArrayList<File>();
+                List<ResourceInfo> resources = loadResources(storeDirs, stores, resourceDirs, catalog, 
+                    xp, executor);
+                long resourcesTime = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                
+                //load the layers of each resource
+                loadLayers(resourceDirs, resources, catalog, xp, executor);
+                long layersTime = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+
+                //load the layer groups for each workspace
+                for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                    File layergroups = resourceLoader.find(wsd, "layergroups");
+                    if (layergroups != null) {
+                        loadLayerGroups(layergroups, catalog, xp);
                     }
                 }
-
-                //load hte layer groups for this workspace
-                File layergroups = resourceLoader.find(wsd, "layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
+                
+                LOGGER.info("Catalog loading times: styles and workspaces " + stylesTime 
+                    + "ms, stores " + storesTime + "ms, resources " + resourcesTime 
+                    + "ms, layers " + layersTime + "ms");
+            }
+            finally {
+                if (executor != null) {
+                    executor.shutdown();
                 }
             }
         }
@@ -513,10 +390,304 @@ public abstract class GeoServerLoader {
         if ( layergroups != null ) {
            loadLayerGroups(layergroups, catalog, xp);
         }
+        LOGGER.info("Catalog loading times: layer groups " + (System.currentTimeMillis() - start) 
+            + "ms");
 
         return catalog;
     }
     
+    /**
+     * Builds the executor used to parse the catalog in parallel, the number of threads is
+     * read from the {@code CATALOG_LOAD_THREADS} system variable and defaults to the number
+     * of available processors.
+     * 
+     * @return the executor, or <code>null</code> if the catalog is to be loaded sequentially
+     */
+    ExecutorService createLoaderExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty("CATALOG_LOAD_THREADS");
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value);
+            }
+            catch( NumberFormatException e ) {
+                LOGGER.warning("Invalid CATALOG_LOAD_THREADS value " + value + ", using " + threads);
+            }
+        }
+        if (threads <= 1) {
+            return null;
+        }
+        
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServerLoader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Runs the tasks with the executor, or in the calling thread if the executor is null.
+     * 
+     * @return the task results, in the same order as the tasks, <code>null</code> for the tasks
+     *         that failed
+     */
+    <T> List<T> invokeAll(List<Callable<T>> tasks, ExecutorService executor) 
+        throws InterruptedException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (executor == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load catalog object", e );
+                    results.add(null);
+                }
+            }
+        }
+        else {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                }
+                catch( ExecutionException e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load catalog object", e.getCause() );
+                    results.add(null);
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Loads the stores contained in the specified directories, connecting to the enabled data 
+     * stores to determine if they should be disabled.
+     * 
+     * @return the loaded stores, in the same order as the directories, <code>null</code> for the
+     *         directories that failed to load
+     */
+    List<StoreInfo> loadStores(List<File> storeDirs, Catalog catalog, final XStreamPersister xp, 
+        ExecutorService executor) throws Exception {
+        List<Callable<StoreInfo>> tasks = new ArrayList<Callable<StoreInfo>>();
+        for ( final File sd : storeDirs ) {
+            tasks.add(new Callable<StoreInfo>() {
+                public StoreInfo call() throws Exception {
+                    return depersistStore(sd, xp);
+                }
+            });
+        }
+        List<StoreInfo> stores = invokeAll(tasks, executor);
+        
+        List<Callable<StoreInfo>> checks = new ArrayList<Callable<StoreInfo>>();
+        for ( int i = 0; i < stores.size(); i++ ) {
+            StoreInfo store = stores.get(i);
+            if (store == null) {
+                continue;
+            }
+            try {
+                catalog.add( store );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load store '" + storeDirs.get(i).getName() +"'", e);
+                stores.set(i, null);
+                continue;
+            }
+            
+            if (store instanceof DataStoreInfo) {
+                LOGGER.info( "Loaded data store '" + store.getName() +"'");
+                
+                if (store.isEnabled()) {
+                    final DataStoreInfo ds = (DataStoreInfo) store;
+                    checks.add(new Callable<StoreInfo>() {
+                        public StoreInfo call() throws Exception {
+                            //connect to the datastore to determine if we should disable it
+                            try {
+                                ds.getDataStore(null);
+                            }
+                            catch( Throwable t ) {
+                                LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                                LOGGER.log( Level.INFO, "", t );
+                                
+                                ds.setError(t);
+                                ds.setEnabled(false);
+                            }
+                            return ds;
+                        }
+                    });
+                }
+            }
+            else if (store instanceof CoverageStoreInfo) {
+                LOGGER.info( "Loaded coverage store '" + store.getName() +"'");
+            }
+            else {
+                LOGGER.info( "Loaded wmsstore '" + store.getName() +"'");
+            }
+        }
+        
+        //the connection checks only read the catalog, nothing else is being added meanwhile
+        invokeAll(checks, executor);
+        
+        return stores;
+    }
+    
+    StoreInfo depersistStore(File sd, XStreamPersister xp) {
+        File f = new File( sd, "datastore.xml");
+        if ( f.exists() ) {
+            try {    
+                return depersist( xp, f, DataStoreInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        
+        f = new File( sd, "coveragestore.xml" );
+        if ( f.exists() ) {
+            try {
+                return depersist( xp, f, CoverageStoreInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        
+        f = new File( sd, "wmsstore.xml" );
+        if ( f.exists() ) {
+            try {
+                return depersist( xp, f, WMSStoreInfo.class );
+            } catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        
+        LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+        return null;
+    }
+    
+    /**
+     * Loads the resources of the specified stores.
+     * 
+     * @param resourceDirs filled with the directory of each returned resource
+     * @return the loaded resources, <code>null</code> for the directories that failed to load 
+     */
+    List<ResourceInfo> loadResources(List<File> storeDirs, List<StoreInfo> stores, 
+        List<File> resourceDirs, Catalog catalog, final XStreamPersister xp, 
+        ExecutorService executor) throws Exception {
+        List<Callable<ResourceInfo>> tasks = new ArrayList<Callable<ResourceInfo>>();
+        for ( int i = 0; i < stores.size(); i++ ) {
+            StoreInfo store = stores.get(i);
+            if (store == null) {
+                continue;
+            }
+            
+            final String fileName;
+            final Class<? extends ResourceInfo> clazz;
+            final String type;
+            if (store instanceof DataStoreInfo) {
+                fileName = "featuretype.xml";
+                clazz = FeatureTypeInfo.class;
+                type = "feature type";
+            }
+            else if (store instanceof CoverageStoreInfo) {
+                fileName = "coverage.xml";
+                clazz = CoverageInfo.class;
+                type = "coverage";
+            }
+            else {
+                fileName = "wmslayer.xml";
+                clazz = WMSLayerInfo.class;
+                type = "wms layer";
+            }
+            
+            for ( final File rd : list(storeDirs.get(i), DirectoryFileFilter.INSTANCE) ) {
+                resourceDirs.add(rd);
+                tasks.add(new Callable<ResourceInfo>() {
+                    public ResourceInfo call() throws Exception {
+                        File f = new File( rd, fileName );
+                        if ( !f.exists() ) {
+                            LOGGER.warning( "Ignoring " + type + " directory " + rd.getAbsolutePath() );
+                            return null;
+                        }
+                        try {
+                            return depersist( xp, f, clazz );
+                        }
+                        catch( Exception e ) {
+                            LOGGER.log( Level.WARNING, "Failed to load " + type + " '" + rd.getName() +"'", e);
+                            return null;
+                        }
+                    }
+                });
+            }
+        }
+        
+        List<ResourceInfo> resources = invokeAll(tasks, executor);
+        for ( int i = 0; i < resources.size(); i++ ) {
+            ResourceInfo r = resources.get(i);
+            if (r == null) {
+                continue;
+            }
+            try {
+                catalog.add( r );
+                LOGGER.info( "Loaded resource '" + r.getName() +"'");
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load resource '" + resourceDirs.get(i).getName() +"'", e);
+                resources.set(i, null);
+            }
+        }
+        return resources;
+    }
+    
+    /**
+     * Loads the layers of the specified resources.
+     */
+    void loadLayers(List<File> resourceDirs, List<ResourceInfo> resources, Catalog catalog, 
+        final XStreamPersister xp, ExecutorService executor) throws Exception {
+        List<Callable<LayerInfo>> tasks = new ArrayList<Callable<LayerInfo>>();
+        for ( int i = 0; i < resources.size(); i++ ) {
+            final ResourceInfo r = resources.get(i);
+            if (r == null) {
+                continue;
+            }
+            final File f = new File( resourceDirs.get(i), "layer.xml" );
+            if ( !f.exists() ) {
+                continue;
+            }
+            
+            tasks.add(new Callable<LayerInfo>() {
+                public LayerInfo call() throws Exception {
+                    try {
+                        return depersist(xp, f, LayerInfo.class );
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load layer for resource '" + r.getName() +"'", e);
+                        return null;
+                    }
+                }
+            });
+        }
+        
+        for ( LayerInfo l : invokeAll(tasks, executor) ) {
+            if (l == null) {
+                continue;
+            }
+            try {
+                catalog.add( l );
+                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load layer '" + l.getName() + "'", e);
+            }
+        }
+    }
+    
     /**
      * Reads the legacy (1.x) catalog from disk.
      */
@@ -0,0 +1,604 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.security.impl.DefaultDataAccessManager;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the encoded capabilities documents, so that they are not rebuilt from the catalog on
+ * each request.
+ * <p>
+ * Documents are keyed by service, version, local workspace and layer, base URL, the roles of the
+ * current user and the raw KVP parameters of the request. Only KVP requests are cached. Catalog
+ * changes drop the documents of the affected workspace along with the global ones, while
+ * configuration changes drop the documents of the affected service, or all of them for global
+ * changes. Changes to the data security rules drop all the documents. When a custom
+ * {@link ResourceAccessManager} or {@link DataAccessManager} is installed, it might take
+ * decisions based on the user rather than the roles, so the user name becomes part of the key.
+ * </p>
+ * <p>
+ * Documents listing time or elevation dimensions are never cached, as the dimension values are
+ * computed from the data, which can change without any configuration event (e.g. a WFS
+ * transaction or a mosaic harvest). The other documents expire anyways after a while, to cover
+ * any change the cache is not notified about.
+ * </p>
+ * <p>
+ * The max number of cached documents can be set with the {@code CAPABILITIES_CACHE_SIZE} system
+ * variable, a value of zero disables the cache. The time, in seconds, a document stays in the
+ * cache can be set with the {@code CAPABILITIES_CACHE_TTL} system variable.
+ * </p>
+ *
+ * @see #write(Operation, OutputStream, Encoder)
+ */
+public class CapabilitiesCache {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Default max number of cached documents
+     */
+    public static final int DEFAULT_SIZE = 100;
+
+    /**
+     * Default time to live of the cached documents, in seconds
+     */
+    public static final int DEFAULT_TTL = 60;
+
+    /**
+     * The markers of the dimension elements in WMS 1.1.1 and 1.3.0 capabilities documents
+     */
+    static final byte[][] DIMENSION_MARKERS = { bytes("<Extent "), bytes("<Dimension ") };
+
+    /**
+     * Encodes a capabilities document
+     */
+    public interface Encoder {
+        void encode(OutputStream output) throws IOException;
+    }
+
+    Catalog catalog;
+
+    int maxSize;
+
+    /**
+     * Time to live of the cached documents, in milliseconds
+     */
+    long maxAge;
+
+    LinkedHashMap<Key, CachedDocument> documents = new LinkedHashMap<Key, CachedDocument>(16,
+            0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedDocument> eldest) {
+            return size() > maxSize;
+        };
+    };
+
+    /**
+     * The last modification time of the data security rules the documents were built with
+     */
+    long rulesModified = Long.MIN_VALUE;
+
+    /**
+     * Incremented at each invalidation, used to avoid caching documents built while the
+     * configuration was changing
+     */
+    long generation;
+
+    long hits;
+
+    long misses;
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this(geoServer, lookupSize());
+    }
+
+    public CapabilitiesCache(GeoServer geoServer, int maxSize) {
+        this(geoServer, maxSize, lookupTTL() * 1000l);
+    }
+
+    /**
+     * @param maxAge the time to live of the cached documents, in milliseconds
+     */
+    public CapabilitiesCache(GeoServer geoServer, int maxSize, long maxAge) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.catalog = geoServer.getCatalog();
+        catalog.addListener(new CatalogInvalidator());
+        geoServer.addListener(new ConfigurationInvalidator());
+    }
+
+    static int lookupSize() {
+        String value = GeoServerExtensions.getProperty("CAPABILITIES_CACHE_SIZE");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid CAPABILITIES_CACHE_SIZE value " + value + ", using "
+                        + DEFAULT_SIZE);
+            }
+        }
+        return DEFAULT_SIZE;
+    }
+
+    static int lookupTTL() {
+        String value = GeoServerExtensions.getProperty("CAPABILITIES_CACHE_TTL");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid CAPABILITIES_CACHE_TTL value " + value + ", using "
+                        + DEFAULT_TTL);
+            }
+        }
+        return DEFAULT_TTL;
+    }
+
+    static byte[] bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Looks up the cache in the application context
+     *
+     * @return the cache, or null if not available
+     */
+    public static CapabilitiesCache get() {
+        return GeoServerExtensions.bean(CapabilitiesCache.class);
+    }
+
+    /**
+     * Writes the capabilities document for the operation, either from the cache or running the
+     * encoder and caching its output
+     */
+    public void write(Operation operation, OutputStream output, Encoder encoder)
+            throws IOException {
+        Key key = maxSize > 0 && maxAge > 0 ? buildKey(operation) : null;
+        if (key == null) {
+            encoder.encode(output);
+            return;
+        }
+        checkSecurityRules();
+
+        byte[] document = null;
+        long startGeneration;
+        synchronized (this) {
+            CachedDocument cached = documents.get(key);
+            if (cached != null && cached.isExpired(maxAge)) {
+                documents.remove(key);
+                cached = null;
+            }
+            startGeneration = generation;
+            if (cached != null) {
+                document = cached.contents;
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        if (document == null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            encoder.encode(bos);
+            document = bos.toByteArray();
+            if (!hasDimensions(document)) {
+                synchronized (this) {
+                    if (generation == startGeneration) {
+                        documents.put(key, new CachedDocument(document));
+                    }
+                }
+            }
+        }
+        output.write(document);
+    }
+
+    /**
+     * Drops all the documents if the data security rules changed since they were built, as
+     * they might list layers the users cannot access anymore, or miss the ones they just got
+     * access to
+     */
+    void checkSecurityRules() {
+        List<DataAccessRuleDAO> daos = GeoServerExtensions.extensions(DataAccessRuleDAO.class);
+        if (daos.isEmpty()) {
+            return;
+        }
+        DataAccessRuleDAO dao = daos.get(0);
+        if (dao.isModified()) {
+            // the property file changed on disk
+            dao.reload();
+        }
+        long modified = dao.getLastModified();
+        synchronized (this) {
+            if (modified != rulesModified) {
+                rulesModified = modified;
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the access decisions might depend on the user, and not just on its roles
+     */
+    boolean isUserDependent() {
+        if (!GeoServerExtensions.extensions(ResourceAccessManager.class).isEmpty()) {
+            return true;
+        }
+        for (DataAccessManager manager : GeoServerExtensions.extensions(DataAccessManager.class)) {
+            if (!(manager instanceof DefaultDataAccessManager)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the document contains dimension elements, whose values are computed
+     * from the data
+     */
+    static boolean hasDimensions(byte[] document) {
+        for (byte[] marker : DIMENSION_MARKERS) {
+            if (indexOf(document, marker) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int indexOf(byte[] data, byte[] pattern) {
+        final int last = data.length - pattern.length;
+        final byte first = pattern[0];
+        for (int i = 0; i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the key for the current request, or returns null if the request cannot be cached
+     */
+    Key buildKey(Operation operation) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || request.getHttpRequest() == null || !request.isGet()
+                || request.getRawKvp() == null) {
+            return null;
+        }
+
+        List<String> roles = new ArrayList<String>();
+        String user = null;
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getAuthorities() != null) {
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+        }
+        if (auth != null && isUserDependent()) {
+            user = auth.getName();
+        }
+
+        Map<String, String> kvp = new TreeMap<String, String>();
+        for (Object o : request.getRawKvp().entrySet()) {
+            Map.Entry e = (Map.Entry) o;
+            kvp.put(String.valueOf(e.getKey()).toUpperCase(), String.valueOf(e.getValue()));
+        }
+
+        WorkspaceInfo ws = LocalWorkspace.get();
+        LayerInfo layer = LocalLayer.get();
+        String version = operation.getService().getVersion() != null ? operation.getService()
+                .getVersion().toString() : null;
+        return new Key(operation.getService().getId(), version, ws != null ? ws.getName()
+                : null, layer != null ? layer.getName() : null,
+                ResponseUtils.baseURL(request.getHttpRequest()), user, roles, kvp);
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public synchronized void clear() {
+        generation++;
+        documents.clear();
+    }
+
+    /**
+     * Drops the documents for the specified workspace, along with the global ones that contain
+     * the contents of all workspaces
+     */
+    synchronized void clearWorkspace(String workspace) {
+        generation++;
+        for (Iterator<Key> it = documents.keySet().iterator(); it.hasNext();) {
+            Key key = it.next();
+            if (key.workspace == null || key.workspace.equals(workspace)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the documents for the specified service, in the specified workspace if not null
+     */
+    synchronized void clearService(String service, String workspace) {
+        generation++;
+        for (Iterator<Key> it = documents.keySet().iterator(); it.hasNext();) {
+            Key key = it.next();
+            if ((service == null || service.equalsIgnoreCase(key.service))
+                    && (workspace == null || workspace.equals(key.workspace))) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the workspace the catalog object belongs to, or null if global or unknown
+     */
+    WorkspaceInfo getWorkspace(CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            return (WorkspaceInfo) info;
+        } else if (info instanceof NamespaceInfo) {
+            return catalog.getWorkspaceByName(((NamespaceInfo) info).getPrefix());
+        } else if (info instanceof StoreInfo) {
+            return ((StoreInfo) info).getWorkspace();
+        } else if (info instanceof ResourceInfo) {
+            StoreInfo store = ((ResourceInfo) info).getStore();
+            return store != null ? store.getWorkspace() : null;
+        } else if (info instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) info).getResource();
+            return resource != null ? getWorkspace(resource) : null;
+        } else if (info instanceof LayerGroupInfo) {
+            return ((LayerGroupInfo) info).getWorkspace();
+        } else if (info instanceof StyleInfo) {
+            return ((StyleInfo) info).getWorkspace();
+        }
+        return null;
+    }
+
+    void invalidate(CatalogEvent event) {
+        WorkspaceInfo ws = null;
+        try {
+            ws = getWorkspace(event.getSource());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not determine the workspace of " + event.getSource(),
+                    e);
+        }
+        if (ws == null) {
+            clear();
+        } else {
+            clearWorkspace(ws.getName());
+        }
+    }
+
+    /**
+     * Drops the documents affected by catalog changes
+     */
+    class CatalogInvalidator implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            invalidate(event);
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            invalidate(event);
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // the object might be moving to another workspace, drop the old one too
+            invalidate(event);
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            invalidate(event);
+        }
+
+        public void reloaded() {
+            clear();
+        }
+    }
+
+    /**
+     * Drops the documents affected by configuration changes
+     */
+    class ConfigurationInvalidator extends ConfigurationListenerAdapter {
+
+        @Override
+        public void handlePostGlobalChange(GeoServerInfo global) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsAdded(SettingsInfo settings) {
+            clearSettings(settings);
+        }
+
+        @Override
+        public void handleSettingsPostModified(SettingsInfo settings) {
+            clearSettings(settings);
+        }
+
+        @Override
+        public void handleSettingsRemoved(SettingsInfo settings) {
+            clearSettings(settings);
+        }
+
+        void clearSettings(SettingsInfo settings) {
+            if (settings.getWorkspace() != null) {
+                clearService(null, settings.getWorkspace().getName());
+            } else {
+                clear();
+            }
+        }
+
+        @Override
+        public void handlePostServiceChange(ServiceInfo service) {
+            clearService(service);
+        }
+
+        @Override
+        public void handleServiceRemove(ServiceInfo service) {
+            clearService(service);
+        }
+
+        void clearService(ServiceInfo service) {
+            // a global service also backs the workspaces without their own configuration
+            String ws = service.getWorkspace() != null ? service.getWorkspace().getName() : null;
+            CapabilitiesCache.this.clearService(service.getName(), ws);
+        }
+
+        @Override
+        public void reloaded() {
+            clear();
+        }
+    }
+
+    /**
+     * A cached document along with its creation time
+     */
+    static class CachedDocument {
+        final byte[] contents;
+
+        final long created = System.currentTimeMillis();
+
+        CachedDocument(byte[] contents) {
+            this.contents = contents;
+        }
+
+        boolean isExpired(long maxAge) {
+            return System.currentTimeMillis() - created > maxAge;
+        }
+    }
+
+    /**
+     * The cache key
+     */
+    static class Key {
+        String service;
+
+        String version;
+
+        String workspace;
+
+        String layer;
+
+        String baseURL;
+
+        /**
+         * The user name, only set when the access decisions might depend on it
+         */
+        String user;
+
+        List<String> roles;
+
+        Map<String, String> kvp;
+
+        Key(String service, String version, String workspace, String layer, String baseURL,
+                String user, List<String> roles, Map<String, String> kvp) {
+            this.service = service;
+            this.version = version;
+            this.workspace = workspace;
+            this.layer = layer;
+            this.baseURL = baseURL;
+            this.user = user;
+            this.roles = roles;
+            this.kvp = kvp;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((baseURL == null) ? 0 : baseURL.hashCode());
+            result = prime * result + ((kvp == null) ? 0 : kvp.hashCode());
+            result = prime * result + ((layer == null) ? 0 : layer.hashCode());
+            result = prime * result + ((roles == null) ? 0 : roles.hashCode());
+            result = prime * result + ((service == null) ? 0 : service.hashCode());
+            result = prime * result + ((user == null) ? 0 : user.hashCode());
+            result = prime * result + ((version == null) ? 0 : version.hashCode());
+            result = prime * result + ((workspace == null) ? 0 : workspace.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return eq(baseURL, other.baseURL) && eq(kvp, other.kvp) && eq(layer, other.layer)
+                    && eq(roles, other.roles) && eq(service, other.service)
+                    && eq(user, other.user) && eq(version, other.version) && eq(workspace, other.workspace);
+        }
+
+        static boolean eq(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
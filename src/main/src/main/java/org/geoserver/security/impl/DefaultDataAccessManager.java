@@ -6,17 +6,31 @@ package org.geoserver.security.impl;
 
 import static org.geoserver.security.impl.DataAccessRule.*;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.geoserver.catalog.CatalogException;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.util.logging.Logging;
 
 /**
@@ -45,13 +59,24 @@ import org.geotools.util.logging.Logging;
  * If no {@link Properties} is provided, one will be looked upon in
  * <code>GEOSERVER_DATA_DIR/security/layers.properties, and the class will
  * keep up to date vs changes in the file</code>
+ * <p>
+ * The access decisions only depend on the roles of the user, so they are cached by role set,
+ * catalog object id and access mode. The cache is emptied when the rules are reloaded and
+ * whenever a catalog object is modified or removed, its maximum size is read from the
+ * {@code DATA_ACCESS_CACHE_SIZE} system variable (zero disables it).
+ * </p>
  * 
  * @author Andrea Aime - TOPP
  */
 public class DefaultDataAccessManager implements DataAccessManager {
     static final Logger LOGGER = Logging.getLogger(DataAccessManager.class);
 
-    SecureTreeNode root;
+    /**
+     * Default maximum number of cached access decisions
+     */
+    static final int DEFAULT_CACHE_SIZE = 10000;
+
+    volatile SecureTreeNode root;
 
 //    Catalog catalog;
     
@@ -59,9 +84,46 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     long lastLoaded = Long.MIN_VALUE;
 
+    /**
+     * The cached decisions, replaced as a whole when the rules are reloaded
+     */
+    volatile ConcurrentHashMap<DecisionKey, Boolean> decisions = new ConcurrentHashMap<DecisionKey, Boolean>();
+
+    int cacheSize;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evaluationTime = new AtomicLong();
+
     public DefaultDataAccessManager(DataAccessRuleDAO dao) {
+        this(dao, lookupCacheSize());
+    }
+
+    /**
+     * @param cacheSize the maximum number of cached access decisions, zero to disable caching
+     */
+    public DefaultDataAccessManager(DataAccessRuleDAO dao, int cacheSize) {
         this.dao = dao;
         this.root = buildAuthorizationTree(dao);
+        this.cacheSize = cacheSize;
+        if (cacheSize > 0 && dao.rawCatalog != null) {
+            dao.rawCatalog.addListener(new CacheInvalidator());
+        }
+    }
+
+    static int lookupCacheSize() {
+        String value = GeoServerExtensions.getProperty("DATA_ACCESS_CACHE_SIZE");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid DATA_ACCESS_CACHE_SIZE value " + value + ", using "
+                        + DEFAULT_CACHE_SIZE);
+            }
+        }
+        return DEFAULT_CACHE_SIZE;
     }
 
     public CatalogMode getMode() {
@@ -70,8 +132,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, workspace.getId(), new String[] { workspace.getName() }, mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -99,8 +160,62 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, resource.getId(), new String[] { workspace, resource.getName() },
+                mode);
+    }
+
+    /**
+     * Evaluates the rules for the specified path, or returns the cached decision for the object
+     * if available
+     */
+    boolean canAccess(Authentication user, String id, String[] path, AccessMode mode) {
+        if (cacheSize <= 0 || id == null) {
+            return evaluate(user, root, path, mode);
+        }
+
+        // grab the cache before the tree, so that a decision computed against an old tree
+        // cannot end up in the cache of the new one
+        ConcurrentHashMap<DecisionKey, Boolean> cache = decisions;
+        DecisionKey key = new DecisionKey(roles(user), id, mode);
+        Boolean decision = cache.get(key);
+        if (decision != null) {
+            hits.incrementAndGet();
+            return decision;
+        }
+
+        misses.incrementAndGet();
+        decision = evaluate(user, root, path, mode);
+        if (cache.size() >= cacheSize) {
+            cache.clear();
+        }
+        cache.put(key, decision);
+        return decision;
+    }
+
+    boolean evaluate(Authentication user, SecureTreeNode tree, String[] path, AccessMode mode) {
+        long start = System.nanoTime();
+        try {
+            SecureTreeNode node = tree.getDeepestNode(path);
+            return node.canAccess(user, mode);
+        } finally {
+            evaluationTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The role names of the user, the only part of the authentication the rules depend upon
+     */
+    static Set<String> roles(Authentication user) {
+        Collection<? extends GrantedAuthority> authorities = user != null ? user
+                .getAuthorities() : null;
+        if (authorities == null || authorities.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> roles = new HashSet<String>();
+        for (GrantedAuthority authority : authorities) {
+            roles.add(authority.getAuthority());
+        }
+        return roles;
     }
 
     void checkPropertyFile() {
@@ -108,9 +223,45 @@ public class DefaultDataAccessManager implements DataAccessManager {
         if(lastLoaded < daoLastModified) {
             root = buildAuthorizationTree(dao);
             lastLoaded = daoLastModified;
+            clearCache();
         }
     }
 
+    /**
+     * Drops all the cached access decisions
+     */
+    public void clearCache() {
+        decisions = new ConcurrentHashMap<DecisionKey, Boolean>();
+    }
+
+    /**
+     * @return the number of access decisions served from the cache
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of access decisions that had to be evaluated against the rules
+     */
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the total time spent evaluating the rules, in nanoseconds
+     */
+    public long getEvaluationTime() {
+        return evaluationTime.get();
+    }
+
+    /**
+     * @return the number of cached access decisions
+     */
+    public int getCacheSize() {
+        return decisions.size();
+    }
+
     SecureTreeNode buildAuthorizationTree(DataAccessRuleDAO dao) {
         SecureTreeNode root = new SecureTreeNode();
         
@@ -155,4 +306,62 @@ public class DefaultDataAccessManager implements DataAccessManager {
         
         return root;
     }
+
+    /**
+     * Key of a cached access decision
+     */
+    static class DecisionKey {
+        final Set<String> roles;
+
+        final String id;
+
+        final AccessMode mode;
+
+        DecisionKey(Set<String> roles, String id, AccessMode mode) {
+            this.roles = roles;
+            this.id = id;
+            this.mode = mode;
+        }
+
+        @Override
+        public int hashCode() {
+            return (roles.hashCode() * 31 + id.hashCode()) * 31 + mode.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return mode == other.mode && id.equals(other.id) && roles.equals(other.roles);
+        }
+    }
+
+    /**
+     * Empties the decision cache when catalog objects are changed or removed, as a rename or
+     * a move to another workspace can change the rules applying to an object and its children
+     */
+    class CacheInvalidator implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            // new objects have new ids, nothing cached for them
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            clearCache();
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // wait for the post modify event
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            clearCache();
+        }
+
+        public void reloaded() {
+            clearCache();
+        }
+    }
 }
@@ -246,6 +246,18 @@ public final class Requests {
         //Conect to get the response headers
         conn.connect();
 
+        return getInputStream(conn);
+    }
+
+    /**
+     * Returns the input stream of an already connected URL connection, decoding the response
+     * according to its content encoding, see {@link #getInputStream(URL)}.
+     *
+     * @param conn The connection, on which the Accept-Encoding header has already been set
+     * @return The decoded response contents
+     * @throws IOException
+     */
+    public static InputStream getInputStream(URLConnection conn) throws IOException {
         //Return the correct inputstream
         //If the connection is a url, connection, check the response encoding.
         if (conn instanceof HttpURLConnection) {
@@ -52,6 +52,24 @@ public class ResourcePoolTest extends GeoServerTestSupport {
         assertSame(ft1, ft3);
     }
     
+    public void testCacheStatistics() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        pool.getFeatureType(info);
+        pool.getFeatureType(info);
+        pool.getFeatureType(info);
+        
+        ResourcePool.CacheStatistics stats = pool.getCacheStatistics().get("featureTypes");
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2, stats.getHitCount());
+        
+        // the store has been loaded once while building the feature type
+        stats = pool.getCacheStatistics().get("dataStores");
+        assertEquals(1, stats.getMissCount());
+        assertEquals(0, stats.getHitCount());
+    }
+    
     public void testAttributeCache() throws Exception {
         final Catalog catalog = getCatalog();
         ResourcePool pool = new ResourcePool(catalog);
@@ -0,0 +1,107 @@
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.asc;
+import static org.geoserver.catalog.Predicates.equal;
+
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs the catalog tests against the {@link IndexedCatalogFacade}
+ */
+public class CatalogImplWithIndexedFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    public void testLayerIndexFollowsResourceRename() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("renamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getLayerByName(ft.getName()));
+        LayerInfo layer = catalog.getLayerByName("renamed");
+        assertNotNull(layer);
+        assertEquals(l.getId(), layer.getId());
+    }
+
+    public void testLayerIndexFollowsStyleChange() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getFactory().createStyle();
+        s2.setName("s2Name");
+        s2.setFilename("s2Filename");
+        catalog.add(s2);
+
+        LayerInfo l2 = catalog.getLayer(l.getId());
+        l2.setDefaultStyle(s2);
+        catalog.save(l2);
+
+        assertTrue(catalog.getLayers(catalog.getStyleByName(s.getName())).isEmpty());
+        assertEquals(1, catalog.getLayers(catalog.getStyleByName("s2Name")).size());
+
+        catalog.remove(catalog.getLayer(l.getId()));
+        assertTrue(catalog.getLayers(catalog.getStyleByName("s2Name")).isEmpty());
+        assertNull(catalog.getLayer(l.getId()));
+    }
+
+    public void testListByIndexedProperties() {
+        addLayer();
+        FeatureTypeInfo ft2 = newFeatureType("ft2", ds);
+        catalog.add(ft2);
+        LayerInfo l2 = newLayer(ft2, s);
+        l2.setEnabled(true);
+        catalog.add(l2);
+
+        List<LayerInfo> layers = Lists.newArrayList(catalog.list(LayerInfo.class,
+                equal("resource.id", ft2.getId())));
+        assertEquals(1, layers.size());
+        assertEquals(l2.getId(), layers.get(0).getId());
+
+        layers = Lists.newArrayList(catalog.list(LayerInfo.class,
+                and(equal("name", "ft2"), equal("enabled", Boolean.TRUE)), null, null,
+                asc("name")));
+        assertEquals(1, layers.size());
+        assertEquals(l2.getId(), layers.get(0).getId());
+
+        layers = Lists.newArrayList(catalog.list(LayerInfo.class, equal("id", l.getId())));
+        assertEquals(1, layers.size());
+        assertEquals(l.getId(), layers.get(0).getId());
+
+        List<ResourceInfo> resources = Lists.newArrayList(catalog.list(ResourceInfo.class,
+                equal("store.id", ds.getId()), 0, 1, asc("name")));
+        assertEquals(1, resources.size());
+        assertEquals("ft2", resources.get(0).getName());
+    }
+
+    public void testRebuildSwapsIndexes() {
+        addLayer();
+
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) ((CatalogImpl) catalog).getFacade();
+        IndexedCatalogFacade.Indexes old = facade.indexes;
+        facade.rebuildIndexes();
+
+        // the old indexes are left untouched for the lookups still using them
+        assertNotSame(old, facade.indexes);
+        assertNotNull(old.layersById.get(l.getId()));
+        assertEquals(1, old.layersByName.get(l.getName()).size());
+
+        assertNotNull(catalog.getLayer(l.getId()));
+        assertNotNull(catalog.getLayerByName(l.getName()));
+        assertNotNull(catalog.getStyle(s.getId()));
+    }
+}
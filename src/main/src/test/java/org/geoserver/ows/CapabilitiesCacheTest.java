@@ -0,0 +1,170 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class CapabilitiesCacheTest extends TestCase {
+
+    GeoServerImpl geoServer;
+
+    Catalog catalog;
+
+    CapabilitiesCache cache;
+
+    Operation operation;
+
+    CountingEncoder encoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        geoServer = new GeoServerImpl();
+        geoServer.setCatalog(catalog);
+        geoServer.setGlobal(geoServer.getFactory().createGlobal());
+        cache = new CapabilitiesCache(geoServer, 10);
+
+        Service service = new Service("wms", new Object(), new Version("1.1.1"), null);
+        operation = new Operation("GetCapabilities", service, null, new Object[0]);
+        encoder = new CountingEncoder();
+
+        setupRequest("GetCapabilities");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Dispatcher.REQUEST.remove();
+        LocalWorkspace.remove();
+    }
+
+    void setupRequest(String requestName) {
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setScheme("http");
+        httpRequest.setServerName("localhost");
+        httpRequest.setServerPort(8080);
+        httpRequest.setContextPath("/geoserver");
+
+        Map<String, String> kvp = new HashMap<String, String>();
+        kvp.put("service", "WMS");
+        kvp.put("request", requestName);
+
+        Request request = new Request();
+        request.setHttpRequest(httpRequest);
+        request.setGet(true);
+        request.setRawKvp(kvp);
+        Dispatcher.REQUEST.set(request);
+    }
+
+    String write() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        cache.write(operation, bos, encoder);
+        return bos.toString();
+    }
+
+    public void testCached() throws Exception {
+        assertEquals("caps1", write());
+        assertEquals("caps1", write());
+        assertEquals(1, encoder.count);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // different parameters, different document
+        setupRequest("getcapabilities");
+        assertEquals("caps2", write());
+        assertEquals(2, cache.size());
+    }
+
+    public void testNotCachedWithoutKvp() throws Exception {
+        Dispatcher.REQUEST.get().setGet(false);
+        assertEquals("caps1", write());
+        assertEquals("caps2", write());
+        assertEquals(0, cache.size());
+    }
+
+    public void testCatalogInvalidation() throws Exception {
+        WorkspaceInfo ws1 = catalog.getFactory().createWorkspace();
+        ws1.setName("ws1");
+        catalog.add(ws1);
+        WorkspaceInfo ws2 = catalog.getFactory().createWorkspace();
+        ws2.setName("ws2");
+        catalog.add(ws2);
+
+        // one global document and one for each workspace
+        write();
+        LocalWorkspace.set(ws1);
+        write();
+        LocalWorkspace.set(ws2);
+        write();
+        assertEquals(3, cache.size());
+
+        // changing ws1 drops its own document and the global one
+        ws1 = catalog.getWorkspaceByName("ws1");
+        ws1.getMetadata().put("foo", "bar");
+        catalog.save(ws1);
+        assertEquals(1, cache.size());
+        assertEquals("caps3", write());
+
+        // a global change drops everything
+        geoServer.save(geoServer.getGlobal());
+        assertEquals(0, cache.size());
+    }
+
+    public void testExpired() throws Exception {
+        cache = new CapabilitiesCache(geoServer, 10, 50);
+        assertEquals("caps1", write());
+        assertEquals("caps1", write());
+        Thread.sleep(100);
+        assertEquals("caps2", write());
+        assertEquals(1, cache.size());
+    }
+
+    public void testNotCachedWithDimensions() throws Exception {
+        encoder.contents = "<Layer><Dimension name=\"time\">2012-01-01</Dimension></Layer>";
+        write();
+        write();
+        assertEquals(2, encoder.count);
+        assertEquals(0, cache.size());
+
+        encoder.contents = "<Layer><Extent name=\"elevation\">0,100</Extent></Layer>";
+        write();
+        write();
+        assertEquals(4, encoder.count);
+        assertEquals(0, cache.size());
+    }
+
+    public void testHasDimensions() {
+        assertFalse(CapabilitiesCache.hasDimensions(new byte[0]));
+        assertFalse(CapabilitiesCache.hasDimensions("<Dimension".getBytes()));
+        assertTrue(CapabilitiesCache.hasDimensions("<Extent ".getBytes()));
+        assertTrue(CapabilitiesCache.hasDimensions("<<Dimension name=\"time\"/>".getBytes()));
+    }
+
+    static class CountingEncoder implements CapabilitiesCache.Encoder {
+        int count;
+
+        String contents = "caps";
+
+        public void encode(OutputStream output) throws IOException {
+            count++;
+            output.write((contents + count).getBytes());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.security.AccessMode;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+public class DefaultDataAccessManagerCacheTest extends TestCase {
+
+    Catalog catalog;
+
+    DefaultDataAccessManager manager;
+
+    TestingAuthenticationToken roUser;
+
+    TestingAuthenticationToken anonymous;
+
+    @Override
+    protected void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("topp");
+        catalog.add(ws);
+
+        Properties props = new Properties();
+        props.put("*.*.r", "*");
+        props.put("topp.*.r", "READER");
+        manager = new DefaultDataAccessManager(new MemoryDataAccessRuleDAO(catalog, props), 100);
+
+        roUser = new TestingAuthenticationToken("ro", "supersecret",
+                Arrays.asList(new GrantedAuthority[] { new GeoServerRole("READER") }));
+        anonymous = new TestingAuthenticationToken("anonymous", null);
+    }
+
+    public void testCachedDecisions() throws Exception {
+        WorkspaceInfo ws = catalog.getWorkspaceByName("topp");
+        assertTrue(manager.canAccess(roUser, ws, AccessMode.READ));
+        assertTrue(manager.canAccess(roUser, ws, AccessMode.READ));
+        assertEquals(1, manager.getCacheMisses());
+        assertEquals(1, manager.getCacheHits());
+
+        // users with the same roles share the decisions
+        TestingAuthenticationToken other = new TestingAuthenticationToken("other", "secret",
+                Arrays.asList(new GrantedAuthority[] { new GeoServerRole("READER") }));
+        assertTrue(manager.canAccess(other, ws, AccessMode.READ));
+        assertEquals(2, manager.getCacheHits());
+
+        assertFalse(manager.canAccess(anonymous, ws, AccessMode.READ));
+        assertEquals(2, manager.getCacheMisses());
+        assertEquals(2, manager.getCacheSize());
+    }
+
+    public void testCatalogInvalidation() throws Exception {
+        WorkspaceInfo ws = catalog.getWorkspaceByName("topp");
+        assertFalse(manager.canAccess(anonymous, ws, AccessMode.READ));
+
+        // once renamed the workspace falls under the catch all rule
+        ws.setName("other");
+        catalog.save(ws);
+        assertEquals(0, manager.getCacheSize());
+        assertTrue(manager.canAccess(anonymous, ws, AccessMode.READ));
+    }
+}
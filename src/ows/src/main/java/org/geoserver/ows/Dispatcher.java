@@ -25,7 +25,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +55,9 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -118,7 +120,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -189,6 +191,9 @@ public class Dispatcher extends AbstractController {
 
     @Override
     protected void initApplicationContext(ApplicationContext context) {
+        //drop the lookup tables built against other contexts
+        DispatcherTables.reset();
+        
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
         
@@ -208,6 +213,13 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            //extensions might have changed, rebuild the lookup tables on next request
+            DispatcherTables.reset();
+        }
+    }
+    
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -795,41 +807,31 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
-
-            //first filter by binding, and canHandle
-         O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
-                Response response = (Response) itr.next();
-
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
-                    itr.remove();
-
+            //look up responses, already filtered by binding and output format, and 
+            // sorted by class hierarchy
+            List<Response> responses = DispatcherTables.get().getResponses(result.getClass(), 
+                req.getOutputFormat());
+
+            //filter by canHandle
+            Response response = null;
+            for (Response r : responses) {
+                if (!r.canHandle(opDescriptor)) {
                     continue;
                 }
-
-                //filter by output format
-                Set outputFormats = response.getOutputFormats();
-
-                if ((req.getOutputFormat() != null) && (!outputFormats.isEmpty())
-                        && !outputFormats.contains(req.getOutputFormat())) {
-                    
-                    //must do a case insensitive check
-                    for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
-                        String outputFormat = (String) of.next();
-                        if( req.getOutputFormat().equalsIgnoreCase( outputFormat ) ) {
-                            continue O;
-                        }
+                if (response == null) {
+                    response = r;
+                }
+                else {
+                    //make sure the bindings of the first two are not equal
+                    if (response.getBinding().equals(r.getBinding())) {
+                        String msg = "Multiple responses: (" + result.getClass() + ")";
+                        throw new RuntimeException(msg);
                     }
-                    
-                    itr.remove();
+                    break;
                 }
             }
 
-            if (responses.isEmpty()) {
+            if (response == null) {
                 if(req.getOutputFormat() != null) { 
                     throw new ServiceException("Failed to find response for output format " + req.getOutputFormat(), 
                             ServiceException.INVALID_PARAMETER_VALUE, "outputFormat");
@@ -846,41 +848,6 @@ public class Dispatcher extends AbstractController {
                 }
             }
 
-            if (responses.size() > 1) {
-                //sort by class hierarchy
-                Collections.sort(responses,
-                    new Comparator() {
-                        public int compare(Object o1, Object o2) {
-                            Class c1 = ((Response) o1).getBinding();
-                            Class c2 = ((Response) o2).getBinding();
-
-                            if (c1.equals(c2)) {
-                                return 0;
-                            }
-
-                            if (c1.isAssignableFrom(c2)) {
-                                return 1;
-                            }
-
-                            if (c2.isAssignableFrom(c1)) {
-                                ;
-                            }
-
-                            return -1;
-                        }
-                    });
-
-                //check first two and make sure bindings are not equal
-                Response r1 = (Response) responses.get(0);
-                Response r2 = (Response) responses.get(1);
-
-                if (r1.getBinding().equals(r2.getBinding())) {
-                    String msg = "Multiple responses: (" + result.getClass() + ")";
-                    throw new RuntimeException(msg);
-                }
-            }
-
-            Response response = (Response) responses.get(0);
             response = fireResponseDispatchedCallback(req,opDescriptor,result,response);
 
             //load the output strategy to be used
@@ -1012,7 +979,7 @@ public class Dispatcher extends AbstractController {
         return response;
     }
     
-    Collection loadServices() {
+    static Collection loadServices() {
         Collection services = GeoServerExtensions.extensions(Service.class);
 
         if (!(new HashSet(services).size() == services.size())) {
@@ -1025,7 +992,6 @@ public class Dispatcher extends AbstractController {
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1035,15 +1001,7 @@ public class Dispatcher extends AbstractController {
         }
 
         //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
+        List matches = DispatcherTables.get().getServices(id);
 
         if (matches.isEmpty()) {
             return null;
@@ -1130,8 +1088,10 @@ public class Dispatcher extends AbstractController {
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
+        return DispatcherTables.get().getKvpRequestReader(type);
+    }
 
+    static KvpRequestReader findKvpRequestReader(Class type, Collection kvpReaders) {
         List matches = new ArrayList();
 
         for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
@@ -1167,7 +1127,7 @@ public class Dispatcher extends AbstractController {
         return (KvpRequestReader) matches.get(0);
     }
 
-    Collection loadXmlReaders() {
+    static Collection loadXmlReaders() {
         List<XmlRequestReader> xmlReaders = GeoServerExtensions.extensions(XmlRequestReader.class);
 
         if (!(new HashSet<XmlRequestReader>(xmlReaders).size() == xmlReaders.size())) {
@@ -1192,7 +1152,8 @@ public class Dispatcher extends AbstractController {
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
+        //readers whose element local name matches ignoring case
+        Collection xmlReaders = DispatcherTables.get().getXmlReaders(element);
 
         //first just match on namespace, element
         List matches = new ArrayList();
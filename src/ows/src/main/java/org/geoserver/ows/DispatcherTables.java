@@ -0,0 +1,251 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+
+/**
+ * Lookup tables used by the {@link Dispatcher} to find the services, readers and responses
+ * matching a request without scanning and sorting all the registered extensions every time.
+ * <p>
+ * Each table is built from the extensions the first time it is needed, and all of them are
+ * dropped by {@link #reset()} when the application context is refreshed. The tables only
+ * capture the static properties of the extensions (identifiers, bindings, element names),
+ * checks depending on the actual request, such as {@link Response#canHandle(Operation)}, are
+ * still performed by the dispatcher. Response output formats are not indexed either, some
+ * responses change them at runtime (e.g. following a configuration reload).
+ * </p>
+ */
+final class DispatcherTables {
+
+    /**
+     * Placeholder for the lookups that found no match, concurrent maps do not allow nulls
+     */
+    static final Object NONE = new Object();
+
+    static volatile DispatcherTables tables;
+
+    /**
+     * Returns the current tables, creating them if necessary
+     */
+    static DispatcherTables get() {
+        DispatcherTables t = tables;
+        if (t == null) {
+            t = new DispatcherTables();
+            tables = t;
+        }
+        return t;
+    }
+
+    /**
+     * Drops the current tables, they will be rebuilt on next use
+     */
+    static void reset() {
+        tables = null;
+    }
+
+    /**
+     * Services by lower case identifier
+     */
+    volatile Map<String, List<Service>> services;
+
+    volatile Collection kvpReaders;
+
+    /**
+     * Best matching kvp reader by request bean class
+     */
+    final ConcurrentHashMap<Class, Object> kvpReadersByType = new ConcurrentHashMap<Class, Object>();
+
+    /**
+     * Xml readers by lower case element local name
+     */
+    volatile Map<String, List<XmlRequestReader>> xmlReaders;
+
+    volatile List<Response> responses;
+
+    /**
+     * Responses by the class of the result they can encode
+     */
+    final ConcurrentHashMap<Class, ResponseTable> responsesByResult = new ConcurrentHashMap<Class, ResponseTable>();
+
+    private DispatcherTables() {
+    }
+
+    /**
+     * Returns the services whose identifier matches, ignoring case, the specified one, in
+     * registration order.
+     */
+    List<Service> getServices(String id) {
+        Map<String, List<Service>> map = services;
+        if (map == null) {
+            map = new HashMap<String, List<Service>>();
+            for (Object o : Dispatcher.loadServices()) {
+                Service service = (Service) o;
+                String key = service.getId().toLowerCase();
+                List<Service> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Service>();
+                    map.put(key, list);
+                }
+                list.add(service);
+            }
+            services = map;
+        }
+
+        List<Service> result = map.get(id.toLowerCase());
+        return result != null ? result : Collections.<Service> emptyList();
+    }
+
+    /**
+     * Returns the kvp reader best matching the specified request bean class, or
+     * <code>null</code> if none is found.
+     */
+    KvpRequestReader getKvpRequestReader(Class type) {
+        Object reader = kvpReadersByType.get(type);
+        if (reader == null) {
+            Collection readers = kvpReaders;
+            if (readers == null) {
+                readers = Dispatcher.loadKvpRequestReaders();
+                kvpReaders = readers;
+            }
+            reader = Dispatcher.findKvpRequestReader(type, readers);
+            if (reader == null) {
+                reader = NONE;
+            }
+            kvpReadersByType.put(type, reader);
+        }
+        return reader != NONE ? (KvpRequestReader) reader : null;
+    }
+
+    /**
+     * Returns the xml readers whose element local name matches, ignoring case, the specified
+     * one, in registration order.
+     */
+    List<XmlRequestReader> getXmlReaders(String element) {
+        Map<String, List<XmlRequestReader>> map = xmlReaders;
+        if (map == null) {
+            map = new HashMap<String, List<XmlRequestReader>>();
+            for (Object o : Dispatcher.loadXmlReaders()) {
+                XmlRequestReader reader = (XmlRequestReader) o;
+                String key = reader.getElement().getLocalPart().toLowerCase();
+                List<XmlRequestReader> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<XmlRequestReader>();
+                    map.put(key, list);
+                }
+                list.add(reader);
+            }
+            xmlReaders = map;
+        }
+
+        List<XmlRequestReader> result = element != null ? map.get(element.toLowerCase()) : null;
+        return result != null ? result : Collections.<XmlRequestReader> emptyList();
+    }
+
+    /**
+     * Returns the responses whose binding is compatible with the result class and whose output
+     * formats match, ignoring case, the specified one, or that declare no output format at
+     * all. The responses are sorted by class hierarchy, the most specific binding first.
+     *
+     * @param outputFormat the requested output format, or <code>null</code> to skip the output
+     *        format check
+     */
+    List<Response> getResponses(Class resultClass, String outputFormat) {
+        ResponseTable table = responsesByResult.get(resultClass);
+        if (table == null) {
+            List<Response> all = responses;
+            if (all == null) {
+                all = GeoServerExtensions.extensions(Response.class);
+                responses = all;
+            }
+            table = new ResponseTable(resultClass, all);
+            responsesByResult.put(resultClass, table);
+        }
+        return table.get(outputFormat);
+    }
+
+    /**
+     * The responses able to encode a specific result class
+     */
+    static class ResponseTable {
+
+        /**
+         * All the responses for the result class
+         */
+        final List<Response> all;
+
+        ResponseTable(Class resultClass, List<Response> responses) {
+            List<Response> matches = new ArrayList<Response>();
+            for (Response response : responses) {
+                if (response.getBinding().isAssignableFrom(resultClass)) {
+                    matches.add(response);
+                }
+            }
+
+            // sort by class hierarchy
+            Collections.sort(matches, new Comparator<Response>() {
+                public int compare(Response r1, Response r2) {
+                    Class c1 = r1.getBinding();
+                    Class c2 = r2.getBinding();
+
+                    if (c1.equals(c2)) {
+                        return 0;
+                    }
+                    if (c1.isAssignableFrom(c2)) {
+                        return 1;
+                    }
+                    if (c2.isAssignableFrom(c1)) {
+                        return -1;
+                    }
+                    return 0;
+                }
+            });
+
+            all = Collections.unmodifiableList(matches);
+        }
+
+        /**
+         * Checks the output formats of the response, they are looked up every time as they
+         * might change
+         */
+        static boolean matches(Response response, String outputFormat) {
+            Set<String> formats = response.getOutputFormats();
+            if (formats.isEmpty() || formats.contains(outputFormat)) {
+                return true;
+            }
+            for (String format : formats) {
+                if (format.equalsIgnoreCase(outputFormat)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<Response> get(String outputFormat) {
+            if (outputFormat == null) {
+                return all;
+            }
+            List<Response> result = new ArrayList<Response>(all.size());
+            for (Response response : all) {
+                if (matches(response, outputFormat)) {
+                    result.add(response);
+                }
+            }
+            return result;
+        }
+    }
+}
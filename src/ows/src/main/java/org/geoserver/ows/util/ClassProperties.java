@@ -3,7 +3,9 @@ package org.geoserver.ows.util;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides lookup information about java bean properties in a class.
@@ -14,9 +16,21 @@ import java.util.List;
  */
 public class ClassProperties {
     private static final List<Method> EMPTY = new ArrayList<Method>(0);
+
     List<Method> methods;
     List<Method> getters;
     List<Method> setters;
+    List<String> properties;
+
+    /**
+     * Results of the getter and setter lookups, by lower cased property name (and type name, if
+     * any), the lookups are repeated over and over for the same few properties and would
+     * otherwise scan all the methods each time. Only the methods found by their exact property
+     * name are cached, the property names often come from the clients and caching anything else
+     * would make the caches grow without bounds.
+     */
+    ConcurrentHashMap<String, Method> getterCache = new ConcurrentHashMap<String, Method>();
+    ConcurrentHashMap<String, Method> setterCache = new ConcurrentHashMap<String, Method>();
     
     public ClassProperties(Class clazz) {
         methods = Arrays.asList(clazz.getMethods());
@@ -40,6 +54,12 @@ public class ClassProperties {
             getters = EMPTY;
         if(setters.size() == 0)
             setters = EMPTY;
+
+        List<String> names = new ArrayList<String>(getters.size());
+        for ( Method g : getters ) {
+            names.add( gp( g ) );
+        }
+        properties = Collections.unmodifiableList(names);
     }
 
     /**
@@ -48,12 +68,7 @@ public class ClassProperties {
      * @return A list of string.
      */
     public List<String> properties() {
-        //TODO: factor out check if method is a getter
-        ArrayList<String> properties = new ArrayList<String>();
-        for ( Method g : getters ) {
-            properties.add( gp( g ) );
-        }
-        return properties;
+        return new ArrayList<String>(properties);
     }
 
     /**
@@ -67,6 +82,18 @@ public class ClassProperties {
      * @return The setter for the property, or null if it does not exist.
      */
     public Method setter(String property, Class type) {
+        String key = key(property, type);
+        Method setter = setterCache.get(key);
+        if (setter == null) {
+            setter = findSetter(property, type);
+            if (setter != null && setter.getName().substring(3).equalsIgnoreCase(property)) {
+                setterCache.put(key, setter);
+            }
+        }
+        return setter;
+    }
+
+    Method findSetter(String property, Class type) {
         for (Method setter : setters) {
             if(setter.getName().substring(3).equalsIgnoreCase(property)) {
                 if(type == null) {
@@ -85,7 +112,7 @@ public class ClassProperties {
         // could not be found, try again with a more lax match
         String lax = lax(property);
         if (!lax.equals(property)) {
-            return setter(lax, type);
+            return findSetter(lax, type);
         }
         
         return null;
@@ -102,6 +129,18 @@ public class ClassProperties {
      * @return The getter for the property, or null if it does not exist.
      */
     public Method getter(String property, Class type) {
+        String key = key(property, type);
+        Method getter = getterCache.get(key);
+        if (getter == null) {
+            getter = findGetter(property, type);
+            if (getter != null && gp(getter).equalsIgnoreCase(property)) {
+                getterCache.put(key, getter);
+            }
+        }
+        return getter;
+    }
+
+    Method findGetter(String property, Class type) {
         for (Method getter : getters) {
             if(gp(getter).equalsIgnoreCase(property)) {
                 if(type == null) {
@@ -120,12 +159,20 @@ public class ClassProperties {
         // could not be found, try again with a more lax match
         String lax = lax(property);
         if (!lax.equals(property)) {
-            return getter(lax, type);
+            return findGetter(lax, type);
         }
         
         return null;
     }
     
+    /**
+     * Builds the key of the getter and setter lookup caches
+     */
+    static String key(String property, Class type) {
+        String name = property.toLowerCase();
+        return type == null ? name : name + ":" + type.getName();
+    }
+
     /**
      * Does some checks on the property name to turn it into a java bean property.
      * <p>
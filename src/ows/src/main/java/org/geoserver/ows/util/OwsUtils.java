@@ -46,7 +46,7 @@ public class OwsUtils {
      * @throws NullPointerException If the property specifies a property that results in null.
      */
     public static void set( Object object, String property, Object value ) throws IllegalArgumentException {
-        String[] props = property.split("\\.");
+        String[] props = path(property);
         Method s = null;
         if (props.length > 1) {
             for (int i = 0; i < props.length-1 && object != null; i++) {
@@ -74,6 +74,17 @@ public class OwsUtils {
         }
     }
     
+    /**
+     * Splits a property path in its components, skipping the regular expression in the common
+     * case of a single property
+     */
+    static String[] path(String property) {
+        if (property.indexOf('.') < 0) {
+            return new String[] { property };
+        }
+        return property.split("\\.");
+    }
+
     /**
      * Cache of reflection information about a class, keyed by class.
      */
@@ -146,7 +157,7 @@ public class OwsUtils {
      * @throws RuntimeException If an error occurs getting the property
      */
     public static Object get(Object object, String property) {
-        String[] props = property.split("\\.");
+        String[] props = path(property);
         Object result = object;
         for (int i = 0; i < props.length && result != null; i++) {
             String prop = props[i];
@@ -0,0 +1,80 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.DispatcherTables.ResponseTable;
+import org.geoserver.platform.Operation;
+
+public class DispatcherTablesTest extends TestCase {
+
+    public void testResponseTable() throws Exception {
+        Response generic = new TestResponse(Object.class);
+        Response message = new TestResponse(Message.class);
+        Response text = new TestResponse(Message.class, "text/plain", "TXT");
+        Response other = new TestResponse(String.class);
+
+        ResponseTable table = new ResponseTable(Message.class, Arrays.asList(generic, text,
+                other, message));
+
+        // no output format, all compatible responses, the most specific bindings first
+        List<Response> all = table.get(null);
+        assertEquals(3, all.size());
+        assertSame(generic, all.get(2));
+        assertFalse(all.contains(other));
+
+        // output formats are matched ignoring case
+        assertEquals(Arrays.asList(text, message, generic), table.get("txt"));
+        assertEquals(Arrays.asList(text, message, generic), table.get("Text/Plain"));
+
+        // unknown output formats only match the responses declaring no output format
+        assertEquals(Arrays.asList(message, generic), table.get("image/png"));
+    }
+
+    public void testResponseTableLiveFormats() throws Exception {
+        // a live set, like the one of the ogr2ogr output format
+        Set<String> formats = new HashSet<String>();
+        Response dynamic = new TestResponse(Message.class, formats);
+        Response text = new TestResponse(Message.class, "text/plain");
+        ResponseTable table = new ResponseTable(Message.class, Arrays.asList(dynamic, text));
+
+        // no formats yet, matches anything
+        assertEquals(Arrays.asList(dynamic, text), table.get("text/plain"));
+
+        // formats added after the table has been built
+        formats.add("SHP");
+        assertEquals(Arrays.asList(text), table.get("text/plain"));
+        assertEquals(Arrays.asList(dynamic), table.get("shp"));
+    }
+
+    static class TestResponse extends Response {
+
+        public TestResponse(Class binding, String... outputFormats) {
+            super(binding, outputFormats.length == 0 ? Collections.EMPTY_SET
+                    : new HashSet<String>(Arrays.asList(outputFormats)));
+        }
+
+        public TestResponse(Class binding, Set<String> outputFormats) {
+            super(binding, outputFormats);
+        }
+
+        public String getMimeType(Object value, Operation operation) {
+            return "text/plain";
+        }
+
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException {
+        }
+    }
+}
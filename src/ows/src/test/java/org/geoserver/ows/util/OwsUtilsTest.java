@@ -4,6 +4,7 @@
  */
 package org.geoserver.ows.util;
 
+import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -63,6 +64,26 @@ public class OwsUtilsTest extends TestCase {
         assertEquals("v", baz.map.get("k"));
     }
 
+    public void testCachedLookups() throws Exception {
+        ClassProperties properties = OwsUtils.getClassProperties(Foo.class);
+        Method getter = properties.getter("a", null);
+        assertNotNull(getter);
+        assertSame(getter, properties.getter("a", null));
+        assertSame(getter, properties.getter("A", String.class));
+        assertNull(properties.getter("a", Integer.class));
+
+        // misses and lax matches are not cached
+        assertNull(properties.getter("xyz", null));
+        assertNull(properties.getter("xyz", null));
+        assertNotNull(properties.getter("_a_", null));
+        assertFalse(properties.getterCache.containsKey(ClassProperties.key("xyz", null)));
+        assertFalse(properties.getterCache.containsKey(ClassProperties.key("_a_", null)));
+
+        assertNotNull(properties.setter("c", Float.class));
+        assertNull(properties.setter("c", String.class));
+        assertEquals(3, properties.properties().size() - 1); // minus getClass
+    }
+
     class Foo {
         String a;
         Integer b;
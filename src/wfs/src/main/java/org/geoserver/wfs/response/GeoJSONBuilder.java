@@ -13,9 +13,9 @@ import java.util.logging.Logger;
 import org.geotools.util.Converters;
 
 import net.sf.json.JSONException;
+import net.sf.json.JSONString;
 import net.sf.json.util.JSONBuilder;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -26,12 +26,17 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
 
 
 /**
  * This class extends the JSONBuilder to be able to write out geometric types.  It is coded
  * against the draft 5 version of the spec on http://geojson.org
+ * <p>
+ * Coordinates are formatted straight from the {@link CoordinateSequence} into a reusable buffer,
+ * and the whole coordinate array of a geometry is handed to the underlying builder in one go,
+ * instead of going through the builder state checks and number conversions for each ordinate.
+ * The number of decimals can be limited with {@link #setNumberOfDecimals(int)}.
+ * </p>
  *
  * @author Chris Holmes, The Open Planning Project
  * @version $Id$
@@ -41,10 +46,54 @@ public class GeoJSONBuilder extends JSONBuilder {
     private final Logger LOGGER = org.geotools.util.logging.Logging
     .getLogger(this.getClass().toString());
     
+    /** Powers of ten used to round the ordinates, up to the max supported number of decimals */
+    private static final double[] SCALES = new double[16];
+    static {
+        SCALES[0] = 1;
+        for (int i = 1; i < SCALES.length; i++) {
+            SCALES[i] = SCALES[i - 1] * 10;
+        }
+    }
+    
+    /** Above this value a scaled ordinate cannot be represented exactly as a long anymore */
+    private static final double MAX_SCALED = 9e15;
+    
+    /** The number of decimals used for ordinates, or -1 to use the full double precision */
+    private int numberOfDecimals = -1;
+    
+    /** Buffer collecting the coordinates of the geometry being encoded */
+    private final StringBuilder coordinates = new StringBuilder();
+    
+    /** Exposes the coordinates buffer as a raw JSON value */
+    private final JSONString coordinatesValue = new JSONString() {
+        public String toJSONString() {
+            return coordinates.toString();
+        }
+    };
+    
     public GeoJSONBuilder(Writer w) {
         super(w);
     }
 
+    /**
+     * Sets the number of decimals used to encode the ordinates, or -1 (the default) to encode them
+     * at full precision
+     */
+    public void setNumberOfDecimals(int numberOfDecimals) {
+        if (numberOfDecimals >= SCALES.length) {
+            throw new IllegalArgumentException("The number of decimals must be lower than "
+                    + SCALES.length);
+        }
+        this.numberOfDecimals = numberOfDecimals < 0 ? -1 : numberOfDecimals;
+    }
+
+    /**
+     * The number of decimals used to encode the ordinates, -1 if full precision is used
+     */
+    public int getNumberOfDecimals() {
+        return numberOfDecimals;
+    }
+
     /**
      * Writes any geometry object.  This class figures out which geometry representation to write
      * and calls subclasses to actually write the object.
@@ -61,6 +110,7 @@ public class GeoJSONBuilder extends JSONBuilder {
 
         if (geometryType != MULTIGEOMETRY) {
             this.key("coordinates");
+            coordinates.setLength(0);
 
             switch (geometryType) {
             case POINT:
@@ -71,7 +121,15 @@ public class GeoJSONBuilder extends JSONBuilder {
                 writeCoordinates(((LineString)geometry).getCoordinateSequence());
                 break;
             case MULTIPOINT:
-                writeCoordinates(geometry.getCoordinates());
+                coordinates.append('[');
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        coordinates.append(',');
+                    }
+                    Point p = (Point) geometry.getGeometryN(i);
+                    writeCoordinate(p.getX(), p.getY());
+                }
+                coordinates.append(']');
                 break;
             case POLYGON:
                 writePolygon((Polygon) geometry);
@@ -79,27 +137,35 @@ public class GeoJSONBuilder extends JSONBuilder {
                 break;
 
             case MULTILINESTRING:
-                this.array();
+                coordinates.append('[');
 
                 for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        coordinates.append(',');
+                    }
                     writeCoordinates(((LineString)geometry.getGeometryN(i)).getCoordinateSequence());
                 }
 
-                this.endArray();
+                coordinates.append(']');
 
                 break;
 
             case MULTIPOLYGON:
-                this.array();
+                coordinates.append('[');
 
                 for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        coordinates.append(',');
+                    }
                     writePolygon((Polygon) geometry.getGeometryN(i));
                 }
 
-                this.endArray();
+                coordinates.append(']');
 
                 break;
             }
+            
+            this.value(coordinatesValue);
         } else {
             writeGeomCollection((GeometryCollection) geometry);
         }
@@ -108,8 +174,8 @@ public class GeoJSONBuilder extends JSONBuilder {
     }
 
     private JSONBuilder writeGeomCollection(GeometryCollection collection) {
-        this.array();
         this.key("geometries");
+        this.array();
 
         for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
             writeGeom(collection.getGeometryN(i));
@@ -118,36 +184,91 @@ public class GeoJSONBuilder extends JSONBuilder {
         return this.endArray();
     }
 
-    private JSONBuilder writeCoordinates(Coordinate[] coords)
-        throws JSONException {
-        return writeCoordinates(new CoordinateArraySequence(coords));
-    }
-    
     /**
      * Write the coordinates of a geometry
      * @param coords The coordinates to write
-     * @return this
      * @throws JSONException
      */
-    private JSONBuilder writeCoordinates(CoordinateSequence coords)
+    private void writeCoordinates(CoordinateSequence coords)
         throws JSONException {
-        this.array();
+        coordinates.append('[');
 
         final int coordCount = coords.size();
         for (int i = 0; i < coordCount; i++) {
+            if (i > 0) {
+                coordinates.append(',');
+            }
             writeCoordinate(coords.getX(i), coords.getY(i));
         }
 
-        return this.endArray();
+        coordinates.append(']');
     }
 
-    private JSONBuilder writeCoordinate(double x, double y) {
-        this.array();
-        this.value(x);
-        this.value(y);
+    private void writeCoordinate(double x, double y) {
+        coordinates.append('[');
+        writeOrdinate(x);
+        coordinates.append(',');
+        writeOrdinate(y);
+        coordinates.append(']');
+    }
+    
+    /**
+     * Appends a number to the coordinates buffer, honoring the number of decimals
+     */
+    private void writeOrdinate(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
 
-        return this.endArray();
+        if (numberOfDecimals >= 0) {
+            double scaled = Math.abs(value) * SCALES[numberOfDecimals];
+            if (scaled < MAX_SCALED) {
+                long units = Math.round(scaled);
+                long scale = (long) SCALES[numberOfDecimals];
+                long integer = units / scale;
+                long fraction = units % scale;
+                if (value < 0 && units != 0) {
+                    coordinates.append('-');
+                }
+                coordinates.append(integer);
+                if (fraction != 0) {
+                    // drop the trailing zeros, then pad with the leading ones
+                    int digits = numberOfDecimals;
+                    while (fraction % 10 == 0) {
+                        fraction /= 10;
+                        digits--;
+                    }
+                    coordinates.append('.');
+                    for (long limit = fraction; limit > 0; limit /= 10) {
+                        digits--;
+                    }
+                    for (int i = 0; i < digits; i++) {
+                        coordinates.append('0');
+                    }
+                    coordinates.append(fraction);
+                }
+                return;
+            }
+        }
+
+        if (value == (long) value && Math.abs(value) < MAX_SCALED) {
+            // same as json-lib, integral values are written without decimals
+            coordinates.append((long) value);
+        } else {
+            String s = Double.toString(value);
+            int end = s.length();
+            if (s.indexOf('E') < 0) {
+                while (s.charAt(end - 1) == '0') {
+                    end--;
+                }
+                if (s.charAt(end - 1) == '.') {
+                    end--;
+                }
+            }
+            coordinates.append(s, 0, end);
+        }
     }
+    
     /**
      * Turns an envelope into an array [minX,minY,maxX,maxY]
      * @param env envelope representing bounding box
@@ -155,12 +276,17 @@ public class GeoJSONBuilder extends JSONBuilder {
      */
     protected JSONBuilder writeBoundingBox(Envelope env) {
         this.key("bbox");
-        this.array();
-        this.value(env.getMinX());
-        this.value(env.getMinY());
-        this.value(env.getMaxX());
-        this.value(env.getMaxY());
-        return this.endArray();
+        coordinates.setLength(0);
+        coordinates.append('[');
+        writeOrdinate(env.getMinX());
+        coordinates.append(',');
+        writeOrdinate(env.getMinY());
+        coordinates.append(',');
+        writeOrdinate(env.getMaxX());
+        coordinates.append(',');
+        writeOrdinate(env.getMaxY());
+        coordinates.append(']');
+        return this.value(coordinatesValue);
     }
 
     /**
@@ -169,15 +295,15 @@ public class GeoJSONBuilder extends JSONBuilder {
      * @throws JSONException
      */
     private void writePolygon(Polygon geometry) throws JSONException {
-        this.array();
+        coordinates.append('[');
         writeCoordinates(geometry.getExteriorRing().getCoordinateSequence());
 
         for (int i = 0, ii = geometry.getNumInteriorRing(); i < ii; i++) {
+            coordinates.append(',');
             writeCoordinates(geometry.getInteriorRingN(i).getCoordinateSequence());
         }
 
-        this.endArray(); //end the linear ring
-                         //this.endObject(); //end the 
+        coordinates.append(']'); //end the linear ring
     }
 
     /** Internal representation of OGC SF Point */
@@ -12,6 +12,8 @@ import java.util.logging.Logger;
 
 import net.sf.json.JSONException;
 
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -53,6 +55,28 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
         }
     }
 
+    /**
+     * Returns the number of decimals to be used for the coordinates, the max of the ones
+     * configured for the feature types involved, or -1 (full precision) if none is configured
+     */
+    int getNumDecimals(List resultsList, GeoServer geoServer) {
+        Catalog catalog = geoServer.getCatalog();
+        int numDecimals = -1;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            FeatureTypeInfo meta = catalog.getFeatureTypeByName(collection.getSchema().getName());
+            if (meta != null) {
+                int ftiDecimals = meta.getNumDecimals();
+                if (ftiDecimals > 0) {
+                    numDecimals = numDecimals == -1 ? ftiDecimals : Math.max(numDecimals,
+                            ftiDecimals);
+                }
+            }
+        }
+        // the builder cannot go beyond the precision of a double anyways
+        return Math.min(numDecimals, 15);
+    }
+
     public String getCapabilitiesElementName() {
         return "GEOJSON";
     }
@@ -95,6 +119,7 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
         //
         // execute should also fail if all of the locks could not be aquired
         List resultsList = featureCollection.getFeature();
+        jsonWriter.setNumberOfDecimals(getNumDecimals(resultsList, wfs.getGeoServer()));
 
         // FeatureResults[] featureResults = (FeatureResults[]) resultsList
         // .toArray(new FeatureResults[resultsList.size()]);
@@ -13,6 +13,7 @@ import javax.xml.transform.TransformerException;
 
 import net.opengis.wfs.GetCapabilitiesType;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.Operation;
@@ -56,14 +57,25 @@ public class GetCapabilitiesResponse extends Response {
         return "application/xml";
     }
 
-    public void write(Object value, OutputStream output, Operation operation)
+    public void write(Object value, OutputStream output, final Operation operation)
         throws IOException {
-        TransformerBase tx = (TransformerBase) value;
+        final TransformerBase tx = (TransformerBase) value;
+        CapabilitiesCache.Encoder encoder = new CapabilitiesCache.Encoder() {
+            
+            public void encode(OutputStream output) throws IOException {
+                try {
+                    tx.transform(operation.getParameters()[0], output);
+                } catch (TransformerException e) {
+                    throw (IOException) new IOException().initCause(e);
+                }
+            }
+        };
 
-        try {
-            tx.transform(operation.getParameters()[0], output);
-        } catch (TransformerException e) {
-            throw (IOException) new IOException().initCause(e);
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache != null) {
+            cache.write(operation, output, encoder);
+        } else {
+            encoder.encode(output);
         }
     }
 }
@@ -13,6 +13,7 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -31,6 +32,20 @@ import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -67,6 +82,7 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
@@ -124,7 +140,70 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private static class StoreWriter {
         DataStore dstore;
         FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+        BlockingQueue<Object> queue;
+        Future<Void> future;
+        /**
+         * Claimed by the writer thread when it starts, or by the cleanup code if the writer
+         * thread did not start yet, so that it won't touch the writer afterwards
+         */
+        AtomicBoolean started = new AtomicBoolean();
+        /**
+         * Released by the writer thread when it stops using the writer
+         */
+        CountDownLatch done = new CountDownLatch(1);
     }
+    
+    /**
+     * Marks the end of the features queued for a {@link StoreWriter}
+     */
+    private static final Object END = new Object();
+    
+    /**
+     * Threads writing the shapefiles of a collection fanned out to multiple geometry types, one per
+     * geometry type. The number of threads is indirectly bounded by the max number of exports
+     */
+    private static final ExecutorService WRITERS = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ShapeZipWriter-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    
+    /**
+     * Limits the number of concurrent exports, and thus the temp disk space and threads used
+     * overall. Configured with the {@code SHAPE_ZIP_MAX_EXPORTS} system variable, defaults to the
+     * number of available processors
+     */
+    static final Semaphore EXPORTS = new Semaphore(getMaxExports(), true);
+    
+    static int getMaxExports() {
+        int exports = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty("SHAPE_ZIP_MAX_EXPORTS");
+        if (value != null) {
+            try {
+                exports = Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid SHAPE_ZIP_MAX_EXPORTS value " + value + ", using "
+                        + exports);
+            }
+        }
+        return exports;
+    }
+    
+    /**
+     * The files that make up the output zip
+     */
+    private static final FilenameFilter SHAPEFILE_FILTER = new FilenameFilter() {
+        
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
+                   || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
+        }
+    };
 
     /**
      * @deprecated use {@link #ShapeZipOutputFormat(GeoServer)}
@@ -213,22 +292,36 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      */
     public void write(List<SimpleFeatureCollection> collections, Charset charset, OutputStream output, 
         GetFeatureRequest request) throws IOException, ServiceException {
-        //We might get multiple featurecollections in our response (multiple queries?) so we need to
-        //write out multiple shapefile sets, one for each query response.
-        File tempDir = IOUtils.createTempDirectory("shpziptemp");
+        // check up front, once the zip streaming started we cannot report errors properly anymore
+        for (SimpleFeatureCollection curCollection : collections) {
+            if(curCollection.getSchema().getGeometryDescriptor() == null) {
+                throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
+                        + curCollection.getSchema() + " has no geometry field");
+            }
+        }
         
-        // target charset
+        try {
+            EXPORTS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for the other exports to end", e);
+        }
         
+        File tempDir = null;
         try {
+            //We might get multiple featurecollections in our response (multiple queries?) so we need to
+            //write out multiple shapefile sets, one for each query response.
+            tempDir = IOUtils.createTempDirectory("shpziptemp");
+            
+            // each collection is streamed out as soon as its shapefiles are complete, and
+            // then removed from the temp directory
+            ZipOutputStream zipOut = new ZipOutputStream(output);
+            Set<String> zipped = new HashSet<String>();
+            
            // if an empty result out of feature type with unknown geometry is created, the
             // zip file will be empty and the zip output stream will break
             boolean shapefileCreated = false;
             for (SimpleFeatureCollection curCollection : collections) {
-                
-                if(curCollection.getSchema().getGeometryDescriptor() == null) {
-                    throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
-                            + curCollection.getSchema() + " has no geometry field");
-                } 
                 Class geomType = curCollection.getSchema().getGeometryDescriptor().getType().getBinding();
                 if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
                     // in this case we fan out the output to multiple shapefiles
@@ -238,7 +331,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                     writeCollectionToShapefile(curCollection, tempDir, charset, request);
                     shapefileCreated = true;
                 }
-
+                zipFiles(tempDir, zipOut, zipped);
             }
             
             // take care of the case the output is completely empty
@@ -253,16 +346,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             // dump the request
             createRequestDump(tempDir, request, collections.get(0));
             
-            // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
-            ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
+            // zip the remaining files
+            zipFiles(tempDir, zipOut, zipped);
             zipOut.finish();
 
             // This is an error, because this closes the output stream too... it's
@@ -271,12 +356,50 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         } finally {
             // make sure we remove the temp directory and its contents completely now
             try {
-                FileUtils.deleteDirectory(tempDir);
+                if (tempDir != null) {
+                    FileUtils.deleteDirectory(tempDir);
+                }
             } catch(IOException e) {
                 LOGGER.warning("Could not delete temp directory: " + tempDir.getAbsolutePath() + " due to: " + e.getMessage());
             }
+            EXPORTS.release();
         }
     }
+    
+    /**
+     * Adds the files in the temp directory to the zip, and removes them from the directory
+     * @param zipped the names of the entries already in the zip
+     */
+    private void zipFiles(File tempDir, ZipOutputStream zipOut, Set<String> zipped)
+            throws IOException {
+        File[] files = tempDir.listFiles(SHAPEFILE_FILTER);
+        byte[] buffer = new byte[4 * 1024];
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            if (zipped.add(file.getName())) {
+                zipOut.putNextEntry(new ZipEntry(file.getName()));
+                InputStream in = new FileInputStream(file);
+                try {
+                    int c;
+                    while (-1 != (c = in.read(buffer))) {
+                        zipOut.write(buffer, 0, c);
+                    }
+                    zipOut.closeEntry();
+                } finally {
+                    in.close();
+                }
+            } else {
+                LOGGER.warning("Skipping " + file.getName()
+                        + ", the zip already contains a file with the same name");
+            }
+            if (!file.delete()) {
+                LOGGER.warning("Could not delete temp file " + file.getAbsolutePath());
+            }
+        }
+        zipOut.flush();
+    }
 
     /**
      * Dumps the request
@@ -604,7 +727,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         boolean shapefileCreated = false;
         
         Map<Class, StoreWriter> writers = new HashMap<Class, StoreWriter>();
-        SimpleFeatureIterator it;
+        SimpleFeatureIterator it = null;
         try {
             it = c.features(); 
             while(it.hasNext()) {
@@ -615,23 +738,20 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                     continue;
                 }
                 
-                FeatureWriter<SimpleFeatureType, SimpleFeature> writer = getFeatureWriter(ftInfo, f, writers, tempDir, charset);
-                SimpleFeature fw = writer.next();
-                
-                // we cannot trust attribute order, shapefile changes the location and name of the geometry
-                for (AttributeDescriptor d : fw.getFeatureType().getAttributeDescriptors()) {
-                    fw.setAttribute(d.getLocalName(), f.getAttribute(d.getLocalName()));
-                }
-                fw.setDefaultGeometry(f.getDefaultGeometry());
-                writer.write();
+                // each geometry type is written by its own thread, the features are copied
+                // as the iterator is not guaranteed to return a new feature at each call
+                StoreWriter writer = getFeatureWriter(ftInfo, f, writers, tempDir, charset, request, schema);
+                enqueue(writer, SimpleFeatureBuilder.copy(f));
                 shapefileCreated = true;
-                writer.getFeatureType().getName().getLocalPart();
-                String geometryType = (String) getGeometryType((Geometry)f.getDefaultGeometry()).get("geometryType");
-				String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, geometryType);
-                changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName,
-                		schema);
             }
             
+            // signal the end of the features and wait for all the files to be complete
+            for (StoreWriter sw : writers.values()) {
+                enqueue(sw, END);
+            }
+            for (StoreWriter sw : writers.values()) {
+                waitFor(sw);
+            }
         } catch (FactoryException fe) {
         	LOGGER.log(Level.WARNING,
         			"Error while getting EPSG code from FeatureType", fe);
@@ -641,12 +761,23 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 "Error while writing featuretype '" + schema.getTypeName() + "' to shapefile.", ioe);
             throw new ServiceException(ioe);
         } finally {
+            if (it != null) {
+                it.close();
+            }
             // close all writers, dispose all datastores, even if an exception occurs
             // during closeup (shapefile datastore will have to copy the shapefiles, that migh
             // fail in many ways)
             IOException stored = null;
             for (StoreWriter sw : writers.values()) {
                 try {
+                    if (!sw.started.compareAndSet(false, true)) {
+                        // the writer thread is running, or has run, if we got here due to an 
+                        // error stop it, and in any case wait for it to release the writer. 
+                        // Waiting on the future is not enough, a cancelled future returns 
+                        // before the thread actually exits
+                        sw.future.cancel(true);
+                        awaitUninterruptibly(sw.done);
+                    }
                     sw.writer.close();
                     sw.dstore.dispose();
                 } catch(IOException e) {
@@ -661,12 +792,69 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         return shapefileCreated;
     }
     
+    /**
+     * Waits for the latch to be released, preserving the interrupted status of the thread
+     */
+    private void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Adds a feature, or the {@link #END} marker, to the writer queue, failing if the writer
+     * stopped due to an error
+     */
+    private void enqueue(StoreWriter writer, Object feature) throws IOException {
+        try {
+            while (!writer.queue.offer(feature, 100, TimeUnit.MILLISECONDS)) {
+                if (writer.future.isDone()) {
+                    waitFor(writer);
+                    throw new IOException("The shapefile writer stopped unexpectedly");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the shapefiles");
+        }
+    }
+    
+    /**
+     * Waits for the writer to complete, rethrowing its failure if any
+     */
+    private void waitFor(StoreWriter writer) throws IOException {
+        try {
+            writer.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the shapefiles");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException(cause);
+        }
+    }
+    
     /**
      * Returns the feature writer for a specific geometry type, creates a new datastore
-     * and a new writer if there are none so far
+     * and a new writer, started in its own thread, if there are none so far
      */
-    private FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(FeatureTypeInfo ftInfo, SimpleFeature f, 
-            Map<Class, StoreWriter> writers, File tempDir, Charset charset) throws IOException {
+    private StoreWriter getFeatureWriter(FeatureTypeInfo ftInfo, SimpleFeature f, 
+            Map<Class, StoreWriter> writers, File tempDir, Charset charset, 
+            GetFeatureRequest request, SimpleFeatureType schema) throws IOException, FactoryException {
         // get the target class
     	Map<String, Object> map = getGeometryType((Geometry) f.getDefaultGeometry());
         Class<?> target = (Class<?>) map.get("target");
@@ -695,13 +883,42 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             // create the datastore for the current geom type
             DataStore dstore = buildStore(tempDir, charset, retyped);
             
+            changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName, schema);
+            
             // cache it
             storeWriter = new StoreWriter();
             storeWriter.dstore = dstore;
             storeWriter.writer = dstore.getFeatureWriter(retyped.getTypeName(), Transaction.AUTO_COMMIT);
+            storeWriter.queue = new ArrayBlockingQueue<Object>(1024);
+            final StoreWriter sw = storeWriter;
+            storeWriter.future = WRITERS.submit(new Callable<Void>() {
+
+                public Void call() throws Exception {
+                    if (!sw.started.compareAndSet(false, true)) {
+                        // the export failed before this thread could start
+                        return null;
+                    }
+                    try {
+                        Object next;
+                        while ((next = sw.queue.take()) != END) {
+                            SimpleFeature source = (SimpleFeature) next;
+                            SimpleFeature fw = sw.writer.next();
+                            // we cannot trust attribute order, shapefile changes the location and name of the geometry
+                            for (AttributeDescriptor d : fw.getFeatureType().getAttributeDescriptors()) {
+                                fw.setAttribute(d.getLocalName(), source.getAttribute(d.getLocalName()));
+                            }
+                            fw.setDefaultGeometry(source.getDefaultGeometry());
+                            sw.writer.write();
+                        }
+                        return null;
+                    } finally {
+                        sw.done.countDown();
+                    }
+                }
+            });
             writers.put(target, storeWriter);
         }
-        return storeWriter.writer;
+        return storeWriter;
     }
     
     private Map<String, Object> getGeometryType(Geometry g) {
@@ -42,6 +42,33 @@ public class GeoJSONBuilderTest extends TestCase {
         assertEquals("{\"type\":\"Point\",\"coordinates\":[1,2]}", writer.toString());
     }
     
+    public void testWriteFullPrecision() throws Exception {
+        Geometry g = new WKTReader().read("LINESTRING(0.5 -1.25, 12345.123456789 0.1)");
+        builder.writeGeom(g);
+        
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[0.5,-1.25],[12345.123456789,0.1]]}",
+            writer.toString());
+    }
+    
+    public void testWriteNumberOfDecimals() throws Exception {
+        builder.setNumberOfDecimals(3);
+        Geometry g = new WKTReader().read("POLYGON((0 0, 0.00049 1.0006, -1.23456 1.1, 0 0))");
+        builder.writeGeom(g);
+        
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[0,1.001],[-1.235,1.1],[0,0]]]}",
+            writer.toString());
+    }
+    
+    public void testWriteGeometryCollection() throws Exception {
+        Geometry g = new WKTReader().read("GEOMETRYCOLLECTION(POINT(1 2), MULTIPOINT(3 4, 5 6))");
+        builder.writeGeom(g);
+        
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[1,2]},"
+                + "{\"type\":\"MultiPoint\",\"coordinates\":[[3,4],[5,6]]}]}",
+            writer.toString());
+    }
+    
     class MyPoint extends Point {
         
         public MyPoint(double x, double y) {
@@ -81,6 +81,19 @@ public class GeoJSONTest extends WFSTestSupport {
     	assertEquals(aFeature.getString("geometry_name"),"surfaceProperty");
     }
 
+    public void testFullPrecision() throws Exception {
+        // no numDecimals configured, the coordinates must not be rounded
+        String out = getAsString("wfs?request=GetFeature&version=1.0.0&typename=sf:PrimitiveGeoFeature"
+                + "&featureid=PrimitiveGeoFeature.f001&outputformat=json");
+
+        JSONObject rootObject = JSONObject.fromObject( out );
+        JSONArray featureCol = rootObject.getJSONArray("features");
+        JSONObject aFeature = featureCol.getJSONObject(0);
+        JSONArray coordinates = aFeature.getJSONObject("geometry").getJSONArray("coordinates");
+        assertEquals(39.73245, coordinates.getDouble(0), 0d);
+        assertEquals(2.00342, coordinates.getDouble(1), 0d);
+    }
+
     public void testPost() throws Exception {
         String xml = "<wfs:GetFeature " + "service=\"WFS\" " + "outputFormat=\"json\" "
                 + "version=\"1.0.0\" "
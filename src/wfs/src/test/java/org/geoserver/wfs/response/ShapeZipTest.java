@@ -160,6 +160,24 @@ public class ShapeZipTest extends WFSTestSupport {
         checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
     }
 
+    public void testMultipleCollections() throws Exception {
+        int permits = ShapeZipOutputFormat.EXPORTS.availablePermits();
+        
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(getFeatureSource(MockData.BASIC_POLYGONS).getFeatures());
+        fct.getFeature().add(getFeatureSource(ALL_TYPES).getFeatures());
+        zip.write(fct, bos, op);
+        
+        final String[] expectedTypes = new String[] { "BasicPolygons", "AllTypesPoint", 
+                "AllTypesMPoint", "AllTypesPolygon", "AllTypesLine" };
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bos.toByteArray()));
+        // the export slot has been released
+        assertEquals(permits, ShapeZipOutputFormat.EXPORTS.availablePermits());
+    }
+
     public void testMultiTypeDots() throws Exception {
         byte[] zip = writeOut(getFeatureSource(ALL_DOTS).getFeatures());
 
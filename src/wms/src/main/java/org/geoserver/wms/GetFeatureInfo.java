@@ -13,11 +13,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +36,11 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalLayer;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.featureinfo.FeatureCollectionDecorator;
 import org.geotools.coverage.GridSampleDimension;
@@ -54,6 +67,7 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.Filters;
 import org.geotools.filter.IllegalFilterException;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.filter.visitor.SimplifyingFilterVisitor;
 import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.TransformedDirectPosition;
@@ -92,6 +106,8 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -181,31 +197,263 @@ public class GetFeatureInfo {
     private List<FeatureCollection> execute(GetFeatureInfoRequest request, Style[] styles,
             Filter[] filters) throws Exception {
 
-        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
-        // delegate to subclasses the hard work
-        final int x = request.getXPixel();
-        final int y = request.getYPixel();
-        final int buffer = request.getGetMapRequest().getBuffer();
-        final List<Map<String, String>> viewParams = request.getGetMapRequest().getViewParams();
-        final GetMapRequest getMapReq = request.getGetMapRequest();
-        final CoordinateReferenceSystem requestedCRS = getMapReq.getCrs(); // optional, may be null
-
-        // basic information about the request
-        final int width = getMapReq.getWidth();
-        final int height = getMapReq.getHeight();
-        final ReferencedEnvelope bbox = new ReferencedEnvelope(getMapReq.getBbox(),
-                getMapReq.getCrs());
-        final double scaleDenominator = RendererUtilities.calculateOGCScale(bbox, width, null);
-        final List<Object> elevations = request.getGetMapRequest().getElevation();
-		final List<Object> times = request.getGetMapRequest().getTime();
-        final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
-
-        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
-
-        int maxFeatures = request.getFeatureCount();
-        for (int i = 0; i < requestedLayers.size(); i++) {
+        final LayerIdentifier identifier = new LayerIdentifier(request, styles, filters);
+        final int layerCount = request.getQueryLayers().size();
+        final int featureCount = request.getFeatureCount();
+
+        // query the layers in parallel if possible, each one with the whole feature count,
+        // the results are then collected in layer order
+        List<Future<LayerResult>> futures = null;
+        final ExecutorService executor = wms.getFeatureInfoExecutorService();
+        if (executor != null && layerCount > 1) {
+            futures = new ArrayList<Future<LayerResult>>(layerCount);
+            for (int i = 0; i < layerCount; i++) {
+                futures.add(executor.submit(new IdentifyTask(identifier, i, featureCount)));
+            }
+        }
+        final long maxTime = wms.getMaxRenderingTime() * 1000l;
+        final long deadline = System.currentTimeMillis() + maxTime;
+
+        List<FeatureCollection> results = new ArrayList<FeatureCollection>(layerCount);
+        int maxFeatures = featureCount;
+        try {
+            for (int i = 0; i < layerCount; i++) {
+                LayerResult result;
+                if (futures != null) {
+                    result = get(futures.get(i), maxTime > 0 ? deadline : -1, maxTime);
+                    if (result.size > maxFeatures) {
+                        // don't return more than FEATURE_COUNT, query again with what's left
+                        result = identifier.identify(i, maxFeatures);
+                    }
+                } else {
+                    result = identifier.identify(i, maxFeatures);
+                }
+
+                if (result.cascaded) {
+                    results.addAll(result.collections);
+                } else if (result.size != 0) {
+                    results.addAll(result.collections);
+
+                    // don't return more than FEATURE_COUNT
+                    maxFeatures -= result.size;
+                    if (maxFeatures <= 0) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (futures != null) {
+                // the layers past FEATURE_COUNT, or all of them on failure, are not needed
+                for (Future<LayerResult> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Waits for a layer query to complete, up to the deadline
+     */
+    private LayerResult get(Future<LayerResult> future, long deadline, long maxTime)
+            throws Exception {
+        try {
+            if (deadline > 0) {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                return future.get(wait, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (TimeoutException e) {
+            throw new ServiceException(
+                    "This requested used more time than allowed and has been forcefully stopped. "
+                            + "Max rendering time is " + (maxTime / 1000.0) + "s");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The outcome of the identify step on a single layer
+     */
+    @SuppressWarnings("rawtypes")
+    static class LayerResult {
+        static final LayerResult EMPTY = new LayerResult(
+                Collections.<FeatureCollection> emptyList(), 0, false);
+
+        final List<FeatureCollection> collections;
+
+        /**
+         * The number of features found, counting against FEATURE_COUNT
+         */
+        final int size;
+
+        /**
+         * Cascaded results do not count against FEATURE_COUNT, the remote server took care of
+         * it
+         */
+        final boolean cascaded;
+
+        LayerResult(List<FeatureCollection> collections, int size, boolean cascaded) {
+            this.collections = collections;
+            this.size = size;
+            this.cascaded = cascaded;
+        }
+    }
+
+    /**
+     * Runs the identify step of a layer in a pool thread, carrying over the thread locals of
+     * the request thread. Simple features are read in memory by the task, otherwise the actual
+     * data access would happen later, sequentially, while encoding the response
+     */
+    static class IdentifyTask implements Callable<LayerResult> {
+        final LayerIdentifier identifier;
+
+        final int index;
+
+        final int maxFeatures;
+
+        final Request request = Dispatcher.REQUEST.get();
+
+        final WorkspaceInfo workspace = LocalWorkspace.get();
+
+        final LayerInfo layer = LocalLayer.get();
+
+        final SecurityContext security = SecurityContextHolder.getContext();
+
+        /**
+         * The ENV parameter values, used by the style rule filters
+         */
+        final Map<String, Object> envValues = new HashMap<String, Object>(
+                EnvFunction.getLocalValues());
+
+        IdentifyTask(LayerIdentifier identifier, int index, int maxFeatures) {
+            this.identifier = identifier;
+            this.index = index;
+            this.maxFeatures = maxFeatures;
+        }
+
+        public LayerResult call() throws Exception {
+            Dispatcher.REQUEST.set(request);
+            LocalWorkspace.set(workspace);
+            LocalLayer.set(layer);
+            SecurityContextHolder.setContext(security);
+            EnvFunction.setLocalValues(envValues);
+            try {
+                return materialize(identifier.identify(index, maxFeatures));
+            } finally {
+                Dispatcher.REQUEST.remove();
+                LocalWorkspace.remove();
+                LocalLayer.remove();
+                SecurityContextHolder.clearContext();
+                EnvFunction.clearLocalValues();
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        LayerResult materialize(LayerResult result) {
+            if (result.collections.isEmpty()) {
+                return result;
+            }
+            List<FeatureCollection> collections = new ArrayList<FeatureCollection>(
+                    result.collections.size());
+            for (FeatureCollection fc : result.collections) {
+                if (fc instanceof SimpleFeatureCollection) {
+                    collections.add(DataUtilities.collection((SimpleFeatureCollection) fc));
+                } else {
+                    // complex features are left to the encoder
+                    collections.add(fc);
+                }
+            }
+            return new LayerResult(collections, result.size, result.cascaded);
+        }
+    }
+
+    /**
+     * Runs the identify step on the query layers of a request
+     */
+    class LayerIdentifier {
+        final GetFeatureInfoRequest request;
+
+        final Style[] styles;
+
+        final Filter[] filters;
+
+        final List<MapLayerInfo> requestedLayers;
+
+        final int x;
+
+        final int y;
+
+        final int buffer;
+
+        final List<Map<String, String>> viewParams;
+
+        final GetMapRequest getMapReq;
+
+        final CoordinateReferenceSystem requestedCRS;
+
+        final int width;
+
+        final int height;
+
+        final ReferencedEnvelope bbox;
+
+        final double scaleDenominator;
+
+        final List<Object> elevations;
+
+        final List<Object> times;
+
+        final FilterFactory2 ff;
+
+        LayerIdentifier(GetFeatureInfoRequest request, Style[] styles, Filter[] filters)
+                throws Exception {
+            this.request = request;
+            this.styles = styles;
+            this.filters = filters;
+            this.requestedLayers = request.getQueryLayers();
+            // delegate to subclasses the hard work
+            this.x = request.getXPixel();
+            this.y = request.getYPixel();
+            this.buffer = request.getGetMapRequest().getBuffer();
+            this.viewParams = request.getGetMapRequest().getViewParams();
+            this.getMapReq = request.getGetMapRequest();
+            this.requestedCRS = getMapReq.getCrs(); // optional, may be null
+
+            // basic information about the request
+            this.width = getMapReq.getWidth();
+            this.height = getMapReq.getHeight();
+            this.bbox = new ReferencedEnvelope(getMapReq.getBbox(), getMapReq.getCrs());
+            this.scaleDenominator = RendererUtilities.calculateOGCScale(bbox, width, null);
+            this.elevations = request.getGetMapRequest().getElevation();
+            this.times = request.getGetMapRequest().getTime();
+            this.ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+        }
+
+        /**
+         * Identifies the features of the i-th query layer, returning at most maxFeatures of them
+         */
+        LayerResult identify(int i, int maxFeatures) throws Exception {
             final MapLayerInfo layer = requestedLayers.get(i);
-            
+            final long start = System.currentTimeMillis();
+            LayerResult result = identify(i, layer, maxFeatures);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("GetFeatureInfo on layer " + layer.getName() + " found "
+                        + result.size + " features in " + (System.currentTimeMillis() - start)
+                        + "ms");
+            }
+            return result;
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private LayerResult identify(int i, MapLayerInfo layer, int maxFeatures)
+                throws Exception {
             // look at the property names
             String[] names;
             List<List<String>> propertyNames = request.getPropertyNames();
@@ -220,25 +468,27 @@ public class GetFeatureInfo {
             if (layer.getType() == MapLayerInfo.TYPE_WMS) {
                 List<FeatureCollection> cascadedResults;
                 cascadedResults = handleGetFeatureInfoCascade(request, maxFeatures, layer);
-                if (cascadedResults != null) {
-                    for (FeatureCollection fc : cascadedResults) {
-                        results.add(selectProperties(fc, names));
-                    }
+                if (cascadedResults == null) {
+                    return LayerResult.EMPTY;
                 }
-                continue;
+                List<FeatureCollection> collections = new ArrayList<FeatureCollection>();
+                for (FeatureCollection fc : cascadedResults) {
+                    collections.add(selectProperties(fc, names));
+                }
+                return new LayerResult(collections, 0, true);
             } 
             final Style style = styles[i];
             // ok, internally rendered layer then, we check the style to see what's active
             final List<Rule> rules = getActiveRules(style, scaleDenominator);
             if (rules.size() == 0) {
-                continue;
+                return LayerResult.EMPTY;
             }
             
             FeatureCollection collection = null;
             if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
                 final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
 				collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
-                        requestedCRS, width, height, bbox, ff, results, i, layer, rules, maxFeatures,
+                        requestedCRS, width, height, bbox, ff, i, layer, rules, maxFeatures,
                         times, elevations, names);
             } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
                 final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
@@ -274,7 +524,7 @@ public class GetFeatureInfo {
                 }
                 // check that the provided point is inside the bbox for this coverage
                 if (!reader.getOriginalEnvelope().contains(position)) {
-                    continue;
+                    return LayerResult.EMPTY;
                 }
 
                 // read from the request
@@ -315,17 +565,11 @@ public class GetFeatureInfo {
                        
                     }
                 	
-                    results.add(collection);
-                    
-                    // don't return more than FEATURE_COUNT
-                    maxFeatures -= size;
-                    if(maxFeatures <= 0) {
-                        break;
-                    }
+                    return new LayerResult(Collections.singletonList(collection), size, false);
                 }
             }
+            return LayerResult.EMPTY;
         }
-        return results;
     }
 
     private FeatureCollection selectProperties(FeatureCollection collection, String[] names) throws IOException {
@@ -402,9 +646,8 @@ public class GetFeatureInfo {
     private FeatureCollection identifyVectorLayer(Filter[] filters,
             final int x, final int y, final int buffer, final Map<String, String> viewParams,
             final CoordinateReferenceSystem requestedCRS, final int width, final int height,
-            final ReferencedEnvelope bbox, final FilterFactory2 ff,
-            List<FeatureCollection> results, int i, final MapLayerInfo layer, final List<Rule> rules,
-            final int maxFeatures, List<Object> times, List<Object> elevations, final String[] propertyNames)
+            final ReferencedEnvelope bbox, final FilterFactory2 ff, int i,
+            final MapLayerInfo layer, final List<Rule> rules, final int maxFeatures, List<Object> times, List<Object> elevations, final String[] propertyNames)
             throws IOException {
 
         CoordinateReferenceSystem dataCRS = layer.getCoordinateReferenceSystem();
@@ -58,6 +58,19 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         list.add(coverage);
     }
 
+    /**
+     * Removes and returns the images scheduled for cleanup by the current thread, allowing
+     * worker threads to hand them over to the thread running the request
+     */
+    public static List<RenderedImage> takeImages() {
+        List<RenderedImage> list = images.get();
+        images.remove();
+        if (list == null) {
+            return new ArrayList<RenderedImage>();
+        }
+        return list;
+    }
+
     @Override
     public void finished(Request request) {
         disposeCoverages();
@@ -49,6 +49,8 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.png.PNGEncoder;
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -102,6 +104,39 @@ public class WMS implements ApplicationContextAware {
 
     public static final int PNG_COMPRESSION_DEFAULT = 25;
 
+    /**
+     * The encoder used for PNG maps, {@link #PNG_ENCODER_GEOSERVER} or
+     * {@link #PNG_ENCODER_IMAGEIO}
+     */
+    public static final String PNG_ENCODER = "pngEncoder";
+
+    /**
+     * The GeoServer PNG encoder, used for the image layouts it supports, see {@link PNGEncoder}
+     */
+    public static final String PNG_ENCODER_GEOSERVER = "GEOSERVER";
+
+    /**
+     * The Image I/O PNG writer, native accelerated if so configured in the JAI settings
+     */
+    public static final String PNG_ENCODER_IMAGEIO = "IMAGEIO";
+
+    /**
+     * The encoder used when none is configured and PNG native acceleration is disabled, with
+     * native acceleration enabled {@link #PNG_ENCODER_IMAGEIO} is used instead
+     */
+    public static final String PNG_ENCODER_DEFAULT = PNG_ENCODER_GEOSERVER;
+
+    /**
+     * The row filter used by the GeoServer PNG encoder, one of the {@link FilterType} names
+     */
+    public static final String PNG_FILTER = "pngFilter";
+
+    /**
+     * No default filter, the encoder picks one based on the image layout,
+     * {@link FilterType#NONE} for paletted images and {@link FilterType#ADAPTIVE} otherwise
+     */
+    public static final FilterType PNG_FILTER_DEFAULT = null;
+
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
@@ -117,6 +152,14 @@ public class WMS implements ApplicationContextAware {
     public static final String LOOP_CONTINUOUSLY = "loopContinuously";
 
     public static final Boolean LOOP_CONTINUOUSLY_DEFAULT = Boolean.FALSE;
+
+    /**
+     * The maximum number of threads querying the layers of GetFeatureInfo requests in parallel
+     */
+    public static final String FEATURE_INFO_THREADS = "featureInfoThreads";
+
+    public static final int FEATURE_INFO_THREADS_DEFAULT = Runtime.getRuntime()
+            .availableProcessors() * 2;
     
     static final Logger LOGGER = Logging.getLogger(WMS.class);
 
@@ -178,6 +221,11 @@ public class WMS implements ApplicationContextAware {
      * the WMS Animator animatorExecutor service
      */
     private ExecutorService animatorExecutorService;
+
+    /**
+     * the executor querying the GetFeatureInfo layers in parallel
+     */
+    private ExecutorService featureInfoExecutorService;
     
     private static final FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
 
@@ -294,6 +342,21 @@ public class WMS implements ApplicationContextAware {
         return animatorExecutorService;
     }
 
+    /**
+     * @param featureInfoExecutorService the executor querying the GetFeatureInfo layers
+     */
+    public void setFeatureInfoExecutorService(ExecutorService featureInfoExecutorService) {
+        this.featureInfoExecutorService = featureInfoExecutorService;
+    }
+
+    /**
+     * @return the executor querying the GetFeatureInfo layers, or null if they have to be
+     *         queried sequentially
+     */
+    public ExecutorService getFeatureInfoExecutorService() {
+        return featureInfoExecutorService;
+    }
+
     public WMSInterpolation getInterpolation() {
         return getServiceInfo().getInterpolation();
     }
@@ -459,6 +522,43 @@ public class WMS implements ApplicationContextAware {
                 PNG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * Returns the encoder used for PNG maps, {@link #PNG_ENCODER_GEOSERVER} or
+     * {@link #PNG_ENCODER_IMAGEIO}. When not configured, the Image I/O one is used if PNG
+     * native acceleration is enabled, the GeoServer one otherwise.
+     */
+    public String getPngEncoder() {
+        String defaultEncoder = getPNGNativeAcceleration() ? PNG_ENCODER_IMAGEIO
+                : PNG_ENCODER_DEFAULT;
+        String encoder = getMetadataValue(PNG_ENCODER, defaultEncoder, String.class);
+        encoder = encoder.trim().toUpperCase();
+        if (!PNG_ENCODER_GEOSERVER.equals(encoder) && !PNG_ENCODER_IMAGEIO.equals(encoder)) {
+            LOGGER.warning("Invalid value for '" + PNG_ENCODER + "': " + encoder
+                    + ", it should be either " + PNG_ENCODER_GEOSERVER + " or "
+                    + PNG_ENCODER_IMAGEIO);
+            return defaultEncoder;
+        }
+        return encoder;
+    }
+
+    /**
+     * Returns the row filter used by the GeoServer PNG encoder, or null to let the encoder
+     * pick one based on the image layout
+     */
+    public FilterType getPngFilter() {
+        String filter = getMetadataValue(PNG_FILTER, null, String.class);
+        if (filter == null) {
+            return PNG_FILTER_DEFAULT;
+        }
+        try {
+            return FilterType.valueOf(filter.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid value for '" + PNG_FILTER + "': " + filter
+                    + ", it should be one of " + Arrays.toString(FilterType.values()));
+            return PNG_FILTER_DEFAULT;
+        }
+    }
+
     public int getJpegCompression() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataPercentage(serviceInfo.getMetadata(), JPEG_COMPRESSION,
@@ -485,6 +585,10 @@ public class WMS implements ApplicationContextAware {
        return getMetadataValue(LOOP_CONTINUOUSLY, LOOP_CONTINUOUSLY_DEFAULT, Boolean.class);
     }
 
+    public Integer getFeatureInfoThreads() {
+        return getMetadataValue(FEATURE_INFO_THREADS, FEATURE_INFO_THREADS_DEFAULT, Integer.class);
+    }
+
     int getMetadataPercentage(MetadataMap metadata, String key, int defaultValue) {
         Integer parsedValue = Converters.convert(metadata.get(key), Integer.class);
         if (parsedValue == null)
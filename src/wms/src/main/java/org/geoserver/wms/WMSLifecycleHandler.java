@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.wms.kvp.PaletteManager;
 import org.geotools.renderer.style.FontCache;
 import org.geotools.renderer.style.ImageGraphicFactory;
 import org.geotools.renderer.style.SVGGraphicFactory;
@@ -48,6 +49,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
     public void onDispose() {
         // dispose the WMS Animator Executor Service
         shutdownAnimatorExecutorService();
+
+        // dispose the GetFeatureInfo Executor Service
+        shutdownFeatureInfoExecutorService();
     }
 
     public void onReload() {
@@ -60,11 +64,17 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         ImageGraphicFactory.resetCache();
         SVGGraphicFactory.resetCache();
 
+        // the fixed palettes will be computed again with the current data and styles
+        PaletteManager.clearFixedPalettes();
+
         // reloads the font cache
         reloadFontCache();
         
         // reset WMS Animator Executor Service
         resetAnimatorExecutorService();
+
+        // reset GetFeatureInfo Executor Service
+        resetFeatureInfoExecutorService();
     }
 
     /**
@@ -93,6 +103,38 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         }
     }
 
+    /**
+     * Shutting down pending tasks and resetting the GetFeatureInfo executor service, sized after
+     * the current configuration.
+     */
+    private void resetFeatureInfoExecutorService() {
+        shutdownFeatureInfoExecutorService();
+
+        int threads = this.wmsConfig.getFeatureInfoThreads();
+        if (threads <= 1) {
+            // the layers are going to be queried sequentially
+            this.wmsConfig.setFeatureInfoExecutorService(null);
+            return;
+        }
+        ThreadPoolExecutor featureInfoExecutorService = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        featureInfoExecutorService.allowCoreThreadTimeOut(true);
+
+        this.wmsConfig.setFeatureInfoExecutorService(featureInfoExecutorService);
+    }
+
+    /**
+     * Shuts down the GetFeatureInfo Executor Service. The queued tasks are still run, as the
+     * requests in progress are waiting for them
+     */
+    private void shutdownFeatureInfoExecutorService() {
+        final ExecutorService featureInfoExecutorService = this.wmsConfig
+                .getFeatureInfoExecutorService();
+        if (featureInfoExecutorService != null && !featureInfoExecutorService.isShutdown()) {
+            featureInfoExecutorService.shutdown();
+        }
+    }
+
     void reloadFontCache() {
         List<Font> fonts = loadFontsFromDataDirectory();
         final FontCache cache = FontCache.getDefaultInstance();
@@ -131,6 +173,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
             
             // reset WMS Animator Executor Service
             resetAnimatorExecutorService();
+
+            // reset GetFeatureInfo Executor Service
+            resetFeatureInfoExecutorService();
         }
     }
 
@@ -11,6 +11,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.IndexColorModel;
 import java.util.Collection;
 
+import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.palette.InverseColorMapOp;
 import org.geotools.map.Layer;
@@ -74,6 +75,11 @@ public class WMSMapContent extends MapContent {
      */
     private IndexColorModel icm;
 
+    /**
+     * The {@link ColorIndexer} shared by all the tiles split out of a meta tile
+     */
+    private ColorIndexer paletteIndexer;
+
     private GetMapRequest request; // hold onto it so we can grab info from it
 
     // (request URL etc...)
@@ -151,6 +157,18 @@ public class WMSMapContent extends MapContent {
         this.icm = paletteInverter;
     }
 
+    /**
+     * The color indexer computed on the whole meta tile this map is part of, to be used when
+     * quantizing the map instead of computing a new palette, or null if none is available
+     */
+    public ColorIndexer getPaletteIndexer() {
+        return paletteIndexer;
+    }
+
+    public void setPaletteIndexer(ColorIndexer paletteIndexer) {
+        this.paletteIndexer = paletteIndexer;
+    }
+
     /**
      * The clockwise rotation angle of the map, in degrees
      * 
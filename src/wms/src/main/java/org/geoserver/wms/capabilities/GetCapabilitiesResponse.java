@@ -26,6 +26,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -119,6 +120,23 @@ public class GetCapabilitiesResponse extends Response {
     @Override
     public void write(final Object value, final OutputStream output, final Operation operation)
             throws IOException, ServiceException {
+        CapabilitiesCache.Encoder encoder = new CapabilitiesCache.Encoder() {
+
+            public void encode(OutputStream output) throws IOException {
+                writeCapabilities(value, output, operation);
+            }
+        };
+
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache != null) {
+            cache.write(operation, output, encoder);
+        } else {
+            encoder.encode(output);
+        }
+    }
+
+    void writeCapabilities(final Object value, final OutputStream output,
+            final Operation operation) throws IOException, ServiceException {
 
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
@@ -0,0 +1,85 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.kvp;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+
+/**
+ * Drops the fixed palettes of the maps using a layer or style when the layer or style is
+ * modified or removed, including when the {@link PaletteManager#FIXED_PALETTE} flag of the
+ * layer is turned off.
+ * <p>
+ * Modifications are handled both before and after being applied, so that the palettes are
+ * dropped under the old and the new names, and the palettes computed in between are not
+ * kept.
+ * </p>
+ */
+public class FixedPaletteCleaner implements CatalogListener {
+
+    Catalog catalog;
+
+    public FixedPaletteCleaner(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // nothing to do, new layers and styles have no palettes yet
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        clear(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        clear(event.getSource());
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        clear(event.getSource());
+    }
+
+    public void reloaded() {
+        PaletteManager.clearFixedPalettes();
+    }
+
+    void clear(CatalogInfo info) {
+        if (info instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) info;
+            if (layer.getResource() != null) {
+                PaletteManager.clearFixedPalettes(prefixedName(layer.getResource()), null);
+            }
+        } else if (info instanceof ResourceInfo) {
+            // the layer name is the resource one
+            PaletteManager.clearFixedPalettes(prefixedName((ResourceInfo) info), null);
+        } else if (info instanceof StyleInfo) {
+            PaletteManager.clearFixedPalettes(null, ((StyleInfo) info).getName());
+        } else if (info instanceof WorkspaceInfo) {
+            // all the layer names in the workspace change
+            PaletteManager.clearFixedPalettes();
+        }
+    }
+
+    /**
+     * Same as {@link LayerInfo#prefixedName()}
+     */
+    static String prefixedName(ResourceInfo resource) {
+        if (resource.getStore() == null || resource.getStore().getWorkspace() == null) {
+            return null;
+        }
+        return resource.getStore().getWorkspace().getName() + ":" + resource.getName();
+    }
+}
@@ -9,7 +9,13 @@ import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
@@ -17,10 +23,20 @@ import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.stream.ImageInputStream;
 
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.LookupTableColorIndexer;
 import org.geotools.image.palette.InverseColorMapOp;
+import org.geotools.styling.Style;
 import org.geotools.util.SoftValueHashMap;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
+import com.google.common.collect.MapMaker;
+
 /**
  * Allows access to palettes (implemented as {@link IndexColorModel} classes)
  * 
@@ -45,6 +61,24 @@ public class PaletteManager {
     public static final IndexColorModel safePalette = buildDefaultPalette();
     static SoftValueHashMap<String, PaletteCacheEntry> paletteCache = new SoftValueHashMap<String, PaletteCacheEntry>();
     static SoftValueHashMap<IndexColorModel, InverseColorMapOp> opCache = new SoftValueHashMap<IndexColorModel, InverseColorMapOp>();
+    /**
+     * The color indexers of the palettes in use, palettes are compared by identity as
+     * {@link IndexColorModel} does not compare the colors in equals
+     */
+    static Map<IndexColorModel, ColorIndexer> indexerCache = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * The layer metadata key enabling a fixed palette for the layer: the palette is computed
+     * once, out of the first map or meta tile quantized, and then reused for all the following
+     * PNG8 maps of the layer, so that tiles get consistent colors and are not quantized
+     * separately
+     */
+    public static final String FIXED_PALETTE = "fixedPalette";
+
+    /**
+     * The fixed palettes computed so far, by layers and styles
+     */
+    static ConcurrentMap<String, IndexColorModel> fixedPalettes = new ConcurrentHashMap<String, IndexColorModel>();
 
     /**
      * TODO: we should probably provide the data directory as a constructor
@@ -154,6 +188,117 @@ public class PaletteManager {
         }
 	}
 
+	/**
+	 * Returns a color indexer for the specified palette. The indexer is thread safe and
+	 * shared among all the requests using the same palette, so that its inverse color map
+	 * is built only once
+	 */
+	public static ColorIndexer getColorIndexer(IndexColorModel icm) {
+	    ColorIndexer indexer = indexerCache.get(icm);
+	    if (indexer == null) {
+	        // at worst two threads build the same indexer
+	        indexer = new LookupTableColorIndexer(icm);
+	        indexerCache.put(icm, indexer);
+	    }
+	    return indexer;
+	}
+
+	/**
+	 * Returns the key of the fixed palette to be used for the request, or null if the request
+	 * should not use a fixed palette. A fixed palette is used only if all the requested layers
+	 * enable it with the {@link #FIXED_PALETTE} metadata, and are drawn with catalog styles.
+	 * Styles provided by the client (SLD, SLD_BODY, POST requests) can change at every request
+	 * while keeping the same name, so they never use a fixed palette.
+	 */
+	public static String getFixedPaletteKey(GetMapRequest request, Catalog catalog) {
+	    if (request.getSld() != null || request.getSldBody() != null) {
+	        return null;
+	    }
+	    List<MapLayerInfo> layers = request.getLayers();
+	    List<Style> styles = request.getStyles();
+	    if (layers == null || layers.isEmpty() || styles == null
+	            || styles.size() != layers.size()) {
+	        return null;
+	    }
+	    StringBuilder key = new StringBuilder();
+	    for (int i = 0; i < layers.size(); i++) {
+	        LayerInfo layer = layers.get(i).getLayerInfo();
+	        Style style = styles.get(i);
+	        if (layer == null || style == null || style.getName() == null
+	                || !Boolean.TRUE.equals(layer.getMetadata().get(FIXED_PALETTE, Boolean.class))) {
+	            return null;
+	        }
+	        StyleInfo styleInfo = getCatalogStyle(style, catalog);
+	        if (styleInfo == null) {
+	            return null;
+	        }
+	        key.append(layer.prefixedName()).append(";").append(styleInfo.getName()).append(";");
+	    }
+	    return key.toString();
+	}
+
+	/**
+	 * Returns the catalog style the specified style has been loaded from, or null if the style
+	 * does not come from the catalog
+	 */
+	static StyleInfo getCatalogStyle(Style style, Catalog catalog) {
+	    StyleInfo styleInfo = catalog.getStyleByName(style.getName());
+	    if (styleInfo == null) {
+	        return null;
+	    }
+	    try {
+	        // the resource pool caches the parsed styles, a catalog style is the very same object
+	        return styleInfo.getStyle() == style ? styleInfo : null;
+	    } catch (IOException e) {
+	        LOG.log(Level.FINE, "Could not load style " + style.getName(), e);
+	        return null;
+	    }
+	}
+
+	/**
+	 * Returns the fixed palette with the specified key, or null if it has not been computed yet
+	 */
+	public static IndexColorModel getFixedPalette(String key) {
+	    return fixedPalettes.get(key);
+	}
+
+	/**
+	 * Stores a fixed palette, unless another thread did it first.
+	 * 
+	 * @return the palette to be used, either the specified one or the one stored before
+	 */
+	public static IndexColorModel putFixedPalette(String key, IndexColorModel icm) {
+	    IndexColorModel existing = fixedPalettes.putIfAbsent(key, icm);
+	    return existing != null ? existing : icm;
+	}
+
+	/**
+	 * Drops the fixed palettes computed so far, they will be computed again on the next maps
+	 */
+	public static void clearFixedPalettes() {
+	    fixedPalettes.clear();
+	}
+
+	/**
+	 * Drops the fixed palettes of the maps including the specified layer, or drawn with the
+	 * specified style
+	 * 
+	 * @param layerName the prefixed layer name, or null
+	 * @param styleName the style name, or null
+	 */
+	public static void clearFixedPalettes(String layerName, String styleName) {
+	    for (Iterator<String> it = fixedPalettes.keySet().iterator(); it.hasNext();) {
+	        // the keys are made of layer and style name pairs, see getFixedPaletteKey
+	        String[] names = it.next().split(";");
+	        for (int i = 0; i + 1 < names.length; i += 2) {
+	            if (names[i].equals(layerName) || names[i + 1].equals(styleName)) {
+	                it.remove();
+	                break;
+	            }
+	        }
+	    }
+	}
+
 	/**
 	 * Builds the internet safe paletteInverter
 	 */
@@ -73,7 +73,6 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.identity.FeatureId;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.vfny.geoserver.util.Requests;
 import org.vfny.geoserver.util.SLDValidator;
 
 public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServletRequestAware {
@@ -109,6 +108,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      */
     private boolean laxStyleMatchAllowed = true;
 
+    /**
+     * The cache of the documents parsed out of the SLD and SLD_BODY parameters
+     */
+    private SLDCache sldCache = SLDCache.INSTANCE;
+
     public GetMapKvpRequestReader(WMS wms) {
         super(GetMapRequest.class);
         this.wms = wms;
@@ -133,6 +137,14 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         this.filterFactory = filterFactory;
     }
 
+    public SLDCache getSldCache() {
+        return sldCache;
+    }
+
+    public void setSldCache(SLDCache sldCache) {
+        this.sldCache = sldCache;
+    }
+
     public boolean isParseStyle() {
         return parseStyles;
     }
@@ -241,19 +253,9 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 LOGGER.fine("Getting layers and styles from SLD_BODY");
             }
 
-            if (getMap.getValidateSchema().booleanValue()) {
-                ByteArrayInputStream stream = new ByteArrayInputStream(getMap.getSldBody()
-                        .getBytes());
-                List errors = validateSld(stream, getMap);
-
-                if (errors.size() != 0) {
-                    throw new ServiceException(SLDValidator.getErrorMessage(
-                            new ByteArrayInputStream(getMap.getSldBody().getBytes()), errors));
-                }
-            }
-
-            InputStream input = new ByteArrayInputStream(getMap.getSldBody().getBytes());
-            StyledLayerDescriptor sld = parseSld(getMap, input);
+            byte[] contents = getMap.getSldBody().getBytes();
+            StyledLayerDescriptor sld = sldCache.get(contents, sldVariant(getMap),
+                    sldLoader(getMap));
             processSld(getMap, requestedLayerInfos, sld, styleNameList);
 
             // set filter in, we'll check consistency later
@@ -263,39 +265,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 LOGGER.fine("Getting layers and styles from reomte SLD");
             }
 
+            // the document is downloaded only once for validation and parsing, see SLDCache
             URL sldUrl = getMap.getSld();
-
-            if (getMap.getValidateSchema().booleanValue()) {
-                InputStream input = Requests.getInputStream(sldUrl);
-                List errors = null;
-
-                try {
-                    errors = validateSld(input, getMap);
-                } finally {
-                    input.close();
-                }
-
-                if ((errors != null) && (errors.size() != 0)) {
-                    input = Requests.getInputStream(sldUrl);
-
-                    try {
-                        throw new ServiceException(SLDValidator.getErrorMessage(input, errors));
-                    } finally {
-                        input.close();
-                    }
-                }
-            }
-
-            // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
-            // to do compression
-            InputStream input = Requests.getInputStream(sldUrl);
-
-            try {
-                StyledLayerDescriptor sld = parseSld(getMap, input);
-                processSld(getMap, requestedLayerInfos, sld, styleNameList);
-            } finally {
-                input.close();
-            }
+            StyledLayerDescriptor sld = sldCache.get(sldUrl, sldVariant(getMap),
+                    sldLoader(getMap));
+            processSld(getMap, requestedLayerInfos, sld, styleNameList);
 
             // set filter in, we'll check consistency later
             getMap.setFilter(filters);
@@ -543,6 +517,34 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         return filters;
     }
 
+    /**
+     * Identifies how the style documents of the request are loaded, for caching purposes
+     */
+    private String sldVariant(GetMapRequest getMap) {
+        return getMap.getSldVersion() + ";" + getMap.getValidateSchema();
+    }
+
+    /**
+     * Returns a loader that validates, if requested, and parses the style documents of the
+     * request
+     */
+    private SLDCache.Loader sldLoader(final GetMapRequest getMap) {
+        return new SLDCache.Loader() {
+            public StyledLayerDescriptor load(byte[] contents) throws IOException {
+                if (getMap.getValidateSchema().booleanValue()) {
+                    List errors = validateSld(new ByteArrayInputStream(contents), getMap);
+
+                    if (errors.size() != 0) {
+                        throw new ServiceException(SLDValidator.getErrorMessage(
+                                new ByteArrayInputStream(contents), errors));
+                    }
+                }
+
+                return parseSld(getMap, new ByteArrayInputStream(contents));
+            }
+        };
+    }
+
     /**
      * validates an sld document.
      * 
@@ -10,17 +10,32 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 import javax.media.jai.PlanarImage;
 
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
@@ -41,6 +56,13 @@ import org.geotools.util.logging.Logging;
  * first peek inside a tile cache to see if the requested tile has already been computed, if so,
  * it'll encode and return that one, otherwise it'll build a meta tile, split it, and finally encode
  * just the requested tile, putting the others in the tile cache.
+ * <p>
+ * When a raster response able to encode the requested format is available, all the tiles of the
+ * meta tile are encoded in parallel on a shared, bounded pool and the cache stores the encoded
+ * bytes instead of the raw tiles, so that the following requests can be served without any
+ * further encoding. The pool size can be set with the {@code METATILE_ENCODER_THREADS} system
+ * variable, and defaults to the number of available processors.
+ * </p>
  * 
  * @author Andrea Aime - TOPP
  * @author Simone Giannecchini - GeoSolutions
@@ -100,6 +122,35 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         }
     }    
 
+    /**
+     * Shared pool encoding the tiles of a meta tile in parallel. The queue is bounded and the
+     * caller runs the encoding itself when the pool is saturated
+     */
+    static final ThreadPoolExecutor ENCODER_POOL;
+    static {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty("METATILE_ENCODER_THREADS");
+        if (value != null) {
+            try {
+                threads = Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid METATILE_ENCODER_THREADS value " + value
+                        + ", using " + threads + " threads");
+            }
+        }
+        ENCODER_POOL = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "MetaTileEncoder-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        ENCODER_POOL.allowCoreThreadTimeOut(true);
+    }
+
     private static QuickTileCache tileCache;
 
     private GetMapRequest request;
@@ -127,6 +178,13 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         // to be used)
         QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
 
+        // if we can encode the tiles ourselves we cache them already encoded
+        Operation operation = getOperation();
+        RenderedImageMapResponse encoder = getEncoder(operation);
+        if (encoder != null) {
+            return produceEncodedMap(mapContent, key, encoder, operation);
+        }
+
         synchronized (key) {
             RenderedImage tile = tileCache.getTile(key, request);
             List<GridCoverage2D> renderedCoverages = null;
@@ -168,6 +226,142 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         }
     }
 
+    /**
+     * Same as {@link #produceMap(WMSMapContent)}, but encodes all the tiles of the meta tile in
+     * parallel and caches the encoded results
+     */
+    WebMap produceEncodedMap(WMSMapContent mapContent, MetaTileKey key,
+            RenderedImageMapResponse encoder, Operation operation) throws ServiceException,
+            IOException {
+        synchronized (key) {
+            byte[] encoded = tileCache.getEncodedTile(key, request);
+
+            if (LOGGER.isLoggable(Level.FINER)) {
+                LOGGER.finer("Looked for encoded meta tile " + key.metaTileCoords.x + ", "
+                        + key.metaTileCoords.y + "in cache: "
+                        + ((encoded != null) ? "hit!" : "miss"));
+            }
+
+            if (encoded == null) {
+                // alter the map definition so that we build a meta-tile instead
+                // of just the tile
+                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
+                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
+                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+                mapContent.setTileSize(key.getTileSize());
+
+                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
+                try {
+                    // compute once what the tiles can share, e.g. the palette
+                    encoder.prepareMetaTile(metaTileMap.getImage(), mapContent);
+                    RenderedImage[] tiles = split(key, metaTileMap.getImage(), mapContent);
+                    byte[][] encodedTiles = encode(tiles, encoder, mapContent);
+                    tileCache.storeEncodedTiles(key, encodedTiles);
+                    encoded = encodedTiles[tileCache.getTileIndex(key, request)];
+                } finally {
+                    // let go of the coverages created for rendering
+                    for (GridCoverage2D coverage : metaTileMap.getRenderedCoverages()) {
+                        RasterCleaner.addCoverage(coverage);
+                    }
+                }
+            }
+
+            RenderedImageMap tileMap = new RenderedImageMap(mapContent, null, getMimeType());
+            return new RawMap(mapContent, encoded, encoder.getMimeType(tileMap, operation));
+        }
+    }
+
+    /**
+     * Encodes the tiles in parallel using the shared encoder pool
+     */
+    static byte[][] encode(RenderedImage[] tiles, final RenderedImageMapResponse encoder,
+            final WMSMapContent mapContent) throws IOException {
+        final Thread caller = Thread.currentThread();
+        final List<RenderedImage> handedOver = Collections
+                .synchronizedList(new ArrayList<RenderedImage>());
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(tiles.length);
+        for (final RenderedImage tile : tiles) {
+            futures.add(ENCODER_POOL.submit(new Callable<byte[]>() {
+
+                public byte[] call() throws Exception {
+                    // when running in the pool hand back the images to be disposed to the
+                    // request thread, the pool threads never get a dispatcher callback
+                    boolean pooled = Thread.currentThread() != caller;
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    try {
+                        encoder.formatImageOutputStream(tile, bos, mapContent);
+                    } finally {
+                        if (pooled) {
+                            handedOver.addAll(RasterCleaner.takeImages());
+                        }
+                    }
+                    return bos.toByteArray();
+                }
+            }));
+        }
+
+        byte[][] result = new byte[tiles.length][];
+        try {
+            for (int i = 0; i < tiles.length; i++) {
+                result[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while encoding the meta tile", e);
+        } catch (ExecutionException e) {
+            for (Future<byte[]> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            }
+            throw new ServiceException("Failed to encode the meta tile", cause);
+        } finally {
+            synchronized (handedOver) {
+                for (RenderedImage image : handedOver) {
+                    RasterCleaner.addImage(image);
+                }
+            }
+            for (RenderedImage tile : tiles) {
+                RasterCleaner.addImage(tile);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds the operation descriptor used to look up the encoder, or returns null if the current
+     * request service cannot be determined
+     */
+    Operation getOperation() {
+        Request owsRequest = Dispatcher.REQUEST.get();
+        Service service = owsRequest != null ? owsRequest.getServiceDescriptor() : null;
+        if (service == null) {
+            return null;
+        }
+        return new Operation("GetMap", service, null, new Object[] { request });
+    }
+
+    /**
+     * Looks up the raster response that will encode the requested format, if any
+     */
+    RenderedImageMapResponse getEncoder(Operation operation) {
+        if (operation == null) {
+            return null;
+        }
+        for (RenderedImageMapResponse response : GeoServerExtensions
+                .extensions(RenderedImageMapResponse.class)) {
+            if (response.canHandle(operation)) {
+                return response;
+            }
+        }
+        return null;
+    }
+
     /**
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#getOutputFormatNames()
@@ -21,6 +21,7 @@ import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
@@ -89,6 +90,14 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
 
+    /**
+     * Computes the PNG8 palette once for the whole meta tile
+     */
+    @Override
+    public void prepareMetaTile(RenderedImage metaTile, WMSMapContent mapContent) {
+        prepareMetaTilePalette(metaTile, mapContent, "image/png8", true);
+    }
+
     /**
      * Transforms the rendered image into the appropriate format, streaming to the output stream.
      * 
@@ -108,15 +117,25 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
-        Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
-        float quality = (100 - wms.getPngCompression()) / 100.0f;
-        SampleModel sm = image.getSampleModel();
-        int numBits = sm.getSampleSize(0);
-        // png acceleration only works on 2 bit and 8 bit images, crashes on 4 bits
-        boolean nativeAcceleration = PNGNativeAcc.booleanValue() && !(numBits > 1 && numBits < 8);
-        ImageWorker iw = new ImageWorker(image);
-        iw.writePNG(outStream, "FILTERED", quality, nativeAcceleration, false);
-        RasterCleaner.addImage(iw.getRenderedImage());
+        if (WMS.PNG_ENCODER_GEOSERVER.equals(wms.getPngEncoder())
+                && PNGEncoder.isSupported(image)) {
+            // stream the raster data straight out, the compression percentage is mapped
+            // to the deflate levels
+            int level = Math.round(wms.getPngCompression() * 9 / 100f);
+            new PNGEncoder(level, wms.getPngFilter()).encode(image, outStream);
+            RasterCleaner.addImage(image);
+        } else {
+            Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
+            float quality = (100 - wms.getPngCompression()) / 100.0f;
+            SampleModel sm = image.getSampleModel();
+            int numBits = sm.getSampleSize(0);
+            // png acceleration only works on 2 bit and 8 bit images, crashes on 4 bits
+            boolean nativeAcceleration = PNGNativeAcc.booleanValue()
+                    && !(numBits > 1 && numBits < 8);
+            ImageWorker iw = new ImageWorker(image);
+            iw.writePNG(outStream, "FILTERED", quality, nativeAcceleration, false);
+            RasterCleaner.addImage(iw.getRenderedImage());
+        }
 
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Writing png image ... done!");
@@ -7,13 +7,15 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -22,6 +24,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
@@ -31,10 +34,29 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * A small in memory cache of split meta tiles, used to speed up tiled WMS requests when no
+ * proper tile cache is in use.
+ * <p>
+ * The cache is bounded by a memory budget, expressed in megabytes by the
+ * <code>QUICK_TILE_CACHE_MAX_SIZE</code> system/context/environment variable (defaults to 5% of
+ * the maximum heap size). The raster data size of each cached meta tile is accounted for, and
+ * the least recently used meta tiles are evicted once the budget is exceeded.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+    
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+    
+    /**
+     * The name of the variable used to configure the cache size, in megabytes
+     */
+    public static final String MAX_SIZE_KEY = "QUICK_TILE_CACHE_MAX_SIZE";
+    
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -58,22 +80,42 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * The meta tiles, in access order
+     */
+    LinkedHashMap<MetaTileKey, CacheElement> tileCache = new LinkedHashMap<MetaTileKey, CacheElement>(
+            16, 0.75f, true);
+    
+    /**
+     * The maximum amount of memory used by the cached tiles, in bytes 
+     */
+    long maxMemory = getDefaultMaxMemory();
+    
+    /**
+     * The memory used by the currently cached tiles, in bytes
+     */
+    long usedMemory;
+    
+    long hits;
+    
+    long misses;
+    
+    long evictions;
 
     public QuickTileCache(GeoServer geoServer) {
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -83,6 +125,70 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     QuickTileCache() {
     }
+    
+    static long getDefaultMaxMemory() {
+        String size = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (size != null) {
+            try {
+                return Long.parseLong(size.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_SIZE_KEY + ": " + size
+                        + ", it should be the cache size in megabytes");
+            }
+        }
+        return Runtime.getRuntime().maxMemory() / 20;
+    }
+    
+    /**
+     * Sets the maximum amount of memory used by the cached tiles, in bytes
+     */
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        evict();
+    }
+    
+    /**
+     * Returns the maximum amount of memory used by the cached tiles, in bytes
+     */
+    public synchronized long getMaxMemory() {
+        return maxMemory;
+    }
+    
+    /**
+     * Returns the memory used by the currently cached tiles, in bytes
+     */
+    public synchronized long getUsedMemory() {
+        return usedMemory;
+    }
+    
+    /**
+     * Number of meta tile lookups that found the meta tile in the cache 
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    /**
+     * Number of meta tile lookups that did not find the meta tile in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * Number of meta tiles evicted to respect the memory budget
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    /**
+     * Ratio between hits and total lookups, or 0 if no lookup has been performed yet
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : ((double) hits) / total;
+    }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
@@ -317,12 +423,14 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+        CacheElement ce = tileCache.get(key);
 
-        if (ce == null) {
+        if (ce == null || ce.tiles == null) {
+            misses++;
             return null;
         }
 
+        hits++;
         return getTile(key, request, ce.tiles);
     }
 
@@ -334,6 +442,13 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public RenderedImage getTile(MetaTileKey key, GetMapRequest request, RenderedImage[] tiles) {
+        return tiles[getTileIndex(key, request)];
+    }
+    
+    /**
+     * Returns the position of the requested tile in the meta tile split array
+     */
+    public int getTileIndex(MetaTileKey key, GetMapRequest request) {
         Envelope bbox = request.getBbox();
         if(CRS.getAxisOrder(request.getCrs()) == AxisOrder.NORTH_EAST) {
             bbox = new Envelope(bbox.getMinY(), bbox.getMaxY(), bbox.getMinX(), bbox.getMaxX());
@@ -341,8 +456,22 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoord = getTileCoordinates(bbox, key.mapKey.origin);
         Point metaCoord = key.metaTileCoords;
 
-        return tiles[tileCoord.x - metaCoord.x
-                + ((tileCoord.y - metaCoord.y) * key.getMetaFactor())];
+        return tileCoord.x - metaCoord.x + ((tileCoord.y - metaCoord.y) * key.getMetaFactor());
+    }
+    
+    /**
+     * Gathers an already encoded tile from the cache, if available
+     */
+    public synchronized byte[] getEncodedTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.get(key);
+
+        if (ce == null || ce.encodedTiles == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return ce.encodedTiles[getTileIndex(key, request)];
     }
 
     /**
@@ -354,38 +483,109 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+        store(key, new CacheElement(tiles));
+    }
+    
+    /**
+     * Puts the specified encoded tiles in the cache
+     */
+    public synchronized void storeEncodedTiles(MetaTileKey key, byte[][] encodedTiles) {
+        store(key, new CacheElement(encodedTiles));
+    }
+    
+    void store(MetaTileKey key, CacheElement ce) {
+        if (ce.size > maxMemory) {
+            // would not fit anyways
+            return;
+        }
+        
+        CacheElement old = tileCache.put(key, ce);
+        if (old != null) {
+            usedMemory -= old.size;
+        }
+        usedMemory += ce.size;
+        evict();
+    }
+    
+    /**
+     * Drops the least recently used meta tiles until the memory budget is respected
+     */
+    void evict() {
+        Iterator<CacheElement> it = tileCache.values().iterator();
+        while (usedMemory > maxMemory && it.hasNext()) {
+            CacheElement ce = it.next();
+            it.remove();
+            usedMemory -= ce.size;
+            evictions++;
+        }
+    }
+    
+    /**
+     * Empties the cache
+     */
+    public synchronized void clear() {
+        tileCache.clear();
+        usedMemory = 0;
     }
 
-    class CacheElement {
+    static class CacheElement {
         RenderedImage[] tiles;
+        
+        byte[][] encodedTiles;
+        
+        long size;
 
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            for (RenderedImage tile : tiles) {
+                size += getRasterSize(tile);
+            }
+        }
+        
+        public CacheElement(byte[][] encodedTiles) {
+            this.encodedTiles = encodedTiles;
+            for (byte[] tile : encodedTiles) {
+                size += tile.length;
+            }
         }
     }
+    
+    /**
+     * Estimates the memory used by the image raster data, in bytes
+     */
+    static long getRasterSize(RenderedImage image) {
+        if (image == null) {
+            return 0;
+        }
+        SampleModel sm = image.getSampleModel();
+        int bitsPerPixel = 0;
+        for (int size : sm.getSampleSize()) {
+            bitsPerPixel += size;
+        }
+        return ((long) image.getWidth()) * image.getHeight() * bitsPerPixel / 8;
+    }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
         // if anything changes we just wipe out the cache. the mapkey
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
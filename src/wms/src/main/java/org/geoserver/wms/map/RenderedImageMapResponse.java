@@ -21,10 +21,8 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
 import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
-import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
-import org.geoserver.wms.map.quantize.LRUColorIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
@@ -148,11 +146,7 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
             String palettedFormatName, boolean supportsTranslucency) {
         // check to see if we have to see a translucent or bitmask quantizer
         GetMapRequest request = mapContent.getRequest();
-        QuantizeMethod method = (QuantizeMethod) request.getFormatOptions().get(
-                PaletteManager.QUANTIZER);
-        boolean useBitmaskQuantizer = method == QuantizeMethod.Octree
-                || !supportsTranslucency
-                || (method == null && image.getColorModel().getTransparency() != Transparency.TRANSLUCENT);
+        boolean useBitmaskQuantizer = useBitmaskQuantizer(image, mapContent, supportsTranslucency);
 
         // do we have to use the bitmask quantizer?
         final String format = request.getFormat();
@@ -174,10 +168,10 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 
                 // user provided palette?
                 if (mapContent.getPalette() != null) {
-                    indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+                    indexer = PaletteManager.getColorIndexer(icm);
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
-                    indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+                    indexer = getQuantizedColorIndexer(image, mapContent);
                 }
 
                 // if we have an indexer transform the image
@@ -189,6 +183,75 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
 
         return image;
     }
+
+    /**
+     * Returns true if the image has to be turned into a paletted one with a bitmask quantizer,
+     * false if a translucent one can be used
+     */
+    boolean useBitmaskQuantizer(RenderedImage image, WMSMapContent mapContent,
+            boolean supportsTranslucency) {
+        QuantizeMethod method = (QuantizeMethod) mapContent.getRequest().getFormatOptions().get(
+                PaletteManager.QUANTIZER);
+        return method == QuantizeMethod.Octree
+                || !supportsTranslucency
+                || (method == null && image.getColorModel().getTransparency() != Transparency.TRANSLUCENT);
+    }
+
+    /**
+     * Returns the color indexer used to quantize an image: the one computed on the meta tile
+     * the image is part of, if any, or the fixed palette of the requested layers (see
+     * {@link PaletteManager#FIXED_PALETTE}), computing it out of this image if not available yet,
+     * or a new one optimized for this image otherwise
+     */
+    protected ColorIndexer getQuantizedColorIndexer(RenderedImage image, WMSMapContent mapContent) {
+        ColorIndexer indexer = mapContent.getPaletteIndexer();
+        if (indexer != null) {
+            return indexer;
+        }
+
+        String key = PaletteManager.getFixedPaletteKey(mapContent.getRequest(),
+                wms.getCatalog());
+        if (key == null) {
+            return new Quantizer(256).subsample().buildColorIndexer(image);
+        }
+        IndexColorModel icm = PaletteManager.getFixedPalette(key);
+        if (icm == null) {
+            icm = new Quantizer(256).subsample().buildColorIndexer(image).toIndexColorModel();
+            icm = PaletteManager.putFixedPalette(key, icm);
+        }
+        return PaletteManager.getColorIndexer(icm);
+    }
+
+    /**
+     * Called before a meta tile is split into tiles that are going to be encoded with the
+     * specified map content, allows to compute once whatever the tiles can share. The default
+     * implementation does nothing.
+     * 
+     * @param metaTile the full meta tile image
+     * @param mapContent the map content the tiles are going to be encoded with
+     */
+    public void prepareMetaTile(RenderedImage metaTile, WMSMapContent mapContent) {
+    }
+
+    /**
+     * Computes the palette on the whole meta tile, and stores its color indexer in the map
+     * content, so that {@link #applyPalette} quantizes all the tiles against it instead of
+     * building a new palette for each tile. Does nothing if the tiles are not going to be
+     * quantized.
+     * 
+     * @see #applyPalette(RenderedImage, WMSMapContent, String, boolean)
+     */
+    protected void prepareMetaTilePalette(RenderedImage metaTile, WMSMapContent mapContent,
+            String palettedFormatName, boolean supportsTranslucency) {
+        if (mapContent.getPaletteIndexer() == null && mapContent.getPalette() == null
+                && palettedFormatName.equalsIgnoreCase(mapContent.getRequest().getFormat())
+                && !useBitmaskQuantizer(metaTile, mapContent, supportsTranslucency)
+                && !(metaTile.getColorModel() instanceof IndexColorModel)) {
+            RenderedImage image = new ImageWorker(metaTile).rescaleToBytes()
+                    .forceComponentColorModel().getRenderedImage();
+            mapContent.setPaletteIndexer(getQuantizedColorIndexer(image, mapContent));
+        }
+    }
     
     /**
      * @param originalImage
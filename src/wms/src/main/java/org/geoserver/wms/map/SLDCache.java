@@ -0,0 +1,344 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.util.logging.Logging;
+import org.vfny.geoserver.util.Requests;
+
+/**
+ * A small in memory cache of the style documents parsed out of the <code>SLD_BODY</code> and
+ * <code>SLD</code> GetMap parameters, so that clients styling tiled maps dynamically do not
+ * cause the same document to be validated and parsed for every tile.
+ * <p>
+ * Parsed documents are keyed by a digest of their contents, so a changed document is never
+ * served from the cache. Remote documents are downloaded once per request, and when the
+ * server provided an <code>ETag</code> or <code>Last-Modified</code> header the download is
+ * made conditional, a "not modified" response reusing the cached document without
+ * transferring it again.
+ * </p>
+ * <p>
+ * The number of cached documents is bounded by the <code>SLD_CACHE_MAX_SIZE</code>
+ * system/context/environment variable (defaults to 100), the least recently used ones are
+ * evicted first. The cached documents are shared among requests and must not be modified.
+ * </p>
+ */
+public class SLDCache {
+
+    static final Logger LOGGER = Logging.getLogger(SLDCache.class);
+
+    /**
+     * The name of the variable used to configure the maximum number of cached documents
+     */
+    public static final String MAX_SIZE_KEY = "SLD_CACHE_MAX_SIZE";
+
+    static final int DEFAULT_MAX_SIZE = 100;
+
+    /**
+     * The cache shared by the GetMap readers
+     */
+    static final SLDCache INSTANCE = new SLDCache(getDefaultMaxSize());
+
+    /**
+     * Validates and parses a style document on cache misses
+     */
+    public interface Loader {
+        StyledLayerDescriptor load(byte[] contents) throws IOException;
+    }
+
+    /**
+     * The parsed documents, by content digest and loading variant, in access order
+     */
+    LinkedHashMap<String, StyledLayerDescriptor> parsed = new LinkedHashMap<String, StyledLayerDescriptor>(
+            16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, StyledLayerDescriptor> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The cache validators of the remote documents, by URL, in access order
+     */
+    LinkedHashMap<String, RemoteDocument> remote = new LinkedHashMap<String, RemoteDocument>(
+            16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, RemoteDocument> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    int maxSize;
+
+    long hits;
+
+    long misses;
+
+    long evictions;
+
+    long downloads;
+
+    long notModified;
+
+    public SLDCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    static int getDefaultMaxSize() {
+        String size = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (size != null) {
+            try {
+                return Integer.parseInt(size.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_SIZE_KEY + ": " + size
+                        + ", it should be the maximum number of cached style documents");
+            }
+        }
+        return DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Returns the parsed style document with the specified contents, loading it on cache
+     * misses.
+     *
+     * @param contents the raw document
+     * @param variant identifies how the document is loaded (e.g., the SLD version and
+     *        whether it's validated), documents loaded in different ways are cached separately
+     */
+    public StyledLayerDescriptor get(byte[] contents, String variant, Loader loader)
+            throws IOException {
+        return get(digest(contents), contents, variant, loader);
+    }
+
+    StyledLayerDescriptor get(String digest, byte[] contents, String variant, Loader loader)
+            throws IOException {
+        String key = digest + ";" + variant;
+        StyledLayerDescriptor sld = lookup(key);
+        if (sld == null) {
+            // parse outside of the lock, at worst the same document is parsed twice
+            sld = loader.load(contents);
+            synchronized (this) {
+                parsed.put(key, sld);
+            }
+        }
+        return sld;
+    }
+
+    synchronized StyledLayerDescriptor lookup(String key) {
+        StyledLayerDescriptor sld = parsed.get(key);
+        if (sld != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return sld;
+    }
+
+    /**
+     * Returns the parsed style document at the specified URL, downloading it only once, and
+     * only if it changed since it was cached when the server supports conditional requests.
+     *
+     * @param variant identifies how the document is loaded, see
+     *        {@link #get(byte[], String, Loader)}
+     */
+    public StyledLayerDescriptor get(URL url, String variant, Loader loader) throws IOException {
+        String location = url.toExternalForm();
+        RemoteDocument cached;
+        synchronized (this) {
+            cached = remote.get(location);
+        }
+
+        URLConnection conn = open(url, cached);
+        if (cached != null && conn instanceof HttpURLConnection
+                && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            StyledLayerDescriptor sld = lookup(cached.digest + ";" + variant);
+            synchronized (this) {
+                notModified++;
+            }
+            if (sld != null) {
+                return sld;
+            }
+            // the parsed document got evicted, or was loaded differently, download it again
+            ((HttpURLConnection) conn).disconnect();
+            conn = open(url, null);
+        }
+
+        byte[] contents;
+        // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
+        // to do compression
+        InputStream input = Requests.getInputStream(conn);
+        try {
+            contents = IOUtils.toByteArray(input);
+        } finally {
+            input.close();
+        }
+
+        RemoteDocument document = new RemoteDocument(digest(contents), conn);
+        synchronized (this) {
+            downloads++;
+            if (document.hasValidators()) {
+                remote.put(location, document);
+            } else {
+                remote.remove(location);
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Downloaded style document " + location + ", " + contents.length
+                    + " bytes");
+        }
+        return get(document.digest, contents, variant, loader);
+    }
+
+    /**
+     * Opens a connection, conditional if the document validators are available
+     */
+    URLConnection open(URL url, RemoteDocument cached) throws IOException {
+        URLConnection conn = url.openConnection();
+        if (conn instanceof HttpURLConnection) {
+            conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            if (cached != null) {
+                if (cached.etag != null) {
+                    conn.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified > 0) {
+                    conn.setIfModifiedSince(cached.lastModified);
+                }
+            }
+        }
+        conn.connect();
+        return conn;
+    }
+
+    static String digest(byte[] contents) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(contents);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the maximum number of cached documents
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Maximum size cannot be negative");
+        }
+        this.maxSize = maxSize;
+        if (parsed.size() > maxSize) {
+            // the maps only evict when something is added
+            evictions += parsed.size();
+            parsed.clear();
+            remote.clear();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached documents
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Number of parsed documents currently cached
+     */
+    public synchronized int getSize() {
+        return parsed.size();
+    }
+
+    /**
+     * Number of lookups that found the parsed document in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups that had to parse the document
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of parsed documents evicted to make room for new ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Number of remote documents actually downloaded
+     */
+    public synchronized long getDownloads() {
+        return downloads;
+    }
+
+    /**
+     * Number of conditional requests the remote servers answered with "not modified"
+     */
+    public synchronized long getNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public synchronized void clear() {
+        parsed.clear();
+        remote.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SLDCache(size=" + parsed.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", downloads=" + downloads + ", notModified="
+                + notModified + ")";
+    }
+
+    /**
+     * The cache validators of a remote document, along with the digest of its contents
+     */
+    static class RemoteDocument {
+        final String digest;
+
+        final String etag;
+
+        final long lastModified;
+
+        RemoteDocument(String digest, URLConnection conn) {
+            this.digest = digest;
+            this.etag = conn.getHeaderField("ETag");
+            this.lastModified = conn.getLastModified();
+        }
+
+        boolean hasValidators() {
+            return etag != null || lastModified > 0;
+        }
+    }
+}
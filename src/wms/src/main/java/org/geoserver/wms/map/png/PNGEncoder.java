@@ -0,0 +1,480 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A streaming PNG encoder specialized for the image layouts produced by the WMS: 8 bit indexed,
+ * gray, gray/alpha, RGB and RGBA images backed by byte rasters, either pixel interleaved (in
+ * any band order) or banded.
+ * <p>
+ * The image is encoded one row at a time reading the samples straight out of the raster data
+ * buffers, fetching the tiles of one tile row at a time, and the compressed data is streamed
+ * out in fixed size <code>IDAT</code> chunks, so the memory used does not depend on the image
+ * size. Use {@link #isSupported(RenderedImage)} to check whether an image can be encoded, the
+ * other layouts should be written with the Image I/O PNG writer.
+ * </p>
+ */
+public class PNGEncoder {
+
+    /**
+     * The PNG row filters, plus {@link #ADAPTIVE}, which picks for each row the filter
+     * minimizing the sum of the absolute values of the filtered bytes
+     */
+    public enum FilterType {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_INDEXED = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    /**
+     * The maximum size of the <code>IDAT</code> chunks
+     */
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    int compressionLevel;
+
+    FilterType filter;
+
+    /**
+     * @param compressionLevel the deflate level, between 0 (no compression) and 9 (best
+     *        compression)
+     * @param filter the row filter, or null to use {@link FilterType#NONE} for indexed images
+     *        and {@link FilterType#ADAPTIVE} for the others, as suggested by the PNG
+     *        specification
+     */
+    public PNGEncoder(int compressionLevel, FilterType filter) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel
+                    + ", it should be between 0 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+        this.filter = filter;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public FilterType getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns true if the image layout is supported by this encoder
+     */
+    public static boolean isSupported(RenderedImage image) {
+        return getColorType(image) >= 0;
+    }
+
+    /**
+     * Returns the PNG color type the image can be encoded with, or -1 if the layout is not
+     * supported
+     */
+    static int getColorType(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        if (!(sm instanceof ComponentSampleModel) || sm.getDataType() != DataBuffer.TYPE_BYTE
+                || cm == null) {
+            return -1;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return -1;
+            }
+        }
+
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel) {
+            return bands == 1 && ((IndexColorModel) cm).getMapSize() <= 256 ? COLOR_INDEXED : -1;
+        } else if (cm instanceof ComponentColorModel && !cm.isAlphaPremultiplied()
+                && cm.getNumComponents() == bands) {
+            int space = cm.getColorSpace().getType();
+            boolean alpha = cm.hasAlpha();
+            if (space == ColorSpace.TYPE_GRAY) {
+                if (bands == 1 && !alpha) {
+                    return COLOR_GRAY;
+                } else if (bands == 2 && alpha) {
+                    return COLOR_GRAY_ALPHA;
+                }
+            } else if (space == ColorSpace.TYPE_RGB) {
+                if (bands == 3 && !alpha) {
+                    return COLOR_RGB;
+                } else if (bands == 4 && alpha) {
+                    return COLOR_RGBA;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the image to the output stream, the stream is not closed
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        final int colorType = getColorType(image);
+        if (colorType < 0) {
+            throw new IllegalArgumentException("Unsupported image layout, sample model "
+                    + image.getSampleModel() + ", color model " + image.getColorModel());
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int bpp = image.getSampleModel().getNumBands();
+        FilterType rowFilter = filter;
+        if (rowFilter == null) {
+            rowFilter = colorType == COLOR_INDEXED ? FilterType.NONE : FilterType.ADAPTIVE;
+        }
+
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, colorType);
+        if (colorType == COLOR_INDEXED) {
+            writePalette(out, (IndexColorModel) image.getColorModel());
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            ChunkOutputStream idat = new ChunkOutputStream(out, "IDAT");
+            DeflaterOutputStream zos = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+            writeRows(image, zos, rowFilter, width * bpp, bpp);
+            zos.finish();
+            idat.flush();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    void writeHeader(OutputStream out, int width, int height, int colorType) throws IOException {
+        byte[] header = new byte[13];
+        setInt(header, 0, width);
+        setInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = (byte) colorType;
+        header[10] = 0; // deflate compression
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlacing
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", palette, palette.length);
+
+        // the alpha of the entries missing from tRNS is assumed to be 255
+        if (lastTranslucent >= 0) {
+            byte[] alphas = new byte[lastTranslucent + 1];
+            for (int i = 0; i < alphas.length; i++) {
+                alphas[i] = (byte) icm.getAlpha(i);
+            }
+            writeChunk(out, "tRNS", alphas, alphas.length);
+        }
+    }
+
+    /**
+     * Filters and writes out all the image rows
+     */
+    void writeRows(RenderedImage image, OutputStream out, FilterType rowFilter, int rowBytes,
+            int bpp) throws IOException {
+        final int minX = image.getMinX();
+        final int maxX = minX + image.getWidth();
+        final int minY = image.getMinY();
+        final int maxY = minY + image.getHeight();
+        final int minTileX = image.getMinTileX();
+        final int numTilesX = image.getNumXTiles();
+
+        // the filtered rows are stored with the filter type byte in front
+        byte[] prev = new byte[rowBytes];
+        byte[] curr = new byte[rowBytes];
+        byte[][] filtered = new byte[rowFilter == FilterType.ADAPTIVE ? 5 : 1][rowBytes + 1];
+
+        Raster[] tiles = new Raster[numTilesX];
+        int tileY = Integer.MIN_VALUE;
+        for (int y = minY; y < maxY; y++) {
+            // grab the tiles of the current tile row
+            int ty = yToTileY(image, y);
+            if (ty != tileY) {
+                tileY = ty;
+                for (int i = 0; i < numTilesX; i++) {
+                    tiles[i] = image.getTile(minTileX + i, ty);
+                }
+            }
+
+            // gather the row samples
+            for (Raster tile : tiles) {
+                Rectangle bounds = tile.getBounds();
+                int x1 = Math.max(minX, bounds.x);
+                int x2 = Math.min(maxX, bounds.x + bounds.width);
+                if (x1 < x2) {
+                    copyRow(tile, x1, x2 - x1, y, curr, (x1 - minX) * bpp);
+                }
+            }
+
+            // filter and write
+            byte[] row;
+            switch (rowFilter) {
+            case ADAPTIVE:
+                row = filterAdaptive(curr, prev, bpp, filtered);
+                break;
+            case NONE:
+                row = filtered[0];
+                row[0] = 0;
+                System.arraycopy(curr, 0, row, 1, rowBytes);
+                break;
+            default:
+                row = filtered[0];
+                filterRow(rowFilter.ordinal(), curr, prev, bpp, row);
+            }
+            out.write(row, 0, row.length);
+
+            byte[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+    }
+
+    int yToTileY(RenderedImage image, int y) {
+        int offset = y - image.getTileGridYOffset();
+        int tileHeight = image.getTileHeight();
+        return offset >= 0 ? offset / tileHeight : (offset - tileHeight + 1) / tileHeight;
+    }
+
+    /**
+     * Copies the samples of a section of row from the raster data buffer
+     */
+    void copyRow(Raster tile, int x, int width, int y, byte[] row, int rowOffset) {
+        ComponentSampleModel sm = (ComponentSampleModel) tile.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) tile.getDataBuffer();
+        final int bands = sm.getNumBands();
+        final int pixelStride = sm.getPixelStride();
+        final int[] bandOffsets = sm.getBandOffsets();
+        final int[] bankIndices = sm.getBankIndices();
+        final int position = (y - tile.getSampleModelTranslateY()) * sm.getScanlineStride()
+                + (x - tile.getSampleModelTranslateX()) * pixelStride;
+
+        // can we copy the row straight out of a single bank?
+        boolean contiguous = pixelStride == bands;
+        for (int b = 0; b < bands && contiguous; b++) {
+            contiguous = bandOffsets[b] == b && bankIndices[b] == bankIndices[0];
+        }
+        if (contiguous) {
+            int bank = bankIndices[0];
+            System.arraycopy(buffer.getData(bank), buffer.getOffsets()[bank] + position, row,
+                    rowOffset, width * bands);
+            return;
+        }
+
+        for (int b = 0; b < bands; b++) {
+            int bank = bankIndices[b];
+            byte[] data = buffer.getData(bank);
+            int src = buffer.getOffsets()[bank] + position + bandOffsets[b];
+            int dst = rowOffset + b;
+            for (int i = 0; i < width; i++) {
+                row[dst] = data[src];
+                src += pixelStride;
+                dst += bands;
+            }
+        }
+    }
+
+    /**
+     * Applies all the filters and returns the row whose bytes have the smallest sum of
+     * absolute values, taken as signed bytes, as suggested by the PNG specification
+     */
+    byte[] filterAdaptive(byte[] curr, byte[] prev, int bpp, byte[][] filtered) {
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++) {
+            byte[] row = filtered[type];
+            filterRow(type, curr, prev, bpp, row);
+            long sum = 0;
+            for (int i = 1; i < row.length && sum < bestSum; i++) {
+                sum += Math.abs(row[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Filters a row with the specified filter type, storing the type in the first byte of the
+     * output row
+     */
+    static void filterRow(int type, byte[] curr, byte[] prev, int bpp, byte[] out) {
+        final int length = curr.length;
+        out[0] = (byte) type;
+        switch (type) {
+        case 0:
+            System.arraycopy(curr, 0, out, 1, length);
+            break;
+        case 1:
+            for (int i = 0; i < bpp; i++) {
+                out[i + 1] = curr[i];
+            }
+            for (int i = bpp; i < length; i++) {
+                out[i + 1] = (byte) (curr[i] - curr[i - bpp]);
+            }
+            break;
+        case 2:
+            for (int i = 0; i < length; i++) {
+                out[i + 1] = (byte) (curr[i] - prev[i]);
+            }
+            break;
+        case 3:
+            for (int i = 0; i < bpp; i++) {
+                out[i + 1] = (byte) (curr[i] - ((prev[i] & 0xFF) >> 1));
+            }
+            for (int i = bpp; i < length; i++) {
+                out[i + 1] = (byte) (curr[i] - (((curr[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >> 1));
+            }
+            break;
+        case 4:
+            for (int i = 0; i < bpp; i++) {
+                // with no left pixels the predictor is always the one above
+                out[i + 1] = (byte) (curr[i] - prev[i]);
+            }
+            for (int i = bpp; i < length; i++) {
+                int a = curr[i - bpp] & 0xFF;
+                int b = prev[i] & 0xFF;
+                int c = prev[i - bpp] & 0xFF;
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                int predictor;
+                if (pa <= pb && pa <= pc) {
+                    predictor = a;
+                } else if (pb <= pc) {
+                    predictor = b;
+                } else {
+                    predictor = c;
+                }
+                out[i + 1] = (byte) (curr[i] - predictor);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown filter type " + type);
+        }
+    }
+
+    static void setInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        setInt(header, 0, length);
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        System.arraycopy(typeBytes, 0, header, 4, 4);
+        out.write(header);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        setInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    /**
+     * Splits the data written into chunks of the specified type, at most {@link #CHUNK_SIZE}
+     * bytes long. Flushing writes out the data accumulated so far as a chunk, closing does not
+     * close the wrapped stream
+     */
+    static class ChunkOutputStream extends OutputStream {
+
+        OutputStream out;
+
+        String type;
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+
+        int count;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeChunk(out, type, buffer, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
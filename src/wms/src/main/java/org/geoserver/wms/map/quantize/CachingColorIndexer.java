@@ -8,16 +8,22 @@ import java.awt.image.IndexColorModel;
 
 /**
  * Wraps around another palette and adds last match caching. This speeds up significantly lookups on
- * maps that have large areas with constant color
+ * maps that have large areas with constant color.
+ * <p>
+ * The last match is packed along with its color in a single volatile field, so that the cache can
+ * be shared among threads without locking.
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  */
 public class CachingColorIndexer implements ColorIndexer {
     ColorIndexer delegate;
 
-    int lr, lg, lb, la;
-
-    int idx = -1;
+    /**
+     * The last color looked up in the upper 32 bits, its index in the lower ones (negative if
+     * there is no last match yet)
+     */
+    volatile long last = -1;
 
     public CachingColorIndexer(ColorIndexer delegate) {
         this.delegate = delegate;
@@ -30,21 +36,14 @@ public class CachingColorIndexer implements ColorIndexer {
 
     @Override
     public int getClosestIndex(int r, int g, int b, int a) {
-        synchronized (this) {
-            if (r == lr && g == lg && b == lb && a == la && idx >= 0) {
-                return idx;
-            }
+        final int color = ColorUtils.color(r, g, b, a);
+        final long cached = last;
+        if ((int) (cached >>> 32) == color && (int) cached >= 0) {
+            return (int) cached;
         }
 
         int delegateIdx = delegate.getClosestIndex(r, g, b, a);
-
-        synchronized (this) {
-            lr = r;
-            lg = g;
-            lb = b;
-            la = a;
-            idx = delegateIdx;
-        }
+        last = ((long) color << 32) | delegateIdx;
 
         return delegateIdx;
     }
@@ -106,31 +106,41 @@ public class ColorIndexerOpImage extends PointOpImage {
                 + h);
         final int dstMinX = Math.max(src.getMinX(), sourceImage.getMinX());
         final int dstMinY = Math.max(src.getMinY(), sourceImage.getMinY());
-        int srcBands = src.getNumBands();
-        final int[] pixel = new int[srcBands];
-        final byte[] bytes = new byte[srcBands];
-        for (int y = srcMinY, y_ = dstMinY; y < srcMaxY; y++, y_++) {
-            for (int x = srcMinX, x_ = dstMinX; x < srcMaxX; x++, x_++) {
-                src.getPixel(x, y, pixel);
-                for (int i = 0; i < srcBands; i++) {
-                    bytes[i] = (byte) (pixel[i] & 0xFF);
-                }
+        final int srcBands = src.getNumBands();
+        final int rowLength = srcMaxX - srcMinX;
+        if (rowLength <= 0) {
+            return dest;
+        }
 
+        // work a row at a time, with buffers allocated once per tile
+        final int[] pixels = new int[rowLength * srcBands];
+        final int[] indexes = new int[rowLength];
+        // last match cache, local to this tile computation so that no synchronization is needed
+        int lastColor = 0;
+        int lastIdx = -1;
+        for (int y = srcMinY, y_ = dstMinY; y < srcMaxY; y++, y_++) {
+            src.getPixels(srcMinX, y, rowLength, 1, pixels);
+            for (int x = 0, i = 0; x < rowLength; x++, i += srcBands) {
                 int r, g, b, a;
 
                 if(srcBands == 1 || srcBands == 2) {
-                    r = g = b = pixel[0] & 0xFF;
-                    a = srcBands == 2 ? pixel[1] & 0xFF : 255;
+                    r = g = b = pixels[i] & 0xFF;
+                    a = srcBands == 2 ? pixels[i + 1] & 0xFF : 255;
                 } else  {
-                    r = pixel[0] & 0xFF;
-                    g = pixel[1] & 0xFF;
-                    b = pixel[2] & 0xFF;
-                    a = srcBands == 4 ? pixel[3] & 0xFF : 255;
+                    r = pixels[i] & 0xFF;
+                    g = pixels[i + 1] & 0xFF;
+                    b = pixels[i + 2] & 0xFF;
+                    a = srcBands == 4 ? pixels[i + 3] & 0xFF : 255;
                 }
 
-                int idx = palette.getClosestIndex(r, g, b, a);
-                dest.setSample(x_, y_, 0, (byte) (idx & 0xff));
+                int color = ColorUtils.color(r, g, b, a);
+                if (lastIdx < 0 || color != lastColor) {
+                    lastIdx = palette.getClosestIndex(r, g, b, a) & 0xff;
+                    lastColor = color;
+                }
+                indexes[x] = lastIdx;
             }
+            dest.setSamples(dstMinX, y_, rowLength, 1, 0, indexes);
         }
 
         return dest;
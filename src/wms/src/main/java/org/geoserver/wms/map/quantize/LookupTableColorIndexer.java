@@ -0,0 +1,130 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.geoserver.wms.map.quantize.ColorUtils.*;
+
+import java.awt.image.IndexColorModel;
+
+/**
+ * A color indexer based on an inverse color map, a lookup table over a reduced RGBA space (5 bits
+ * for each color component, 4 for alpha) storing the palette index closest to each cell.
+ * <p>
+ * The table is filled lazily, and can be shared among threads without any locking: each cell is
+ * computed from its representative color only, so concurrent threads filling the same cell
+ * store the same value, and each cell is a single <code>short</code>, written atomically. The
+ * cells containing a palette color are never filled, the colors falling in them are looked up
+ * exactly instead, so that the palette colors are always matched by themselves.
+ * </p>
+ */
+public class LookupTableColorIndexer implements ColorIndexer {
+
+    static final int COLOR_BITS = 5;
+
+    static final int ALPHA_BITS = 4;
+
+    static final int COLOR_SHIFT = 8 - COLOR_BITS;
+
+    static final int ALPHA_SHIFT = 8 - ALPHA_BITS;
+
+    /**
+     * Marks the cells containing palette colors
+     */
+    static final short EXACT = -1;
+
+    SimpleColorIndexer delegate;
+
+    /**
+     * The inverse color map, each cell holds the palette index plus one, zero if not computed
+     * yet, or {@link #EXACT}
+     */
+    short[] table = new short[1 << (3 * COLOR_BITS + ALPHA_BITS)];
+
+    /**
+     * Open addressing hash of the palette colors, read only once built
+     */
+    int[] paletteColors;
+
+    /**
+     * The palette index plus one of each color in {@link #paletteColors}, zero for empty slots
+     */
+    short[] paletteIndexes;
+
+    public LookupTableColorIndexer(byte[][] colors) {
+        this.delegate = new SimpleColorIndexer(colors);
+
+        int size = colors[0].length;
+        int capacity = 4;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+        paletteColors = new int[capacity];
+        paletteIndexes = new short[capacity];
+        for (int i = 0; i < size; i++) {
+            int r = colors[0][i] & 0xFF;
+            int g = colors[1][i] & 0xFF;
+            int b = colors[2][i] & 0xFF;
+            int a = colors[3][i] & 0xFF;
+            table[cell(r, g, b, a)] = EXACT;
+
+            // the first of duplicate palette entries wins, as in the exhaustive search
+            int color = color(r, g, b, a);
+            int slot = slot(color);
+            while (paletteIndexes[slot] != 0 && paletteColors[slot] != color) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (paletteIndexes[slot] == 0) {
+                paletteColors[slot] = color;
+                paletteIndexes[slot] = (short) (i + 1);
+            }
+        }
+    }
+
+    public LookupTableColorIndexer(IndexColorModel icm) {
+        this(new SimpleColorIndexer(icm).colors);
+    }
+
+    static int cell(int r, int g, int b, int a) {
+        return ((r >> COLOR_SHIFT) << (2 * COLOR_BITS + ALPHA_BITS))
+                | ((g >> COLOR_SHIFT) << (COLOR_BITS + ALPHA_BITS))
+                | ((b >> COLOR_SHIFT) << ALPHA_BITS) | (a >> ALPHA_SHIFT);
+    }
+
+    int slot(int color) {
+        int h = color * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (paletteColors.length - 1);
+    }
+
+    @Override
+    public IndexColorModel toIndexColorModel() {
+        return delegate.toIndexColorModel();
+    }
+
+    @Override
+    public int getClosestIndex(int r, int g, int b, int a) {
+        final int cell = cell(r, g, b, a);
+        final short value = table[cell];
+        if (value > 0) {
+            return value - 1;
+        } else if (value == EXACT) {
+            // a palette color, or a color that might be closer to one than the cell is
+            int color = color(r, g, b, a);
+            for (int slot = slot(color); paletteIndexes[slot] != 0; slot = (slot + 1)
+                    & (paletteColors.length - 1)) {
+                if (paletteColors[slot] == color) {
+                    return paletteIndexes[slot] - 1;
+                }
+            }
+            return delegate.getClosestIndex(r, g, b, a);
+        }
+
+        int idx = delegate.getClosestIndex(unshift(r >> COLOR_SHIFT, COLOR_SHIFT),
+                unshift(g >> COLOR_SHIFT, COLOR_SHIFT), unshift(b >> COLOR_SHIFT, COLOR_SHIFT),
+                unshift(a >> ALPHA_SHIFT, ALPHA_SHIFT));
+        table[cell] = (short) (idx + 1);
+        return idx;
+    }
+
+}
@@ -9,6 +9,10 @@ import java.awt.image.IndexColorModel;
 /**
  * Palette that re-uses the ColorMap used to build the palette itsel to speedup the lookups. When
  * there is no shift every color found in the map can be also found in the color map.
+ * <p>
+ * The color map is only read, so the indexer can be used by many threads without locking, the
+ * colors missing from it are looked up in a {@link LookupTableColorIndexer} built on demand.
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  * 
@@ -23,6 +27,8 @@ public class MappedColorIndexer implements ColorIndexer {
 
     SimpleColorIndexer delegate;
 
+    volatile LookupTableColorIndexer fallback;
+
     /**
      * Builds a new {@link MappedColorIndexer}
      * 
@@ -60,14 +66,17 @@ public class MappedColorIndexer implements ColorIndexer {
             sa = 0;
         }
 
-        synchronized (colorMap) {
-            int idx = colorMap.get(sr, sg, sb, sa);
-            if (idx < 0) {
-                idx = delegate.getClosestIndex(r, g, b, a);
-                colorMap.put(sr, sg, sb, sa, idx);
+        int idx = colorMap.get(sr, sg, sb, sa);
+        if (idx < 0) {
+            // at worst two threads build the same table
+            LookupTableColorIndexer table = fallback;
+            if (table == null) {
+                table = new LookupTableColorIndexer(colors);
+                fallback = table;
             }
-            return idx;
+            idx = table.getClosestIndex(r, g, b, a);
         }
+        return idx;
     }
 
 }
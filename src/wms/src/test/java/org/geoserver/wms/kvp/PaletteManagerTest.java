@@ -0,0 +1,36 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.kvp;
+
+import junit.framework.TestCase;
+
+public class PaletteManagerTest extends TestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        PaletteManager.clearFixedPalettes();
+    }
+
+    public void testClearFixedPalettes() {
+        PaletteManager.putFixedPalette("sf:states;population;", PaletteManager.safePalette);
+        PaletteManager.putFixedPalette("sf:states;population;sf:roads;line;",
+                PaletteManager.safePalette);
+        PaletteManager.putFixedPalette("sf:roads;line;", PaletteManager.safePalette);
+        PaletteManager.putFixedPalette("sf:lakes;polygon;", PaletteManager.safePalette);
+
+        // by layer, also in the multi layer maps
+        PaletteManager.clearFixedPalettes("sf:states", null);
+        assertNull(PaletteManager.getFixedPalette("sf:states;population;"));
+        assertNull(PaletteManager.getFixedPalette("sf:states;population;sf:roads;line;"));
+        assertNotNull(PaletteManager.getFixedPalette("sf:roads;line;"));
+
+        // by style, the layer names are not matched against the style one
+        PaletteManager.clearFixedPalettes(null, "sf:lakes");
+        assertNotNull(PaletteManager.getFixedPalette("sf:lakes;polygon;"));
+        PaletteManager.clearFixedPalettes(null, "line");
+        assertNull(PaletteManager.getFixedPalette("sf:roads;line;"));
+        assertNotNull(PaletteManager.getFixedPalette("sf:lakes;polygon;"));
+    }
+}
@@ -19,6 +19,7 @@ import java.util.TimeZone;
 
 import junit.framework.Test;
 
+import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -271,6 +272,53 @@ public class GetMapKvpRequestReaderTest extends KvpRequestReaderTestSupport {
         assertEquals("TheLibraryModeStyle", style.getName());
     }
 
+    public void testSldCached() throws Exception {
+        SLDCache cache = new SLDCache(10);
+        reader.setSldCache(cache);
+
+        HashMap kvp = new HashMap();
+        URL url = GetMapKvpRequestReader.class.getResource("BasicPolygonsLibraryDefault.sld");
+        kvp.put("sld", URLDecoder.decode(url.toExternalForm(), "UTF-8"));
+        kvp.put("layers",
+                MockData.BASIC_POLYGONS.getPrefix() + ":" + MockData.BASIC_POLYGONS.getLocalPart());
+
+        GetMapRequest request = (GetMapRequest) reader.createRequest();
+        request = (GetMapRequest) reader.read(request, parseKvp(kvp), kvp);
+        Style style = (Style) request.getStyles().get(0);
+        assertEquals(1, cache.getDownloads());
+        assertEquals(1, cache.getMisses());
+
+        // the document is downloaded again, but not parsed
+        request = (GetMapRequest) reader.createRequest();
+        request = (GetMapRequest) reader.read(request, parseKvp(kvp), kvp);
+        assertSame(style, request.getStyles().get(0));
+        assertEquals(2, cache.getDownloads());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // same contents as a SLD_BODY
+        kvp.remove("sld");
+        kvp.put("sld_body", IOUtils.toString(url.openStream()));
+        request = (GetMapRequest) reader.createRequest();
+        request = (GetMapRequest) reader.read(request, parseKvp(kvp), kvp);
+        assertSame(style, request.getStyles().get(0));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getSize());
+
+        // a different body is parsed and cached separately
+        kvp.put("sld_body", IOUtils.toString(GetMapKvpRequestReader.class
+                .getResourceAsStream("BasicPolygonsLibraryNoDefault.sld")));
+        request = (GetMapRequest) reader.createRequest();
+        request = (GetMapRequest) reader.read(request, parseKvp(kvp), kvp);
+        assertEquals("BasicPolygons", ((Style) request.getStyles().get(0)).getName());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getSize());
+
+        cache.setMaxSize(1);
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getEvictions());
+    }
+
     public void testSldFailLookup() throws Exception {
         // nothing matches the required style name
         HashMap kvp = new HashMap();
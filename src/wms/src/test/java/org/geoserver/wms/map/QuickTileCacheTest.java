@@ -6,9 +6,15 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 
 import junit.framework.TestCase;
 
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
 import com.vividsolutions.jts.geom.Envelope;
 
 public class QuickTileCacheTest extends TestCase {
@@ -53,4 +59,66 @@ public class QuickTileCacheTest extends TestCase {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    public void testMemoryBoundedEviction() {
+        // each meta tile is 9 tiles, 256 * 256 * 4 bytes each
+        RenderedImage[] tiles1 = buildMetaTile();
+        long metaTileSize = 9 * 256 * 256 * 4;
+        cache.setMaxMemory(metaTileSize * 2);
+
+        MetaTileKey k1 = buildKey(0);
+        MetaTileKey k2 = buildKey(3);
+        MetaTileKey k3 = buildKey(6);
+        cache.storeTiles(k1, tiles1);
+        cache.storeTiles(k2, buildMetaTile());
+        assertEquals(metaTileSize * 2, cache.getUsedMemory());
+
+        // access k1 so that k2 becomes the least recently used
+        assertNotNull(cache.tileCache.get(k1));
+        cache.storeTiles(k3, buildMetaTile());
+        assertEquals(metaTileSize * 2, cache.getUsedMemory());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.tileCache.containsKey(k1));
+        assertFalse(cache.tileCache.containsKey(k2));
+        assertTrue(cache.tileCache.containsKey(k3));
+
+        // shrinking the cache evicts right away
+        cache.setMaxMemory(metaTileSize);
+        assertEquals(metaTileSize, cache.getUsedMemory());
+        assertEquals(1, cache.tileCache.size());
+
+        cache.clear();
+        assertEquals(0, cache.getUsedMemory());
+    }
+
+    public void testEncodedTiles() {
+        byte[][] encoded = new byte[9][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = new byte[100 + i];
+        }
+        MetaTileKey k1 = buildKey(0);
+        cache.storeEncodedTiles(k1, encoded);
+        assertEquals(9 * 100 + 36, cache.getUsedMemory());
+        
+        // raw tiles are not available for an encoded meta tile
+        assertNull(cache.tileCache.get(k1).tiles);
+        assertSame(encoded, cache.tileCache.get(k1).encodedTiles);
+        
+        cache.clear();
+        assertEquals(0, cache.getUsedMemory());
+    }
+
+    RenderedImage[] buildMetaTile() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+        return tiles;
+    }
+
+    MetaTileKey buildKey(int x) {
+        MapKey mapKey = new MapKey("layers=test", 1, new Point2D.Double(0, 0));
+        return new MetaTileKey(mapKey, new Point(x, 0), new ReferencedEnvelope(x, x + 3, 0, 3,
+                null));
+    }
 }
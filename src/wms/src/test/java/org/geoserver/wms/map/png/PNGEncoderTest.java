@@ -0,0 +1,94 @@
+package org.geoserver.wms.map.png;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
+
+import junit.framework.TestCase;
+
+public class PNGEncoderTest extends TestCase {
+
+    public void testRGBA() throws Exception {
+        checkAllFilters(buildImage(BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    public void testRGB() throws Exception {
+        checkAllFilters(buildImage(BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    public void testGray() throws Exception {
+        checkAllFilters(buildImage(BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    public void testIndexed() throws Exception {
+        checkAllFilters(buildImage(BufferedImage.TYPE_BYTE_INDEXED));
+    }
+
+    public void testSubImage() throws Exception {
+        // the raster does not start at the beginning of the data buffer
+        checkAllFilters(buildImage(BufferedImage.TYPE_4BYTE_ABGR).getSubimage(10, 20, 70, 50));
+    }
+
+    public void testUnsupported() throws Exception {
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_BINARY)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_4BYTE_ABGR_PRE)));
+    }
+
+    public void testInvalidCompressionLevel() throws Exception {
+        try {
+            new PNGEncoder(10, FilterType.NONE);
+            fail("Should have failed, the compression level is out of range");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+    }
+
+    BufferedImage buildImage(int type) {
+        BufferedImage bi = new BufferedImage(100, 80, type);
+        Graphics2D gr = bi.createGraphics();
+        gr.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            gr.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256)));
+            gr.fillOval(random.nextInt(100), random.nextInt(80), 30, 20);
+        }
+        gr.dispose();
+        return bi;
+    }
+
+    void checkAllFilters(BufferedImage image) throws Exception {
+        for (FilterType filter : FilterType.values()) {
+            for (int level = 0; level <= 9; level += 3) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new PNGEncoder(level, filter).encode(image, bos);
+                BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+                assertSamePixels(filter + ", level " + level, image, decoded);
+            }
+        }
+    }
+
+    void assertSamePixels(String message, BufferedImage expected, RenderedImage actual) {
+        BufferedImage bi = (BufferedImage) actual;
+        assertEquals(expected.getWidth(), bi.getWidth());
+        assertEquals(expected.getHeight(), bi.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(message + ", pixel " + x + "," + y, expected.getRGB(x, y),
+                        bi.getRGB(x, y));
+            }
+        }
+    }
+}
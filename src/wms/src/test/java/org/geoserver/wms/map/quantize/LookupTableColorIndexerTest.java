@@ -0,0 +1,61 @@
+package org.geoserver.wms.map.quantize;
+
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.geoserver.wms.kvp.PaletteManager;
+
+import junit.framework.TestCase;
+
+public class LookupTableColorIndexerTest extends TestCase {
+
+    public void testPaletteColorsMatchThemselves() {
+        IndexColorModel icm = PaletteManager.safePalette;
+        LookupTableColorIndexer indexer = new LookupTableColorIndexer(icm);
+        SimpleColorIndexer simple = new SimpleColorIndexer(icm);
+        for (int i = 0; i < icm.getMapSize(); i++) {
+            int r = icm.getRed(i);
+            int g = icm.getGreen(i);
+            int b = icm.getBlue(i);
+            int a = icm.getAlpha(i);
+            assertEquals(simple.getClosestIndex(r, g, b, a), indexer.getClosestIndex(r, g, b, a));
+        }
+    }
+
+    public void testCloseToExhaustiveSearch() {
+        IndexColorModel icm = PaletteManager.safePalette;
+        LookupTableColorIndexer indexer = new LookupTableColorIndexer(icm);
+        SimpleColorIndexer simple = new SimpleColorIndexer(icm);
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            int r = random.nextInt(256);
+            int g = random.nextInt(256);
+            int b = random.nextInt(256);
+            int a = random.nextInt(256);
+            int expected = simple.getClosestIndex(r, g, b, a);
+            int actual = indexer.getClosestIndex(r, g, b, a);
+            // the table is built on a reduced color space, the match can be off by the
+            // distance between the color and the representative of its cell, twice
+            double maxError = 2 * Math.sqrt(3 * 7 * 7 + 4 * 7 * 7 + 2 * 7 * 7 + 4 * 15 * 15);
+            assertTrue(Math.sqrt(distance(icm, actual, r, g, b, a)) <= Math.sqrt(distance(icm,
+                    expected, r, g, b, a)) + maxError);
+            // and the result does not change once the cell is filled
+            assertEquals(actual, indexer.getClosestIndex(r, g, b, a));
+        }
+    }
+
+    public void testSharedIndexer() {
+        IndexColorModel icm = PaletteManager.safePalette;
+        ColorIndexer indexer = PaletteManager.getColorIndexer(icm);
+        assertTrue(indexer instanceof LookupTableColorIndexer);
+        assertSame(indexer, PaletteManager.getColorIndexer(icm));
+    }
+
+    int distance(IndexColorModel icm, int idx, int r, int g, int b, int a) {
+        int dr = icm.getRed(idx) - r;
+        int dg = icm.getGreen(idx) - g;
+        int db = icm.getBlue(idx) - b;
+        int da = icm.getAlpha(idx) - a;
+        return 3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da;
+    }
+}
@@ -6,6 +6,7 @@ package org.geoserver.wms.wms_1_1_1;
 
 import static org.custommonkey.xmlunit.XMLAssert.*;
 
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
@@ -21,6 +22,7 @@ import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.util.logging.Logging;
@@ -78,6 +80,7 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         super.populateDataDirectory(dataDirectory);
         dataDirectory.addStyle("thickStroke", GetFeatureInfoTest.class.getResource("thickStroke.sld"));
         dataDirectory.addStyle("paramStroke", GetFeatureInfoTest.class.getResource("paramStroke.sld"));
+        dataDirectory.addStyle("envFilter", GetFeatureInfoTest.class.getResource("envFilter.sld"));
         dataDirectory.addStyle("raster", GetFeatureInfoTest.class.getResource("raster.sld"));
         dataDirectory.addStyle("rasterScales", GetFeatureInfoTest.class.getResource("rasterScales.sld"));
         dataDirectory.addCoverage(TASMANIA_BM, GetFeatureInfoTest.class.getResource("tazbm.tiff"),
@@ -372,6 +375,58 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
     }
 
+    /**
+     * Tests the env params are used by the style filters of layers queried in parallel
+     * 
+     * @throws Exception
+     */
+    public void testTwoLayersEnvFilterParallel() throws Exception {
+        String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+        String request = "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&" +
+                "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325" +
+                "&INFO_FORMAT=application/vnd.ogc.gml" +
+                "&QUERY_LAYERS=" + layer + "&Layers=" + layer + "&Styles=envFilter,envFilter" +
+                "&WIDTH=426&HEIGHT=512&format=image%2Fpng&srs=EPSG%3A4326&FEATURE_COUNT=2";
+        assertNotNull(getWMS().getFeatureInfoExecutorService());
+
+        // the rules are not active without the env param
+        Document dom = getAsDOM(request);
+        assertXpathEvaluatesTo("0", "count(//cite:Forests)", dom);
+        assertXpathEvaluatesTo("0", "count(//cite:Lakes)", dom);
+
+        dom = getAsDOM(request + "&env=show:yes");
+        assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+        assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
+    }
+
+    /**
+     * Tests the layers queried sequentially and in parallel return the same features, in the
+     * same order
+     * 
+     * @throws Exception
+     */
+    public void testTwoLayersFeatureCountSequential() throws Exception {
+        String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+        String request = "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&" +
+                "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325" +
+                "&INFO_FORMAT=application/vnd.ogc.gml" +
+                "&QUERY_LAYERS=" + layer + "&Layers=" + layer + " &Styles=&WIDTH=426&HEIGHT=512" +
+                "&format=image%2Fpng&srs=EPSG%3A4326&FEATURE_COUNT=2";
+        WMS wms = getWMS();
+        ExecutorService executor = wms.getFeatureInfoExecutorService();
+        assertNotNull(executor);
+        String parallel = getAsString(request);
+        
+        wms.setFeatureInfoExecutorService(null);
+        try {
+            String sequential = getAsString(request);
+            assertEquals(sequential.replaceAll("timeStamp=\"[^\"]*\"", ""), 
+                    parallel.replaceAll("timeStamp=\"[^\"]*\"", ""));
+        } finally {
+            wms.setFeatureInfoExecutorService(executor);
+        }
+    }
+
 
     /**
      * Check GetFeatureInfo returns an error if the format is not known, instead
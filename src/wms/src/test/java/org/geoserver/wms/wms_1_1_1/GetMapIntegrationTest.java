@@ -26,9 +26,11 @@ import junit.framework.Test;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.kvp.PaletteManager;
 import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.w3c.dom.Document;
 
@@ -268,6 +270,59 @@ public class GetMapIntegrationTest extends WMSTestSupport {
         assertEquals(Transparency.TRANSLUCENT , cm.getTransparency());
     }
 
+    public void testPng8FixedPalette() throws Exception {
+        LayerInfo layer = getCatalog().getLayerByName(layers);
+        layer.getMetadata().put(PaletteManager.FIXED_PALETTE, Boolean.TRUE);
+        getCatalog().save(layer);
+        try {
+            // two different areas, the second map gets the palette computed for the first
+            IndexColorModel cm1 = getPng8Palette("-130,24,-98,50");
+            IndexColorModel cm2 = getPng8Palette("-98,24,-66,50");
+            assertEquals(cm1.getMapSize(), cm2.getMapSize());
+            for (int i = 0; i < cm1.getMapSize(); i++) {
+                assertEquals(cm1.getRGB(i), cm2.getRGB(i));
+            }
+        } finally {
+            layer.getMetadata().remove(PaletteManager.FIXED_PALETTE);
+            getCatalog().save(layer);
+            PaletteManager.clearFixedPalettes();
+        }
+    }
+
+    public void testPng8FixedPaletteSldBody() throws Exception {
+        LayerInfo layer = getCatalog().getLayerByName(layers);
+        layer.getMetadata().put(PaletteManager.FIXED_PALETTE, Boolean.TRUE);
+        getCatalog().save(layer);
+        try {
+            // a user style named after the catalog one must not compute a fixed palette
+            String styleName = layer.getDefaultStyle().getName();
+            String sld = STATES_SLD.replace("UserSelection", styleName);
+            MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox
+                    + "&styles=&layers=" + layers + "&Format=image/png8" + "&request=GetMap"
+                    + "&width=256" + "&height=256" + "&srs=EPSG:4326&transparent=true"
+                    + "&SLD_BODY=" + sld.replaceAll("=", "%3D"));
+            assertEquals("image/png; mode=8bit", response.getContentType());
+            assertNull(PaletteManager.getFixedPalette(layers + ";" + styleName + ";"));
+
+            // while the catalog style does
+            getPng8Palette(bbox);
+            assertNotNull(PaletteManager.getFixedPalette(layers + ";" + styleName + ";"));
+        } finally {
+            layer.getMetadata().remove(PaletteManager.FIXED_PALETTE);
+            getCatalog().save(layer);
+            PaletteManager.clearFixedPalettes();
+        }
+    }
+
+    IndexColorModel getPng8Palette(String bbox) throws Exception {
+        MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox
+                + "&styles=&layers=" + layers + "&Format=image/png8" + "&request=GetMap"
+                + "&width=256" + "&height=256" + "&srs=EPSG:4326&transparent=true");
+        assertEquals("image/png; mode=8bit", response.getContentType());
+        BufferedImage bi = ImageIO.read(getBinaryInputStream(response));
+        return (IndexColorModel) bi.getColorModel();
+    }
+
     
     public void testDefaultContentDisposition() throws Exception {
         MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox